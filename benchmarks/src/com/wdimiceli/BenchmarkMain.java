@@ -0,0 +1,26 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with gc.alloc.rate.norm -
+ * bytes allocated per operation, which is per glyph (or per byte) for most benchmarks here.
+ *
+ * Build with jmh-core and jmh-generator-annprocess on the classpath so the annotation processor
+ * generates the harness, compiling src/ and benchmarks/src/ together, then run from the repository
+ * root so assets/ resolves:
+ *   java -Djava.library.path=lib -cp <classes>:<jmh jars>:lib/json-simple-1.1.1.jar com.wdimiceli.BenchmarkMain [regex]
+ * The optional regex picks benchmarks, eg. "Skyline" or "RenderBenchmark.renderGlyph".
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "com\\.wdimiceli\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
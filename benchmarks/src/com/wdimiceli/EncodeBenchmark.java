@@ -0,0 +1,56 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BitmapRenderer.encode, hiding metadata in a packed atlas, reported per metadata byte.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark {
+    public static final int BYTES = 16 * 1024;
+
+    private BitmapRenderer renderer;
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        int[] widths = new int[600];
+        int[] heights = new int[600];
+        SkylineBenchmark.generate("latin", widths, heights);
+        renderer = new BitmapRenderer(1024, 1024);
+        for (int i = 0; i < widths.length; i++) {
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, widths[i], heights[i], 1, new Point(0, 0));
+            for (int y = 0; y < heights[i]; y++) {
+                for (int x = 0; x < widths[i]; x++) {
+                    glyph.setSample(x, y, 0, random.nextInt(256));
+                }
+            }
+            renderer.putRaster(glyph);
+        }
+        bytes = new byte[BYTES];
+        random.nextBytes(bytes);
+        if (renderer.bytesAvailbleForEncoding() < BYTES) {
+            throw new Exception("Not enough room to encode the benchmark bytes");
+        }
+    }
+
+    //encoding overwrites the same pixels every time, so the atlas can be reused
+    @Benchmark
+    @OperationsPerInvocation(BYTES)
+    public int encode() {
+        return renderer.encode(bytes);
+    }
+}
@@ -0,0 +1,54 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole BitmapGenerator.main runs against assets/c_and_l.ttf, one atlas per invocation.
+ * Needs the FreeType natives from lib/ on java.library.path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class EndToEndBenchmark {
+    @Param({"US_ASCII", "ISO_8859_1"})
+    public String charset;
+
+    @Param({"json", "compact"})
+    public String metadata;
+
+    private File directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("bench").toFile();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public void main() {
+        BitmapGenerator.main(new String[]{
+                "in=" + RenderBenchmark.FONT,
+                "out=" + new File(directory, "atlas.png").getPath(),
+                "sizes=16,24,32,48",
+                "charset=" + charset,
+                "metadata=" + metadata
+        });
+    }
+}
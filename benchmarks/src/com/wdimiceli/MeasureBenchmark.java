@@ -0,0 +1,67 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text measurement over the generated metrics, reported per character measured.
+ *
+ * gc.alloc.rate.norm should stay at zero for all of these.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeasureBenchmark {
+    public static final int SIZE = 24;
+    public static final int LENGTH = 4096;
+
+    private TextMeasurer measurer;
+    //mostly ASCII words with the odd accented letter, like a localized string table
+    private String text;
+    private int[] lineEnds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        for (char c = '!'; c <= '\u017F'; c++) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+            info.width = SIZE / 2 + random.nextInt(SIZE / 2);
+            info.height = SIZE;
+            info.horiAdvance = info.width + 1;
+            metrics.recordGlyph(SIZE, info);
+            for (int k = 0; k < 8; k++) {
+                metrics.recordKerning(SIZE, c, (char) ('A' + random.nextInt(58)), 64 * (1 + random.nextInt(2)));
+            }
+        }
+        measurer = new TextMeasurer(TypefaceMetricsReader.read(metrics.getBinary()), 0);
+
+        StringBuilder builder = new StringBuilder(LENGTH);
+        while (builder.length() < LENGTH) {
+            int word = 2 + random.nextInt(8);
+            for (int i = 0; i < word && builder.length() < LENGTH; i++) {
+                builder.append(random.nextInt(20) == 0 ? (char) ('\u00C0' + random.nextInt(64)) : (char) ('a' + random.nextInt(26)));
+            }
+            builder.append(' ');
+        }
+        text = builder.substring(0, LENGTH);
+        lineEnds = new int[LENGTH];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int measure() {
+        return measurer.measure(text, SIZE);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LENGTH)
+    public int breakLines() {
+        return measurer.breakLines(text, SIZE, 40 * SIZE, lineEnds);
+    }
+}
@@ -0,0 +1,127 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two metadata streams, from the raw writes up to whole documents.
+ *
+ * The stream benchmarks write one glyph record's worth of fields per operation,
+ * the document benchmarks report per glyph. The read benchmarks decode the deflated binary
+ * and the compact format, to weigh the compact format's size against its decode time.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetadataBenchmark {
+    public static final int RECORDS = 1024;
+    public static final int[] SIZES = {16, 24, 32, 48};
+    //printable ASCII at each size
+    public static final int GLYPHS = 95 * 4;
+
+    private int[] values;
+    private TypefaceMetrics metrics;
+    private byte[] binary;
+    private byte[] compact;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        values = new int[RECORDS * 7];
+        for (int i = 0; i < values.length; i++) {
+            //mostly small deltas with the odd large coordinate, like real glyph records
+            values[i] = random.nextInt(8) == 0 ? random.nextInt(4096) : random.nextInt(32);
+        }
+
+        metrics = new TypefaceMetrics();
+        for (int size : SIZES) {
+            int x = 0;
+            for (char c = ' '; c <= '~'; c++) {
+                TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+                info.width = size / 2 + random.nextInt(size / 2);
+                info.height = size / 2 + random.nextInt(size / 2);
+                info.x = x;
+                info.y = size * 4;
+                info.horiAdvance = info.width + 1;
+                info.horiBearingY = info.height - random.nextInt(4);
+                x += info.width;
+                metrics.recordGlyph(size, info);
+                //a light kerning table, as a text face would have
+                for (int k = 0; k < 4; k++) {
+                    metrics.recordKerning(size, c, (char) ('A' + random.nextInt(26)), 1 + random.nextInt(3));
+                }
+            }
+        }
+        binary = metrics.getBinary();
+        compact = metrics.getCompactBinary();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public ByteBuffer bitStream() {
+        BitStream bs = new BitStream(1024);
+        for (int i = 0; i < values.length; i += 7) {
+            bs.outVarint(values[i], 3);
+            bs.outSignedVarint(values[i + 1] - 16, 3);
+            bs.outSignedVarint(values[i + 2] - 16, 4);
+            bs.outSignedVarint(values[i + 3], 3);
+            bs.outSignedVarint(values[i + 4], 3);
+            bs.outSignedVarint(values[i + 5] - 16, 3);
+            bs.out(values[i + 6] & 3, 2);
+        }
+        return bs.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public byte[] byteStream() throws Exception {
+        ByteStream bs = new ByteStream(1024);
+        for (int i = 0; i < values.length; i += 7) {
+            bs.write((char) values[i], 2);
+            bs.write(values[i + 1], 1);
+            bs.write(values[i + 2], 1);
+            bs.write(values[i + 3], 2);
+            bs.write(values[i + 4], 2);
+            bs.write(values[i + 5], 2);
+            bs.write(values[i + 6], 2);
+        }
+        return bs.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public byte[] getBinary() throws Exception {
+        return metrics.getBinary();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public byte[] getCompactBinary() {
+        return metrics.getCompactBinary();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public byte[] getJson() throws Exception {
+        return metrics.getJson(false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public List<GlyphTable> readBinary() throws Exception {
+        return TypefaceMetricsReader.readBinary(binary);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public List<GlyphTable> readCompact() throws Exception {
+        return TypefaceMetricsReader.readCompact(compact);
+    }
+}
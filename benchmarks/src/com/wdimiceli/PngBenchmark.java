@@ -0,0 +1,80 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing the atlas out: the plain 8-bit PNG, the PNG with a metadata chunk and the 1-bit packed PNG.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PngBenchmark {
+    @Param({"512", "2048"})
+    public int atlasSize;
+
+    private BitmapRenderer renderer;
+    private BitmapRenderer packed;
+    private byte[] chunk;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Random random = new Random(42);
+        int glyphs = atlasSize * atlasSize / 400;
+        int[] widths = new int[glyphs];
+        int[] heights = new int[glyphs];
+        SkylineBenchmark.generate("latin", widths, heights);
+        renderer = new BitmapRenderer(atlasSize, atlasSize);
+        packed = new BitmapRenderer(atlasSize, atlasSize);
+        packed.setBitDepth(1, false);
+        for (int i = 0; i < glyphs; i++) {
+            //solid cores with soft edges compress like real coverage
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, widths[i], heights[i], 1, new Point(0, 0));
+            for (int y = 0; y < heights[i]; y++) {
+                for (int x = 0; x < widths[i]; x++) {
+                    boolean edge = x == 0 || y == 0 || x == widths[i] - 1 || y == heights[i] - 1;
+                    glyph.setSample(x, y, 0, edge ? random.nextInt(256) : 255);
+                }
+            }
+            renderer.putRaster(glyph);
+            packed.putRaster(glyph);
+        }
+        chunk = new byte[8 * 1024];
+        random.nextBytes(chunk);
+        file = File.createTempFile("atlas", ".png");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public File saveToFile() throws Exception {
+        renderer.saveToFile(file);
+        return file;
+    }
+
+    @Benchmark
+    public File saveWithChunk() throws Exception {
+        renderer.saveToFile(file, chunk);
+        return file;
+    }
+
+    @Benchmark
+    public File savePacked() throws Exception {
+        packed.saveToFile(file);
+        return file;
+    }
+}
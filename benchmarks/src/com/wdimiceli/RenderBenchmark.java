@@ -0,0 +1,87 @@
+package com.wdimiceli;
+
+import com.badlogic.gdx.graphics.g2d.freetype.FreeType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.Raster;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeType rasterization of the printable ASCII range from assets/c_and_l.ttf, reported per glyph.
+ * Needs the FreeType natives from lib/ on java.library.path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+    public static final String FONT = "assets/c_and_l.ttf";
+    //printable ASCII
+    public static final int GLYPHS = 95;
+
+    @Param({"16", "64"})
+    public int size;
+
+    private FreeType freetype;
+    private FreeType.Face face;
+    private int[] glyphIndices;
+    private BitmapRenderer renderer;
+    //only counts the calls, the generator needs somewhere to put them
+    private RunStats stats;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        freetype = new FreeType();
+        stats = new RunStats();
+        face = freetype.loadFile(FONT);
+        if (face == null) {
+            throw new Exception("Failed to load file: " + FONT);
+        }
+        FreeType.setPixelSizes(face, 0, size);
+        glyphIndices = new int[GLYPHS];
+        for (int i = 0; i < GLYPHS; i++) {
+            glyphIndices[i] = FreeType.getCharIndex(face, ' ' + i);
+        }
+    }
+
+    //a fresh atlas for every pass so each one packs the same way
+    @Setup(Level.Invocation)
+    public void newAtlas() {
+        renderer = new BitmapRenderer(1024, 1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        freetype.close();
+    }
+
+    private Raster render(int glyphIndex) throws Exception {
+        if (!FreeType.loadGlyph(face, glyphIndex, 0)) {
+            throw new Exception("Failed to load glyph with index: " + String.valueOf(glyphIndex));
+        }
+        return BitmapGenerator.renderGlyph(face.getGlyph(), FreeType.FT_RENDER_MODE_NORMAL, stats);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public void renderGlyph(Blackhole blackhole) throws Exception {
+        for (int i = 0; i < GLYPHS; i++) {
+            blackhole.consume(render(glyphIndices[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public BitmapRenderer renderAndPlace() throws Exception {
+        for (int i = 0; i < GLYPHS; i++) {
+            Raster raster = render(glyphIndices[i]);
+            if (raster != null) {
+                renderer.putRaster(raster);
+            }
+        }
+        return renderer;
+    }
+}
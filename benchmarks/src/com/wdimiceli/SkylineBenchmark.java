@@ -0,0 +1,86 @@
+package com.wdimiceli;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.Point;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SkylineBottomLeft.place on synthetic glyph boxes, reported per glyph.
+ *
+ * latin - US-ASCII sized boxes at four text sizes, mostly taller than wide
+ * cjk - near square ideographs at two sizes
+ * mixed - everything from 8 to 128 pixels, as a multi-size atlas would see
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SkylineBenchmark {
+    public static final int GLYPHS = 4096;
+
+    @Param({"latin", "cjk", "mixed"})
+    public String distribution;
+
+    @Param({"false", "true"})
+    public boolean rotate;
+
+    private int[] widths;
+    private int[] heights;
+    //square with some slack over the glyph area, so the skyline gets as ragged as a real atlas
+    private int canvas;
+
+    /*
+    fills the arrays with glyph boxes from the named distribution, same seed every time
+     */
+    public static void generate(String distribution, int[] widths, int[] heights) {
+        Random random = new Random(42);
+        int[] latinSizes = {16, 24, 32, 48};
+        int[] cjkSizes = {16, 32};
+        for (int i = 0; i < widths.length; i++) {
+            int size;
+            if (distribution.equals("latin")) {
+                size = latinSizes[random.nextInt(latinSizes.length)];
+                widths[i] = Math.max(1, (int) (size * (0.2 + 0.5 * random.nextDouble())));
+                heights[i] = Math.max(1, (int) (size * (0.5 + 0.5 * random.nextDouble())));
+            } else if (distribution.equals("cjk")) {
+                size = cjkSizes[random.nextInt(cjkSizes.length)];
+                widths[i] = Math.max(1, (int) (size * (0.85 + 0.15 * random.nextDouble())));
+                heights[i] = Math.max(1, (int) (size * (0.85 + 0.15 * random.nextDouble())));
+            } else {
+                size = 8 + random.nextInt(121);
+                widths[i] = Math.max(1, (int) (size * (0.2 + 0.8 * random.nextDouble())));
+                heights[i] = Math.max(1, (int) (size * (0.3 + 0.7 * random.nextDouble())));
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        widths = new int[GLYPHS];
+        heights = new int[GLYPHS];
+        generate(distribution, widths, heights);
+        long area = 0;
+        for (int i = 0; i < GLYPHS; i++) {
+            area += (long) widths[i] * heights[i];
+        }
+        canvas = (int) Math.sqrt(area * 1.5);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GLYPHS)
+    public Point place() {
+        SkylineBottomLeft skyline = new SkylineBottomLeft(canvas, canvas);
+        for (int i = 0; i < GLYPHS; i++) {
+            if (rotate) {
+                skyline.placeRotatable(widths[i], heights[i]);
+            } else {
+                skyline.place(widths[i], heights[i]);
+            }
+        }
+        return skyline.boundingBox();
+    }
+}
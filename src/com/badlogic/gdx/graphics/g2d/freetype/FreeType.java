@@ -687,18 +687,28 @@ public class FreeType {
     }
 
     private Library library;
-    private int faceIndexSerial = 0;
     private ArrayList<Face> faces;
 
     public Face loadFile (String filename) {
-        Face retval = FreeType.newFace(this.library, filename, this.faceIndexSerial);
+        return loadFile(filename, 0);
+    }
+
+    //faceIndex picks the face in a collection (.ttc), single face files only have face 0
+    public Face loadFile (String filename, int faceIndex) {
+        Face retval = FreeType.newFace(this.library, filename, faceIndex);
         if (retval != null) {
-            this.faceIndexSerial++;
             this.faces.add(retval);
         }
         return retval;
     }
 
+    //releases one face before the library is closed, eg. when its file changed and it is loaded again
+    public void closeFace (Face face) {
+        if (this.faces.remove(face)) {
+            FreeType.doneFace(face);
+        }
+    }
+
     public void close() {
         for (Face f : this.faces) {
             FreeType.doneFace(f);
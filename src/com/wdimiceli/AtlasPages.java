@@ -0,0 +1,327 @@
+package com.wdimiceli;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * A set of atlas pages, each with its own packer, opened as the previous ones fill up.
+ *
+ * Auto sized pages grow until they reach the page size cap. Once a glyph doesn't fit on any page
+ * at the cap (or at the fixed size) a new page is started. Every page holds one BitmapRenderer per
+ * color channel, all kept the same size.
+ *
+ * Planning pages only track the layout: glyphs are placed by size and no pixel planes are allocated.
+ */
+public class AtlasPages {
+    //page indices are stored in a byte in the binary metadata
+    public static final int MAX_PAGES = 255;
+
+    /*
+    where a glyph ended up
+    rotated glyphs were stored transposed
+     */
+    public static class Placement {
+        public final int page;
+        public final Point point;
+        public final boolean rotated;
+
+        public Placement(int in_page, Point in_point, boolean in_rotated) {
+            page = in_page;
+            point = in_point;
+            rotated = in_rotated;
+        }
+    }
+
+    private final ArrayList<BitmapRenderer[]> pages;
+    private final int initialWidth;
+    private final int initialHeight;
+    private final boolean autoWidth;
+    private final boolean autoHeight;
+    private final boolean restrictPowerOfTwo;
+    private final int pageCap;
+    private final int channelCount;
+    //applied to every renderer as pages are opened
+    private int blockAlignment;
+    private int bitDepth;
+    private boolean dither;
+    private boolean planning;
+    //glyphs may be turned on their side when that packs tighter
+    private boolean rotation;
+
+    /*
+    returns the next-highest power of two integer from the input parameter
+     */
+    public static int nearestPowerOfTwo(int number) {
+        int retval = 1;
+        while (retval < number) {
+            retval *= 2;
+        }
+        return retval;
+    }
+
+    public static int expandDimension(int originalSize, int newRectDimension, boolean restrictPowerOfTwo) {
+        //simple heuristic: expand by 3 times the amount we're missing
+        //note that the skyline algorithm should have some extra leeway
+        //  so we don't want to be stingy
+        int minWidth = originalSize + newRectDimension*3;
+        if (restrictPowerOfTwo) {
+            originalSize = nearestPowerOfTwo(minWidth);
+        } else {
+            originalSize = minWidth;
+        }
+        return originalSize;
+    }
+
+    public void setBlockAlignment(int in_blockAlignment) {
+        blockAlignment = in_blockAlignment;
+        for (BitmapRenderer[] page : pages) {
+            for (BitmapRenderer channel : page) {
+                channel.setBlockAlignment(blockAlignment);
+            }
+        }
+    }
+
+    public void setBitDepth(int in_bitDepth, boolean in_dither) {
+        bitDepth = in_bitDepth;
+        dither = in_dither;
+        for (BitmapRenderer[] page : pages) {
+            for (BitmapRenderer channel : page) {
+                channel.setBitDepth(bitDepth, dither);
+            }
+        }
+    }
+
+    /*
+    pages opened from now on hold no pixels, glyphs go in with place(width, height, channel)
+     */
+    public void setPlanning(boolean in_planning) {
+        planning = in_planning;
+    }
+
+    public void setRotation(boolean in_rotation) {
+        rotation = in_rotation;
+    }
+
+    /*
+    puts the rectangle on one channel of a page, drawing the raster if there is one
+    returns the area taken, turned if the rectangle was rotated
+     */
+    private Rectangle put(BitmapRenderer renderer, Raster raster, int width, int height) {
+        if (rotation) {
+            return raster != null ? renderer.putRasterRotatable(raster) : renderer.reserveRotatable(width, height);
+        }
+        Point p = raster != null ? renderer.putRaster(raster) : renderer.reserve(width, height);
+        return p != null ? new Rectangle(p.x, p.y, width, height) : null;
+    }
+
+    private BitmapRenderer[] openPage() throws Exception {
+        if (pages.size() == MAX_PAGES) {
+            throw new Exception("Too many atlas pages!  Aborting.");
+        }
+        BitmapRenderer[] page = new BitmapRenderer[channelCount];
+        for (int c = 0; c < channelCount; c++) {
+            page[c] = new BitmapRenderer(initialWidth, initialHeight, !planning);
+            page[c].setBlockAlignment(blockAlignment);
+            page[c].setBitDepth(bitDepth, dither);
+        }
+        pages.add(page);
+        return page;
+    }
+
+    /*
+    grows the page towards the cap until the rectangle fits
+    returns null if the page can't grow any further
+     */
+    private Rectangle growAndPlace(BitmapRenderer[] page, Raster raster, int rectWidth, int rectHeight, int channel) {
+        Rectangle p = null;
+        while (p == null) {
+            int width = page[0].getWidth();
+            int height = page[0].getHeight();
+            int newWidth = autoWidth ? Math.min(pageCap, expandDimension(width, rectWidth, restrictPowerOfTwo)) : width;
+            int newHeight = autoHeight ? Math.min(pageCap, expandDimension(height, rectHeight, restrictPowerOfTwo)) : height;
+            if (newWidth == width && newHeight == height) {
+                return null;
+            }
+            for (BitmapRenderer renderer : page) {
+                renderer.expand(newWidth, newHeight);
+            }
+            p = put(page[channel], raster, rectWidth, rectHeight);
+        }
+        return p;
+    }
+
+    /*
+    puts the raster on the first page with room for it, growing the last page or opening a new one if needed
+     */
+    public Placement place(Raster raster, int channel) throws Exception {
+        return place(raster, raster.getWidth(), raster.getHeight(), channel);
+    }
+
+    /*
+    places a glyph by size alone, for planning pages
+     */
+    public Placement place(int width, int height, int channel) throws Exception {
+        return place(null, width, height, channel);
+    }
+
+    private Placement place(Raster raster, int width, int height, int channel) throws Exception {
+        for (int i = 0; i < pages.size(); i++) {
+            Rectangle p = put(pages.get(i)[channel], raster, width, height);
+            if (p != null) {
+                return placement(i, p, width);
+            }
+        }
+        //only the last page can still be below the cap
+        if (!pages.isEmpty()) {
+            Rectangle p = growAndPlace(pages.get(pages.size() - 1), raster, width, height, channel);
+            if (p != null) {
+                return placement(pages.size() - 1, p, width);
+            }
+        }
+        BitmapRenderer[] page = openPage();
+        Rectangle p = put(page[channel], raster, width, height);
+        if (p == null) {
+            p = growAndPlace(page, raster, width, height, channel);
+        }
+        if (p == null) {
+            throw new Exception("Glyph is larger than the page size!  Aborting.");
+        }
+        return placement(pages.size() - 1, p, width);
+    }
+
+    private static Placement placement(int page, Rectangle area, int width) {
+        return new Placement(page, area.getLocation(), area.width != width);
+    }
+
+    public int pageCount() {
+        return pages.size();
+    }
+
+    public BitmapRenderer getRenderer(int page, int channel) {
+        return pages.get(page)[channel];
+    }
+
+    public void trim(boolean uniform) {
+        trim(uniform, false);
+    }
+
+    /*
+    shrinks every page to the area its glyphs cover, power of two if required
+    uniform gives all pages the size of the largest, for texture arrays
+    square makes each page as high as it is wide
+     */
+    public void trim(boolean uniform, boolean square) {
+        ArrayList<Point> sizes = new ArrayList<Point>(pages.size());
+        Point largest = new Point(0, 0);
+        for (BitmapRenderer[] page : pages) {
+            //the image has to hold the largest channel
+            Point trimSize = new Point(0, 0);
+            for (BitmapRenderer channel : page) {
+                Point channelSize = channel.trimmedSize();
+                trimSize.x = Math.max(trimSize.x, channelSize.x);
+                trimSize.y = Math.max(trimSize.y, channelSize.y);
+            }
+            if (restrictPowerOfTwo) {
+                trimSize.x = nearestPowerOfTwo(trimSize.x);
+                trimSize.y = nearestPowerOfTwo(trimSize.y);
+            }
+            if (square) {
+                trimSize.x = Math.max(trimSize.x, trimSize.y);
+                trimSize.y = trimSize.x;
+            }
+            largest.x = Math.max(largest.x, trimSize.x);
+            largest.y = Math.max(largest.y, trimSize.y);
+            sizes.add(trimSize);
+        }
+        for (int i = 0; i < pages.size(); i++) {
+            Point trimSize = uniform ? largest : sizes.get(i);
+            BitmapRenderer[] page = pages.get(i);
+            //don't resize if the sizes are the same
+            //  this is fairly probable when we're doing POT sizing
+            if (page[0].getWidth() != trimSize.x || page[0].getHeight() != trimSize.y) {
+                for (BitmapRenderer channel : page) {
+                    channel.shrink(trimSize.x, trimSize.y);
+                }
+            }
+        }
+    }
+
+    /*
+    a single page is written to outFile, otherwise each page gets its index before the extension
+     */
+    public File pageFile(File outFile, int page) {
+        if (pages.size() == 1) {
+            return outFile;
+        }
+        return suffixed(outFile, "_" + page);
+    }
+
+    /*
+    inserts suffix before the file's extension, font.png becomes font_16.png
+     */
+    public static File suffixed(File file, String suffix) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        String renamed = dot < 0 ? name + suffix : name.substring(0, dot) + suffix + name.substring(dot);
+        return new File(file.getParentFile(), renamed);
+    }
+
+    /*
+    writes every page in parallel
+    chunk is the metadata for the first page's PNG chunk, or null
+    compressBC4 also writes a .dds next to each page
+     */
+    public void save(final File outFile, final byte[] chunk, final boolean compressBC4) throws IOException {
+        try {
+            IntStream.range(0, pages.size()).parallel().forEach(i -> {
+                try {
+                    BitmapRenderer[] page = pages.get(i);
+                    File file = pageFile(outFile, i);
+                    byte[] metadata = i == 0 ? chunk : null;
+                    if (page.length > 1) {
+                        List<BitmapRenderer> channels = new ArrayList<BitmapRenderer>();
+                        for (BitmapRenderer channel : page) {
+                            channels.add(channel);
+                        }
+                        BitmapRenderer.savePng(BitmapRenderer.mergeChannels(channels), file, metadata);
+                    } else if (metadata != null) {
+                        page[0].saveToFile(file, metadata);
+                    } else {
+                        page[0].saveToFile(file);
+                    }
+                    if (compressBC4) {
+                        page[0].saveCompressed(new File(file + ".dds"));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public AtlasPages(int in_initialWidth, int in_initialHeight, boolean in_autoWidth, boolean in_autoHeight,
+                      boolean in_restrictPowerOfTwo, int in_pageCap, int in_channelCount) {
+        pages = new ArrayList<BitmapRenderer[]>();
+        initialWidth = in_initialWidth;
+        initialHeight = in_initialHeight;
+        autoWidth = in_autoWidth;
+        autoHeight = in_autoHeight;
+        restrictPowerOfTwo = in_restrictPowerOfTwo;
+        pageCap = in_pageCap;
+        channelCount = in_channelCount;
+        blockAlignment = 1;
+        bitDepth = 8;
+        dither = false;
+        planning = false;
+        rotation = false;
+    }
+}
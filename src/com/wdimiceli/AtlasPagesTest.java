@@ -0,0 +1,112 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AtlasPagesTest {
+
+    private static AtlasPages fill(boolean uniform) throws Exception {
+        AtlasPages pages = new AtlasPages(32, 32, true, true, true, 128, 1);
+        Random random = new Random(11);
+        for (int i = 0; i < 200; i++) {
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 8 + random.nextInt(12), 10 + random.nextInt(14), 1, new Point(0, 0));
+            glyph.setSample(0, 0, 0, 255);
+            AtlasPages.Placement placement = pages.place(glyph, 0);
+            BitmapRenderer renderer = pages.getRenderer(placement.page, 0);
+            assertTrue(placement.point.x + glyph.getWidth() <= renderer.getWidth());
+            assertTrue(placement.point.y + glyph.getHeight() <= renderer.getHeight());
+            assertEquals(255, renderer.getImage().getRaster().getSample(placement.point.x, placement.point.y, 0));
+        }
+        pages.trim(uniform);
+        return pages;
+    }
+
+    @Test
+    public void testPagesStayUnderCap() throws Exception {
+        AtlasPages pages = fill(false);
+        assertTrue(pages.pageCount() > 1);
+        for (int i = 0; i < pages.pageCount(); i++) {
+            assertTrue(pages.getRenderer(i, 0).getWidth() <= 128);
+            assertTrue(pages.getRenderer(i, 0).getHeight() <= 128);
+        }
+        //the last page is usually only partly filled
+        BitmapRenderer last = pages.getRenderer(pages.pageCount() - 1, 0);
+        assertTrue(last.getWidth() * last.getHeight() <= 128 * 128);
+    }
+
+    @Test
+    public void testUniformPages() throws Exception {
+        AtlasPages pages = fill(true);
+        for (int i = 0; i < pages.pageCount(); i++) {
+            assertEquals(pages.getRenderer(0, 0).getWidth(), pages.getRenderer(i, 0).getWidth());
+            assertEquals(pages.getRenderer(0, 0).getHeight(), pages.getRenderer(i, 0).getHeight());
+        }
+    }
+
+    @Test
+    public void testPlanningMatchesRendering() throws Exception {
+        AtlasPages rendered = new AtlasPages(32, 32, true, true, false, 128, 1);
+        AtlasPages planned = new AtlasPages(32, 32, true, true, false, 128, 1);
+        planned.setPlanning(true);
+        Random random = new Random(5);
+        for (int i = 0; i < 150; i++) {
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 6 + random.nextInt(20), 6 + random.nextInt(20), 1, new Point(0, 0));
+            AtlasPages.Placement a = rendered.place(glyph, 0);
+            AtlasPages.Placement b = planned.place(glyph.getWidth(), glyph.getHeight(), 0);
+            assertEquals(a.page, b.page);
+            assertEquals(a.point, b.point);
+        }
+        rendered.trim(false);
+        planned.trim(false);
+        assertEquals(rendered.pageCount(), planned.pageCount());
+        for (int i = 0; i < planned.pageCount(); i++) {
+            assertNull(planned.getRenderer(i, 0).getImage());
+            assertEquals(rendered.getRenderer(i, 0).getWidth(), planned.getRenderer(i, 0).getWidth());
+            assertEquals(rendered.getRenderer(i, 0).getHeight(), planned.getRenderer(i, 0).getHeight());
+        }
+    }
+
+    @Test
+    public void testSquarePages() throws Exception {
+        AtlasPages pages = fill(false);
+        pages.trim(false, true);
+        for (int i = 0; i < pages.pageCount(); i++) {
+            assertEquals(pages.getRenderer(i, 0).getWidth(), pages.getRenderer(i, 0).getHeight());
+        }
+    }
+
+    @Test (expected=Exception.class)
+    public void testGlyphLargerThanPage() throws Exception {
+        AtlasPages pages = new AtlasPages(32, 32, true, true, false, 64, 1);
+        pages.place(Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 100, 10, 1, new Point(0, 0)), 0);
+    }
+
+    @Test
+    public void testSave() throws Exception {
+        AtlasPages pages = fill(false);
+        File directory = Files.createTempDirectory("pages").toFile();
+        File out = new File(directory, "atlas.png");
+        try {
+            assertEquals(new File(directory, "atlas_1.png"), pages.pageFile(out, 1));
+            pages.save(out, new byte[]{1, 2, 3}, false);
+            for (int i = 0; i < pages.pageCount(); i++) {
+                assertTrue(pages.pageFile(out, i).exists());
+            }
+            assertArrayEquals(new byte[]{1, 2, 3}, TypefaceMetricsReader.extractChunk(Files.newInputStream(pages.pageFile(out, 0).toPath())));
+        } finally {
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+}
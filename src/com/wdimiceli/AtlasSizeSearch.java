@@ -0,0 +1,226 @@
+package com.wdimiceli;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Finds a small page size for a known list of glyph rectangles.
+ *
+ * Starting from a lower bound on the total glyph area, candidate sizes are binary searched with
+ * packing dry runs on bare skylines, so nothing is rasterized until the winning size is known.
+ * Rectangles are packed in the order given, the same order the atlas itself will use, so a size
+ * that fits here fits there.
+ */
+public class AtlasSizeSearch {
+    //free aspect tries widths this far either side of the square root of the glyph area
+    private static final double ASPECT_RANGE = 2.0;
+    //and steps between them by this factor
+    private static final double WIDTH_STEP = 1.05;
+
+    /*
+    a page size that holds every rectangle, with the area it trims down to
+     */
+    private static class Fit {
+        public final Point size;
+        public final long trimmedArea;
+
+        public Fit(Point in_size, long in_trimmedArea) {
+            size = in_size;
+            trimmedArea = in_trimmedArea;
+        }
+    }
+
+    private final int[] widths;
+    private final int[] heights;
+    private final int[] channels;
+    private final int channelCount;
+    private final boolean restrictPowerOfTwo;
+    private final int maxSize;
+    private int alignment;
+    private boolean rotation;
+
+    public void setAlignment(int in_alignment) {
+        alignment = in_alignment;
+    }
+
+    /*
+    lets rectangles turn on their side, as AtlasPages.setRotation() does
+     */
+    public void setRotation(boolean in_rotation) {
+        rotation = in_rotation;
+    }
+
+    private int align(int value) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    /*
+    packs every rectangle into a single page of this size
+    returns the bounding box of the packing, or null if something didn't fit
+     */
+    public Point pack(int width, int height) {
+        SkylineBottomLeft[] skylines = new SkylineBottomLeft[channelCount];
+        for (int c = 0; c < channelCount; c++) {
+            skylines[c] = new SkylineBottomLeft(width, height);
+            skylines[c].setAlignment(alignment);
+        }
+        for (int i = 0; i < widths.length; i++) {
+            SkylineBottomLeft skyline = skylines[channels[i]];
+            if ((rotation ? skyline.placeRotatable(widths[i], heights[i]) : skyline.place(widths[i], heights[i])) == null) {
+                return null;
+            }
+        }
+        Point box = new Point(0, 0);
+        for (SkylineBottomLeft skyline : skylines) {
+            Point channelBox = skyline.boundingBox();
+            box.x = Math.max(box.x, channelBox.x);
+            box.y = Math.max(box.y, channelBox.y);
+        }
+        return box;
+    }
+
+    /*
+    returns the aligned glyph area of the fullest channel, no page can be smaller than this
+     */
+    public long areaLowerBound() {
+        long[] area = new long[channelCount];
+        for (int i = 0; i < widths.length; i++) {
+            area[channels[i]] += (long) align(widths[i]) * align(heights[i]);
+        }
+        return Arrays.stream(area).max().orElse(0);
+    }
+
+    /*
+    the sizes a page side may take, smallest first
+    the packer only takes rectangles strictly smaller than the page
+     */
+    private int[] candidates(int minimum) {
+        minimum = Math.max(minimum, 1);
+        if (restrictPowerOfTwo) {
+            ArrayList<Integer> sizes = new ArrayList<Integer>();
+            for (int size = AtlasPages.nearestPowerOfTwo(minimum); size <= maxSize; size *= 2) {
+                sizes.add(size);
+            }
+            return sizes.stream().mapToInt(Integer::intValue).toArray();
+        }
+        if (minimum > maxSize) {
+            return new int[0];
+        }
+        int[] sizes = new int[maxSize - minimum + 1];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = minimum + i;
+        }
+        return sizes;
+    }
+
+    /*
+    binary searches for the smallest candidate that fits, assuming larger sizes keep fitting
+    returns -1 if even the largest doesn't fit
+     */
+    private static int firstFit(int[] candidates, IntPredicate fits) {
+        if (candidates.length == 0 || !fits.test(candidates[candidates.length - 1])) {
+            return -1;
+        }
+        int low = 0;
+        int high = candidates.length - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (fits.test(candidates[middle])) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return candidates[low];
+    }
+
+    /*
+    the area the page will have once trimmed to its glyphs
+     */
+    private long trimmedArea(Point box) {
+        if (restrictPowerOfTwo) {
+            return (long) AtlasPages.nearestPowerOfTwo(box.x) * AtlasPages.nearestPowerOfTwo(box.y);
+        }
+        return (long) box.x * box.y;
+    }
+
+    /*
+    fixedWidth and fixedHeight are 0 when that side is searched
+    square makes both sides the same when both are searched
+    returns the page size to pack into, or null if the glyphs don't fit on one page of the largest size
+     */
+    public Point search(int fixedWidth, int fixedHeight, boolean square) {
+        int minWidth = 1;
+        int minHeight = 1;
+        for (int i = 0; i < widths.length; i++) {
+            //a rotated rectangle only needs its short side to fit either way
+            int width = rotation ? Math.min(widths[i], heights[i]) : widths[i];
+            int height = rotation ? Math.min(widths[i], heights[i]) : heights[i];
+            minWidth = Math.max(minWidth, align(width) + 1);
+            minHeight = Math.max(minHeight, align(height) + 1);
+        }
+        final long area = areaLowerBound();
+        if (fixedWidth > 0 && fixedHeight > 0) {
+            return pack(fixedWidth, fixedHeight) != null ? new Point(fixedWidth, fixedHeight) : null;
+        }
+        if (fixedWidth > 0) {
+            int height = firstFit(candidates((int) Math.max(minHeight, area / fixedWidth)), h -> pack(fixedWidth, h) != null);
+            return height < 0 ? null : new Point(fixedWidth, height);
+        }
+        if (fixedHeight > 0) {
+            int width = firstFit(candidates((int) Math.max(minWidth, area / fixedHeight)), w -> pack(w, fixedHeight) != null);
+            return width < 0 ? null : new Point(width, fixedHeight);
+        }
+        int root = (int) Math.ceil(Math.sqrt(area));
+        if (square) {
+            int side = firstFit(candidates(Math.max(root, Math.max(minWidth, minHeight))), s -> pack(s, s) != null);
+            return side < 0 ? null : new Point(side, side);
+        }
+
+        //free aspect - find the shortest page for a spread of widths and keep the one with the least area
+        int[] widthChoices = candidates(Math.max(minWidth, (int) (root / ASPECT_RANGE)));
+        if (widthChoices.length == 0) {
+            return null;
+        }
+        if (!restrictPowerOfTwo) {
+            ArrayList<Integer> sampled = new ArrayList<Integer>();
+            for (double width = widthChoices[0]; width <= Math.min(maxSize, root * ASPECT_RANGE); width *= WIDTH_STEP) {
+                if (sampled.isEmpty() || (int) width != sampled.get(sampled.size() - 1)) {
+                    sampled.add((int) width);
+                }
+            }
+            //the largest page is always tried so there's an answer whenever one exists
+            if (sampled.isEmpty() || sampled.get(sampled.size() - 1) != maxSize) {
+                sampled.add(maxSize);
+            }
+            widthChoices = sampled.stream().mapToInt(Integer::intValue).toArray();
+        }
+        final int searchMinHeight = minHeight;
+        Fit best = Arrays.stream(widthChoices).parallel().mapToObj(width -> {
+            int height = firstFit(candidates((int) Math.max(searchMinHeight, area / width)), h -> pack(width, h) != null);
+            return height < 0 ? null : new Fit(new Point(width, height), trimmedArea(pack(width, height)));
+        }).filter(fit -> fit != null).min((a, b) -> {
+            //the trimmed area decides, squarer pages win ties
+            int byArea = Long.compare(a.trimmedArea, b.trimmedArea);
+            return byArea != 0 ? byArea : Integer.compare(Math.max(a.size.x, a.size.y), Math.max(b.size.x, b.size.y));
+        }).orElse(null);
+        return best != null ? best.size : null;
+    }
+
+    /*
+    channels gives the color channel each rectangle is packed in, each channel has its own skyline
+    maxSize is the largest page side allowed
+     */
+    public AtlasSizeSearch(int[] in_widths, int[] in_heights, int[] in_channels, int in_channelCount, boolean in_restrictPowerOfTwo, int in_maxSize) {
+        widths = in_widths;
+        heights = in_heights;
+        channels = in_channels;
+        channelCount = in_channelCount;
+        restrictPowerOfTwo = in_restrictPowerOfTwo;
+        maxSize = in_maxSize;
+        alignment = 1;
+        rotation = false;
+    }
+}
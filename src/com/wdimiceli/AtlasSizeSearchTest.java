@@ -0,0 +1,87 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class AtlasSizeSearchTest {
+    private static final int COUNT = 300;
+
+    private static AtlasSizeSearch build(int[] widths, int[] heights, boolean restrictPowerOfTwo) {
+        Random random = new Random(3);
+        for (int i = 0; i < COUNT; i++) {
+            widths[i] = 4 + random.nextInt(20);
+            heights[i] = 8 + random.nextInt(24);
+        }
+        return new AtlasSizeSearch(widths, heights, new int[COUNT], 1, restrictPowerOfTwo, 1024);
+    }
+
+    @Test
+    public void testFreeAspect() throws Exception {
+        int[] widths = new int[COUNT];
+        int[] heights = new int[COUNT];
+        AtlasSizeSearch search = build(widths, heights, false);
+        Point size = search.search(0, 0, false);
+        Point box = search.pack(size.x, size.y);
+        assertNotNull(box);
+        assertTrue((long) box.x * box.y >= search.areaLowerBound());
+
+        //growing from 32x32 never does better
+        AtlasPages grown = new AtlasPages(32, 32, true, true, false, 1024, 1);
+        for (int i = 0; i < COUNT; i++) {
+            grown.place(Raster.createBandedRaster(DataBuffer.TYPE_BYTE, widths[i], heights[i], 1, new Point(0, 0)), 0);
+        }
+        grown.trim(false);
+        assertTrue((long) box.x * box.y <= (long) grown.getRenderer(0, 0).getWidth() * grown.getRenderer(0, 0).getHeight());
+
+        //the real atlas at the searched size takes every glyph on one page in the same places
+        AtlasPages pages = new AtlasPages(size.x, size.y, false, false, false, 1024, 1);
+        pages.setPlanning(true);
+        for (int i = 0; i < COUNT; i++) {
+            pages.place(widths[i], heights[i], 0);
+        }
+        pages.trim(false);
+        assertEquals(1, pages.pageCount());
+        assertEquals(box.x, pages.getRenderer(0, 0).getWidth());
+        assertEquals(box.y, pages.getRenderer(0, 0).getHeight());
+    }
+
+    @Test
+    public void testPowerOfTwoAndSquare() throws Exception {
+        AtlasSizeSearch search = build(new int[COUNT], new int[COUNT], true);
+        Point size = search.search(0, 0, false);
+        assertEquals(AtlasPages.nearestPowerOfTwo(size.x), size.x);
+        assertEquals(AtlasPages.nearestPowerOfTwo(size.y), size.y);
+        assertNotNull(search.pack(size.x, size.y));
+
+        Point square = search.search(0, 0, true);
+        assertEquals(square.x, square.y);
+        assertNotNull(search.pack(square.x, square.y));
+        //half the side can't hold it
+        assertNull(search.pack(square.x / 2, square.y / 2));
+    }
+
+    @Test
+    public void testFixedSide() throws Exception {
+        AtlasSizeSearch search = build(new int[COUNT], new int[COUNT], false);
+        Point size = search.search(200, 0, false);
+        assertEquals(200, size.x);
+        assertNotNull(search.pack(200, size.y));
+        assertNull(search.pack(200, size.y - 1));
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        int[] widths = new int[COUNT];
+        int[] heights = new int[COUNT];
+        build(widths, heights, false);
+        AtlasSizeSearch search = new AtlasSizeSearch(widths, heights, new int[COUNT], 1, false, 64);
+        assertNull(search.search(0, 0, false));
+        assertNull(search.search(0, 0, true));
+    }
+}
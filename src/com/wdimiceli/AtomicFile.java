@@ -0,0 +1,47 @@
+package com.wdimiceli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Outputs are written to a temporary file next to the target and renamed over it once complete,
+ * so a game or viewer reloading the atlas never sees a half written page or metadata file.
+ *
+ *   File temporary = AtomicFile.temporary(file);
+ *   ...write temporary...
+ *   AtomicFile.commit(temporary, file);
+ */
+public class AtomicFile {
+
+    /*
+    a hidden sibling of the file, in the same directory so the rename can't cross file systems
+    creates the directory if needed
+     */
+    public static File temporary(File file) {
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.exists()) {
+            directory.mkdirs();
+        }
+        return new File(directory, "." + file.getName() + ".tmp");
+    }
+
+    /*
+    moves the finished temporary file over the target, atomically where the file system allows it
+     */
+    public static void commit(File temporary, File file) throws IOException {
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static void write(File file, byte[] bytes) throws IOException {
+        File temporary = temporary(file);
+        Files.write(temporary.toPath(), bytes);
+        commit(temporary, file);
+    }
+}
@@ -0,0 +1,38 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class AtomicFileTest {
+
+    @Test
+    public void testWriteReplaces() throws Exception {
+        File directory = Files.createTempDirectory("atomic").toFile();
+        directory.deleteOnExit();
+        File file = new File(directory, "out.fnt");
+        file.deleteOnExit();
+        AtomicFile.write(file, "first".getBytes(StandardCharsets.US_ASCII));
+        AtomicFile.write(file, "second".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("second", new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII));
+        //the temporary file was renamed, not copied
+        assertFalse(AtomicFile.temporary(file).exists());
+        assertEquals(1, directory.list().length);
+    }
+
+    @Test
+    public void testTemporaryCreatesDirectory() throws Exception {
+        File directory = Files.createTempDirectory("atomic").toFile();
+        directory.deleteOnExit();
+        File file = new File(new File(directory, "nested"), "out.png");
+        File temporary = AtomicFile.temporary(file);
+        assertTrue(temporary.getParentFile().isDirectory());
+        assertEquals(file.getAbsoluteFile().getParentFile(), temporary.getParentFile());
+        assertFalse(file.getName().equals(temporary.getName()));
+        temporary.getParentFile().delete();
+    }
+}
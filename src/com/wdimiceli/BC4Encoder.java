@@ -0,0 +1,179 @@
+package com.wdimiceli;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.stream.IntStream;
+
+/**
+ * Compresses a single channel 8-bit image into BC4 (ATI1) blocks and writes them out as a DDS file.
+ *
+ * Each 4x4 block is stored as two 8-bit endpoints and sixteen 3-bit palette indices.
+ * When the first endpoint is larger the palette is eight evenly spaced values between them,
+ * otherwise it is six values plus exact 0 and 255 - which suits glyph coverage, so both are tried.
+ */
+public class BC4Encoder {
+    public static final int BLOCK_SIZE = 4;
+    public static final int BLOCK_BYTES = 8;
+
+    /*
+    fills the palette a decoder would build from these endpoints
+     */
+    private static void palette(int red0, int red1, int[] palette) {
+        palette[0] = red0;
+        palette[1] = red1;
+        if (red0 > red1) {
+            for (int i = 2; i < 8; i++) {
+                palette[i] = ((8 - i) * red0 + (i - 1) * red1 + 3) / 7;
+            }
+        } else {
+            for (int i = 2; i < 6; i++) {
+                palette[i] = ((6 - i) * red0 + (i - 1) * red1 + 2) / 5;
+            }
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+    }
+
+    /*
+    picks the nearest palette entry for every value, returns the total squared error
+     */
+    private static int chooseIndices(int[] values, int[] palette, int[] indices) {
+        int error = 0;
+        for (int i = 0; i < 16; i++) {
+            int best = 0;
+            int bestError = Integer.MAX_VALUE;
+            for (int p = 0; p < 8; p++) {
+                int difference = values[i] - palette[p];
+                if (difference * difference < bestError) {
+                    bestError = difference * difference;
+                    best = p;
+                }
+            }
+            indices[i] = best;
+            error += bestError;
+        }
+        return error;
+    }
+
+    /*
+    encodes the sixteen values of one block into bytes[offset...offset+8)
+     */
+    public static void encodeBlock(int[] values, byte[] bytes, int offset) {
+        int min = 255;
+        int max = 0;
+        //the six value palette gets 0 and 255 for free, so only the values between count for its endpoints
+        int innerMin = 255;
+        int innerMax = 0;
+        for (int i = 0; i < 16; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+            if (values[i] != 0 && values[i] != 255) {
+                innerMin = Math.min(innerMin, values[i]);
+                innerMax = Math.max(innerMax, values[i]);
+            }
+        }
+        if (innerMin > innerMax) {
+            innerMin = 0;
+            innerMax = 0;
+        }
+
+        int[] palette = new int[8];
+        int[] indices = new int[16];
+        int[] sixIndices = new int[16];
+        int red0 = max;
+        int red1 = min;
+        palette(red0, red1, palette);
+        int error = chooseIndices(values, palette, indices);
+        palette(innerMin, innerMax, palette);
+        if (chooseIndices(values, palette, sixIndices) < error) {
+            red0 = innerMin;
+            red1 = innerMax;
+            indices = sixIndices;
+        }
+
+        bytes[offset] = (byte) red0;
+        bytes[offset + 1] = (byte) red1;
+        long bits = 0;
+        for (int i = 0; i < 16; i++) {
+            bits |= (long) indices[i] << (3 * i);
+        }
+        for (int b = 0; b < 6; b++) {
+            bytes[offset + 2 + b] = (byte) (bits >>> (8 * b));
+        }
+    }
+
+    /*
+    compresses a width x height plane of 8-bit pixels, one row after another
+    partial blocks on the right and bottom edges repeat the last column and row
+    block rows are spread across threads
+     */
+    public static byte[] encode(final byte[] pixels, final int width, final int height) {
+        final int blocksWide = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final int blocksHigh = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        final byte[] blocks = new byte[blocksWide * blocksHigh * BLOCK_BYTES];
+        IntStream.range(0, blocksHigh).parallel().forEach(blockY -> {
+            int[] values = new int[16];
+            for (int blockX = 0; blockX < blocksWide; blockX++) {
+                for (int y = 0; y < BLOCK_SIZE; y++) {
+                    int row = Math.min(blockY * BLOCK_SIZE + y, height - 1) * width;
+                    for (int x = 0; x < BLOCK_SIZE; x++) {
+                        int column = Math.min(blockX * BLOCK_SIZE + x, width - 1);
+                        values[y * BLOCK_SIZE + x] = pixels[row + column] & 0xFF;
+                    }
+                }
+                encodeBlock(values, blocks, (blockY * blocksWide + blockX) * BLOCK_BYTES);
+            }
+        });
+        return blocks;
+    }
+
+    private static void writeIntLE(DataOutputStream out, int value) throws IOException {
+        out.writeInt(Integer.reverseBytes(value));
+    }
+
+    /*
+    writes the blocks with a legacy DDS header (FourCC ATI1), which every BC4 capable loader understands
+     */
+    public static void saveDds(File file, byte[] blocks, int width, int height) throws IOException {
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        GeneratorEvents.FileWrite event = new GeneratorEvents.FileWrite();
+        event.begin();
+        File temporary = AtomicFile.temporary(file);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeBytes("DDS ");
+            //header size, then flags: caps, height, width, pixel format and linear size
+            writeIntLE(out, 124);
+            writeIntLE(out, 0x1 | 0x2 | 0x4 | 0x1000 | 0x80000);
+            writeIntLE(out, height);
+            writeIntLE(out, width);
+            writeIntLE(out, blocks.length);
+            //depth, mipmap count and 11 reserved values
+            for (int i = 0; i < 13; i++) {
+                writeIntLE(out, 0);
+            }
+            //pixel format: size, FourCC flag, FourCC, then unused bit count and masks
+            writeIntLE(out, 32);
+            writeIntLE(out, 0x4);
+            out.writeBytes("ATI1");
+            for (int i = 0; i < 5; i++) {
+                writeIntLE(out, 0);
+            }
+            //caps: texture, then caps2-4 and one reserved value
+            writeIntLE(out, 0x1000);
+            for (int i = 0; i < 4; i++) {
+                writeIntLE(out, 0);
+            }
+            out.write(blocks);
+        } finally {
+            out.close();
+        }
+        AtomicFile.commit(temporary, file);
+        GeneratorEvents.fileWritten(event, file, width, height);
+    }
+}
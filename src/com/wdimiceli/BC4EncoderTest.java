@@ -0,0 +1,93 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BC4EncoderTest {
+
+    //reference decoder for one block
+    private static int[] decodeBlock(byte[] bytes, int offset) {
+        int red0 = bytes[offset] & 0xFF;
+        int red1 = bytes[offset + 1] & 0xFF;
+        int[] palette = new int[8];
+        palette[0] = red0;
+        palette[1] = red1;
+        if (red0 > red1) {
+            for (int i = 2; i < 8; i++) {
+                palette[i] = ((8 - i) * red0 + (i - 1) * red1) / 7;
+            }
+        } else {
+            for (int i = 2; i < 6; i++) {
+                palette[i] = ((6 - i) * red0 + (i - 1) * red1) / 5;
+            }
+            palette[6] = 0;
+            palette[7] = 255;
+        }
+        long bits = 0;
+        for (int b = 0; b < 6; b++) {
+            bits |= (long) (bytes[offset + 2 + b] & 0xFF) << (8 * b);
+        }
+        int[] values = new int[16];
+        for (int i = 0; i < 16; i++) {
+            values[i] = palette[(int) (bits >>> (3 * i)) & 7];
+        }
+        return values;
+    }
+
+    @Test
+    public void testCoverageBlockIsExact() throws Exception {
+        //solid glyph edges are all 0 and 255 plus a couple of in between values
+        int[] values = {0, 0, 255, 255, 0, 90, 255, 255, 0, 0, 180, 255, 0, 0, 0, 255};
+        byte[] bytes = new byte[8];
+        BC4Encoder.encodeBlock(values, bytes, 0);
+        int[] decoded = decodeBlock(bytes, 0);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(values[i], decoded[i], 1);
+        }
+    }
+
+    @Test
+    public void testGradientError() throws Exception {
+        int[] values = new int[16];
+        for (int i = 0; i < 16; i++) {
+            values[i] = 40 + i * 9;
+        }
+        byte[] bytes = new byte[8];
+        BC4Encoder.encodeBlock(values, bytes, 0);
+        int[] decoded = decodeBlock(bytes, 0);
+        for (int i = 0; i < 16; i++) {
+            assertEquals(values[i], decoded[i], 10);
+        }
+    }
+
+    @Test
+    public void testDds() throws Exception {
+        Random random = new Random(3);
+        byte[] pixels = new byte[10 * 7];
+        random.nextBytes(pixels);
+        byte[] blocks = BC4Encoder.encode(pixels, 10, 7);
+        //3x2 blocks, the right and bottom ones are partial
+        assertEquals(3 * 2 * BC4Encoder.BLOCK_BYTES, blocks.length);
+
+        File file = File.createTempFile("atlas", ".dds");
+        try {
+            BC4Encoder.saveDds(file, blocks, 10, 7);
+            ByteBuffer dds = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(128 + blocks.length, dds.capacity());
+            assertEquals(124, dds.getInt(4));
+            assertEquals(7, dds.getInt(12));
+            assertEquals(10, dds.getInt(16));
+            assertEquals('A', dds.get(84));
+            assertEquals('1', dds.get(87));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -1,60 +1,82 @@
 package com.wdimiceli;
 
 import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * Created by Wes on 7/21/2014.
  */
 public class BitStream {
-    private ByteBuffer bytes;
-    //private ArrayList<Byte> bytes;
-    private int lastByte;
-    private int remainingBits;
-    private static int int2byteMask = 0x000000FF;
+    private byte[] bytes;
+    private int byteCount;
+    //pending bits are kept right-aligned in the accumulator until we have whole bytes to flush
+    private long accumulator;
+    private int pendingBits;
     public int bitsRecorded;
 
-    private int significantBytes(int significantBits) {
-        return (int)Math.ceil(significantBits/8);
+    private void ensureCapacity(int extraBytes) {
+        if (byteCount + extraBytes > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, byteCount + extraBytes));
+        }
     }
 
     public void outChar(char binary) {
-        bytes.putChar(binary);
+        out(binary, 16);
     }
 
+    /*
+    writes the lowest maxSignificance bits of binary, most significant bit first
+     */
     public void out(int binary, int maxSignificance) {
+        assert maxSignificance > 0 && maxSignificance <= 32;
         bitsRecorded += maxSignificance;
-        int shiftRight = maxSignificance - remainingBits;
-        if (shiftRight > 0) {
-            lastByte = lastByte | (binary >> shiftRight);
-        } else {
-            lastByte = lastByte | (binary << (-shiftRight));
+        accumulator = (accumulator << maxSignificance) | (binary & (0xFFFFFFFFL >>> (32 - maxSignificance)));
+        pendingBits += maxSignificance;
+        if (pendingBits >= 8) {
+            ensureCapacity(pendingBits / 8);
+            while (pendingBits >= 8) {
+                pendingBits -= 8;
+                bytes[byteCount++] = (byte) (accumulator >>> pendingBits);
+            }
         }
-        if (maxSignificance > remainingBits) {
-            bytes.put((byte)(lastByte&int2byteMask));
-            remainingBits =  8 - shiftRight;
-            lastByte = (binary<<remainingBits)&0x0000FFFF&(~(int)(Math.pow(2,remainingBits)-1));
-        } else if (maxSignificance == remainingBits) {
-            bytes.put((byte)(lastByte&int2byteMask));
-            remainingBits = 8;
-        } else {
-            remainingBits -= maxSignificance;
+    }
+
+    /*
+    writes an unsigned value in groups of chunkBits, each followed by a continuation bit
+    small values cost chunkBits+1 bits, which is what makes deltas cheap
+     */
+    public void outVarint(int value, int chunkBits) {
+        while ((value >>> chunkBits) != 0) {
+            out(((value & ((1 << chunkBits) - 1)) << 1) | 1, chunkBits + 1);
+            value >>>= chunkBits;
         }
+        out(value << 1, chunkBits + 1);
+    }
+
+    /*
+    zig-zag maps signed values onto unsigned ones (0, -1, 1, -2...) so small negatives stay small
+     */
+    public void outSignedVarint(int value, int chunkBits) {
+        outVarint((value << 1) ^ (value >> 31), chunkBits);
     }
 
+    /*
+    pads the last byte with zeroes and returns the stream ready for reading
+     */
     public ByteBuffer close() {
-        if (lastByte != 0) {
-            bytes.put((byte)(lastByte&int2byteMask));
+        if (pendingBits > 0) {
+            ensureCapacity(1);
+            bytes[byteCount++] = (byte) (accumulator << (8 - pendingBits));
+            pendingBits = 0;
         }
-        return bytes;
+        return ByteBuffer.wrap(bytes, 0, byteCount);
     }
 
     public BitStream (int capacity) {
-        //bytes = new ArrayList<Byte>(capacity);
-        bytes = ByteBuffer.allocate(capacity);
-        remainingBits = 8;
-        lastByte = 0;
+        bytes = new byte[Math.max(capacity, 16)];
+        byteCount = 0;
+        accumulator = 0;
+        pendingBits = 0;
         bitsRecorded = 0;
     }
 }
@@ -0,0 +1,66 @@
+package com.wdimiceli;
+
+/**
+ * Reads back the bit-level encoding written by BitStream.
+ */
+public class BitStreamReader {
+    private final byte[] bytes;
+    private final int limit;
+    private int position;
+    //bits are loaded a byte at a time into the low end of the buffer, oldest bits on top
+    private long buffer;
+    private int bufferedBits;
+
+    private void refill() {
+        //top up to at least 57 bits so any 32-bit read can be served without branching again
+        while (bufferedBits <= 56) {
+            int next = position < limit ? bytes[position] & 0xFF : 0;
+            position++;
+            buffer = (buffer << 8) | next;
+            bufferedBits += 8;
+        }
+    }
+
+    public int in(int significance) {
+        assert significance > 0 && significance <= 32;
+        if (bufferedBits < significance) {
+            refill();
+        }
+        bufferedBits -= significance;
+        return (int) ((buffer >>> bufferedBits) & (0xFFFFFFFFL >>> (32 - significance)));
+    }
+
+    public char inChar() {
+        return (char) in(16);
+    }
+
+    public int inVarint(int chunkBits) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            int chunk = in(chunkBits + 1);
+            value |= (chunk >>> 1) << shift;
+            if ((chunk & 1) == 0) {
+                return value;
+            }
+            shift += chunkBits;
+        }
+    }
+
+    public int inSignedVarint(int chunkBits) {
+        int value = inVarint(chunkBits);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public BitStreamReader(byte[] in_bytes, int offset, int length) {
+        bytes = in_bytes;
+        position = offset;
+        limit = offset + length;
+        buffer = 0;
+        bufferedBits = 0;
+    }
+
+    public BitStreamReader(byte[] in_bytes) {
+        this(in_bytes, 0, in_bytes.length);
+    }
+}
@@ -10,32 +10,148 @@ import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 public class BitmapGenerator {
+    /*
+    a font argument, a path with an optional face index for collections: fonts.ttc#2
+     */
+    private static class FontFile {
+        public final File file;
+        public final int faceIndex;
+
+        public FontFile(File in_file, int in_faceIndex) {
+            file = in_file;
+            faceIndex = in_faceIndex;
+        }
+    }
+
+    /*
+    Parses a font path, with or without a face index, into a FontFile
+
+    Will throw an exception if the file doesn't exist
+     */
+    private static class FontArgumentHandler implements CmdLineArgs.ArgumentHandler {
+        public Object tryArgument(String arg) throws Exception {
+            String path = arg;
+            int faceIndex = 0;
+            int hash = arg.lastIndexOf('#');
+            if (hash > 0 && hash < arg.length() - 1 && arg.substring(hash + 1).chars().allMatch(Character::isDigit)) {
+                path = arg.substring(0, hash);
+                faceIndex = Integer.parseInt(arg.substring(hash + 1));
+            }
+            File file = (File) new CmdLineArgs.PathArgumentHandler(true).tryArgument(path);
+            return new FontFile(file, faceIndex);
+        }
+
+        public String toUsageString(String prepend) {
+            return prepend + "Font files, a face of a collection is picked with #index (fonts.ttc#2)";
+        }
+    }
+
+    /*
+    a delimited font argument comes back as a single FontFile or a list of them, null if not given
+     */
+    private static ArrayList<FontFile> fontList(Object value) {
+        ArrayList<FontFile> fonts = new ArrayList<FontFile>();
+        if (value instanceof FontFile) {
+            fonts.add((FontFile) value);
+        } else if (value != null) {
+            for (Object font : (ArrayList<?>) value) {
+                fonts.add((FontFile) font);
+            }
+        }
+        return fonts;
+    }
+
+    /*
+    the sizes argument comes back as a single Integer when only one size is given, a list otherwise
+     */
+    private static ArrayList<Integer> sizeList(Object value) {
+        ArrayList<Integer> sizes = new ArrayList<Integer>();
+        if (value instanceof Integer) {
+            sizes.add((Integer) value);
+        } else if (value != null) {
+            for (Object size : (ArrayList<?>) value) {
+                sizes.add((Integer) size);
+            }
+        }
+        return sizes;
+    }
+
     //load a typeface from a FreeType-supported file
-    private static FreeType.Face loadFile(FreeType freetype, File file) throws Exception {
-        FreeType.Face face = freetype.loadFile(file.getPath());
+    private static FreeType.Face loadFile(FreeType freetype, FontFile font, RunStats stats) throws Exception {
+        GeneratorEvents.FontLoad event = new GeneratorEvents.FontLoad();
+        event.begin();
+        stats.freeTypeCalls++;
+        FreeType.Face face = freetype.loadFile(font.file.getPath(), font.faceIndex);
         if (face != null) {
             int numGlyphs = face.getNumGlyphs();
+            event.path = font.file.getPath();
+            event.glyphCount = numGlyphs;
+            event.commit();
             System.out.println("Found " + String.valueOf(numGlyphs) + " glyphs in this file.");
         } else {
-            throw new Exception("Failed to load file: " + file.toString());
+            throw new Exception("Failed to load file: " + font.file.toString() + (font.faceIndex > 0 ? " face " + font.faceIndex : ""));
         }
         return face;
     }
 
+    //FT_LOAD_TARGET_MONO from freetype.h, hints the outline for 1-bit rendering
+    private static final int FT_LOAD_TARGET_MONO = (FreeType.FT_RENDER_MODE_MONO & 15) << 16;
+
+    /*
+    expands a FreeType 1-bit bitmap (8 pixels per byte, high bit first) into a 0/255 raster
+     */
+    private static Raster expandMonoBitmap(FreeType.Bitmap bitmap, ByteBuffer buffer) {
+        int width = bitmap.getWidth();
+        int rows = bitmap.getRows();
+        int pitch = bitmap.getPitch();
+        byte[] packed = new byte[rows * pitch];
+        buffer.get(packed);
+        byte[] pixels = new byte[width * rows];
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < width; x++) {
+                if ((packed[y * pitch + (x >> 3)] & (0x80 >> (x & 7))) != 0) {
+                    pixels[y * width + x] = (byte) 0xFF;
+                }
+            }
+        }
+        SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_BYTE, width, rows, 1, width, new int[]{0});
+        return Raster.createRaster(sampleModel, new DataBufferByte(pixels, pixels.length), new java.awt.Point(0, 0));
+    }
+
     /*
     renders a glyph bitmap and returns a grayscale raster
+    renderMode is FT_RENDER_MODE_NORMAL or FT_RENDER_MODE_MONO, mono pixels come back as 0 or 255
 
     will throw an exception if FreeType fails to render the glyph
     returns null if the glyph has no bitmap data
      */
-    private static Raster renderGlyph(FreeType.GlyphSlot slot) throws Exception {
+    static Raster renderGlyph(FreeType.GlyphSlot slot, int renderMode, RunStats stats) throws Exception {
         Raster retval = null;
-        if (!FreeType.renderGlyph(slot, FreeType.FT_RENDER_MODE_NORMAL)) {
+        stats.freeTypeCalls++;
+        if (!FreeType.renderGlyph(slot, renderMode)) {
             throw new Exception("FreeType failed to render glyph");
         }
         FreeType.Bitmap bitmap = slot.getBitmap();
@@ -43,8 +159,10 @@ public class BitmapGenerator {
 
         int rows = bitmap.getRows();
         int pitch = bitmap.getPitch();
-        //if our glyph was rendered to a non-zero size, transfer the pixels to a raster
-        if (rows > 0 && pitch > 0) {
+        if (rows > 0 && pitch > 0 && bitmap.getPixelMode() == FreeType.FT_PIXEL_MODE_MONO) {
+            retval = expandMonoBitmap(bitmap, buffer);
+        } else if (rows > 0 && pitch > 0) {
+            //if our glyph was rendered to a non-zero size, transfer the pixels to a raster
             DataBufferByte databuffer = new DataBufferByte(rows * pitch);
             buffer.get(databuffer.getData());
             int[] offsets = {0};
@@ -62,35 +180,656 @@ public class BitmapGenerator {
         return retval;
     }
 
-    private static FreeType.GlyphSlot loadGlyph(FreeType.Face face, int index) throws Exception{
-        if (!FreeType.loadGlyph(face, index, 0)) {
+    private static FreeType.GlyphSlot loadGlyph(FreeType.Face face, int index, int loadFlags, RunStats stats) throws Exception{
+        stats.freeTypeCalls++;
+        if (!FreeType.loadGlyph(face, index, loadFlags)) {
             throw new Exception("Failed to load glyph with index: " + String.valueOf(index));
         }
         return face.getGlyph();
     }
 
     /*
-    returns the next-highest power of two integer from the input parameter
+    the pixel box FreeType renders a glyph into, worked out from the loaded outline's metrics
+    x and y are the left edge and the top row relative to the origin, y up
+     */
+    private static Rectangle bitmapBox(FreeType.GlyphMetrics metrics) {
+        //the renderer rounds the outline's box out to whole pixels
+        int left = Math.floorDiv(metrics.getHoriBearingX(), 64);
+        int right = Math.floorDiv(metrics.getHoriBearingX() + metrics.getWidth() + 63, 64);
+        int top = Math.floorDiv(metrics.getHoriBearingY() + 63, 64);
+        int bottom = Math.floorDiv(metrics.getHoriBearingY() - metrics.getHeight(), 64);
+        return new Rectangle(left, top, right - left, top - bottom);
+    }
+
+    /*
+    a glyph that has been rasterized but not yet placed in the bitmap
+    advance and bearing are in output pixels
+    planned glyphs have no raster, only the size it would have
      */
-    private static int nearestPowerOfTwo(int number) {
-        int retval = 1;
-        while (retval < number) {
-            retval *= 2;
+    private static class RenderedGlyph {
+        public final char character;
+        public final Raster raster;
+        public final int width;
+        public final int height;
+        public final int horiAdvance;
+        public final int horiBearingY;
+
+        public RenderedGlyph(char in_character, Raster in_raster, int in_horiAdvance, int in_horiBearingY) {
+            this(in_character, in_raster, in_raster.getWidth(), in_raster.getHeight(), in_horiAdvance, in_horiBearingY);
+        }
+
+        public RenderedGlyph(char in_character, Raster in_raster, int in_width, int in_height, int in_horiAdvance, int in_horiBearingY) {
+            character = in_character;
+            raster = in_raster;
+            width = in_width;
+            height = in_height;
+            horiAdvance = in_horiAdvance;
+            horiBearingY = in_horiBearingY;
         }
-        return retval;
     }
 
-    private static int expandDimension(int originalSize, int newRectDimension, boolean restrictPowerOfTwo) {
-        //simple heuristic: expand by 5 times the amount we're missing
-        //note that the skyline algorithm should have some extra leeway
-        //  so we don't want to be stingy
-        int minWidth = originalSize + newRectDimension*3;
-        if (restrictPowerOfTwo) {
-            originalSize = nearestPowerOfTwo(minWidth);
-        } else {
-            originalSize = minWidth;
+    /*
+    a static string rendered whole, placed like a glyph but recorded as a named sprite
+    horiAdvance is the pen movement over the whole string and horiBearingY the rows above its baseline
+     */
+    private static class RenderedSprite extends RenderedGlyph {
+        public final String name;
+
+        public RenderedSprite(String in_name, Raster in_raster, int in_width, int in_height, int in_horiAdvance, int in_horiBearingY) {
+            super('\0', in_raster, in_width, in_height, in_horiAdvance, in_horiBearingY);
+            name = in_name;
+        }
+    }
+
+    /*
+    a glyph rendered at the largest size, kept around so the smaller sizes can be made from it
+    advance is in FreeType 26.6 units, bitmapTop is in pixels above the baseline
+     */
+    private static class MasterGlyph {
+        public final char character;
+        public final Raster raster;
+        public final int width;
+        public final int height;
+        public final int bitmapTop;
+        public final int horiAdvance;
+
+        public MasterGlyph(char in_character, Raster in_raster, int in_bitmapTop, int in_horiAdvance) {
+            this(in_character, in_raster, in_raster.getWidth(), in_raster.getHeight(), in_bitmapTop, in_horiAdvance);
+        }
+
+        public MasterGlyph(char in_character, Raster in_raster, int in_width, int in_height, int in_bitmapTop, int in_horiAdvance) {
+            character = in_character;
+            raster = in_raster;
+            width = in_width;
+            height = in_height;
+            bitmapTop = in_bitmapTop;
+            horiAdvance = in_horiAdvance;
+        }
+    }
+
+    /*
+    a loaded face and the characters it renders
+    an in= font renders its own characters under its font id, a fallback renders the characters the fonts
+        are missing and each glyph is recorded under every font that borrowed it
+     */
+    private static class FontFace {
+        public final FreeType.Face face;
+        //-1 for a fallback
+        public final int fontId;
+        public final HashMap<Character, Integer> glyphIndices;
+        //fallbacks only, the fonts each character is filled in for
+        public final HashMap<Character, ArrayList<Integer>> borrowers;
+        //every glyph rendered from the face so far, see renderCached()
+        public final HashMap<String, HashMap<Character, RenderedGlyph>> rendered;
+        //the kern pairs found so far, see recordKerning()
+        public final HashMap<String, KerningTable> kerning;
+
+        public List<Integer> fontIds(char character) {
+            return fontId >= 0 ? Collections.singletonList(fontId) : borrowers.get(character);
+        }
+
+        public FontFace(FreeType.Face in_face, int in_fontId, HashMap<String, HashMap<Character, RenderedGlyph>> in_rendered,
+                        HashMap<String, KerningTable> in_kerning) {
+            face = in_face;
+            fontId = in_fontId;
+            glyphIndices = new HashMap<Character, Integer>();
+            borrowers = new HashMap<Character, ArrayList<Integer>>();
+            rendered = in_rendered;
+            kerning = in_kerning;
+        }
+    }
+
+    /*
+    the non-zero kern pairs of one size of a face, with the characters that were probed for them
+    left holds the characters drawn at the size and right the whole charset, each sorted, so a rerun can tell
+        whether the pairs still apply
+     */
+    private static class KerningTable {
+        public final String left;
+        public final String right;
+        //left << 48 | right << 32 | kerning
+        public final long[] pairs;
+
+        public KerningTable(String in_left, String in_right, long[] in_pairs) {
+            left = in_left;
+            right = in_right;
+            pairs = in_pairs;
+        }
+    }
+
+    /*
+    a font file loaded into FreeType, with the size it had so a changed file is noticed
+     */
+    private static class LoadedFace {
+        public final FreeType.Face face;
+        public final long modified;
+        public final long length;
+        //rendered glyphs by render settings, then character - null for characters with no bitmap
+        public final HashMap<String, HashMap<Character, RenderedGlyph>> rendered;
+        //kern pairs by size and render scale
+        public final HashMap<String, KerningTable> kerning;
+
+        public LoadedFace(FreeType.Face in_face, long in_modified, long in_length) {
+            face = in_face;
+            modified = in_modified;
+            length = in_length;
+            rendered = new HashMap<String, HashMap<Character, RenderedGlyph>>();
+            kerning = new HashMap<String, KerningTable>();
+        }
+    }
+
+    /*
+    the FreeType library, faces, rendered glyphs and kerning tables of one invocation
+    in watch mode it outlives the runs, so a run only loads the fonts whose files changed, renders the glyphs
+        it hasn't rendered before and probes kerning only for sizes whose characters changed - a single run starts
+        with an empty one
+     */
+    static class Session {
+        public final FreeType freetype;
+        //by absolute path and face index
+        private final HashMap<String, LoadedFace> loaded;
+
+        public FontFace face(FontFile font, int fontId, RunStats stats) throws Exception {
+            String key = font.file.getAbsolutePath() + "#" + String.valueOf(font.faceIndex);
+            LoadedFace face = loaded.get(key);
+            if (face != null && (face.modified != font.file.lastModified() || face.length != font.file.length())) {
+                //its glyphs go with it
+                System.out.println("Reloading " + font.file.getPath());
+                freetype.closeFace(face.face);
+                loaded.remove(key);
+                face = null;
+            }
+            if (face == null) {
+                //read before loading, so a write that lands during the load is picked up next time
+                long modified = font.file.lastModified();
+                long length = font.file.length();
+                face = new LoadedFace(loadFile(freetype, font, stats), modified, length);
+                loaded.put(key, face);
+            }
+            return new FontFace(face.face, fontId, face.rendered, face.kerning);
+        }
+
+        public void close() {
+            freetype.close();
+        }
+
+        public Session() {
+            freetype = new FreeType();
+            loaded = new HashMap<String, LoadedFace>();
+        }
+    }
+
+    /*
+    the glyphs one face renders at one size, or the sprites of one size (RenderedSprite, always font 0)
+     */
+    private static class GlyphRun {
+        public final int size;
+        public final FontFace source;
+        public final ArrayList<RenderedGlyph> glyphs;
+        public final boolean sprites;
+
+        public GlyphRun(int in_size, FontFace in_source, ArrayList<RenderedGlyph> in_glyphs) {
+            this(in_size, in_source, in_glyphs, false);
+        }
+
+        public GlyphRun(int in_size, FontFace in_source, ArrayList<RenderedGlyph> in_glyphs, boolean in_sprites) {
+            size = in_size;
+            source = in_source;
+            glyphs = in_glyphs;
+            sprites = in_sprites;
+        }
+    }
+
+    /*
+    a glyph of one of the runs, in the order it goes into the atlas
+     */
+    private static class PlacedGlyph {
+        public final GlyphRun run;
+        public final RenderedGlyph glyph;
+
+        public PlacedGlyph(GlyphRun in_run, RenderedGlyph in_glyph) {
+            run = in_run;
+            glyph = in_glyph;
+        }
+    }
+
+    /*
+    returns every glyph of the runs in the order they are packed
+    without ranks that is run by run, with them the ranked glyphs of all runs come first, most used first,
+        so the hot glyphs sit together at the start of the first page
+     */
+    private static ArrayList<PlacedGlyph> placementOrder(List<GlyphRun> runs, HashMap<Character, Integer> ranks) {
+        ArrayList<PlacedGlyph> order = new ArrayList<PlacedGlyph>();
+        for (GlyphRun run : runs) {
+            for (RenderedGlyph glyph : run.glyphs) {
+                order.add(new PlacedGlyph(run, glyph));
+            }
+        }
+        if (ranks != null) {
+            //the sort is stable, so unranked glyphs keep their run by run order at the end
+            order.sort(Comparator.comparingInt(placed -> ranks.getOrDefault(placed.glyph.character, Integer.MAX_VALUE)));
+        }
+        return order;
+    }
+
+    /*
+    how the pages of every section are sized and filled
+     */
+    private static class PackSettings {
+        //starting page size, grown on the auto sides
+        public int width;
+        public int height;
+        public boolean autoWidth;
+        public boolean autoHeight;
+        public boolean restrictPowerOfTwo;
+        public int pageSize;
+        public int channelCount;
+        public HashMap<Integer, Integer> sizeChannels;
+        public boolean blockAlign;
+        public boolean plan;
+        public boolean rotate;
+        public int bitDepth;
+        public boolean dither;
+        public boolean searchSize;
+        public boolean squarePages;
+    }
+
+    /*
+    sizes that share a set of pages and a metadata record
+    there is a single section holding every size unless the atlas is partitioned
+     */
+    private static class AtlasSection {
+        public final ArrayList<Integer> sizes;
+        public final TypefaceMetrics record;
+        //the first page's file, later pages get their index added
+        public final File outFile;
+        public AtlasPages pages;
+        public int glyphsDrawn;
+        public long glyphArea;
+
+        public AtlasSection(ArrayList<Integer> in_sizes, File in_outFile) {
+            sizes = in_sizes;
+            outFile = in_outFile;
+            record = new TypefaceMetrics();
+            pages = null;
+            glyphsDrawn = 0;
+            glyphArea = 0;
+        }
+    }
+
+    /*
+    loads and renders every glyph at the face's current size
+    renderScale is how many times larger than the output the face's size was set
+    glyphs with no bitmap data are left out
+     */
+    private static ArrayList<RenderedGlyph> renderGlyphs(FreeType.Face face, HashMap<Character, Integer> glyphIndices, int renderMode, int renderScale, boolean distanceField, int sdfSpread, RunStats stats) throws Exception {
+        int loadFlags = renderMode == FreeType.FT_RENDER_MODE_MONO ? FT_LOAD_TARGET_MONO : 0;
+        ArrayList<RenderedGlyph> glyphs = new ArrayList<RenderedGlyph>(glyphIndices.size());
+        for (char character : glyphIndices.keySet()) {
+            //I'm PRETTY SURE this needs to be called after setting a new size even though we've rendered this glyph before
+            FreeType.GlyphSlot slot = loadGlyph(face, glyphIndices.get(character), loadFlags, stats);
+            //this raster is the image data that we get from FreeType
+            Raster glyphRaster = renderGlyph(slot, renderMode, stats);
+            if (glyphRaster != null) {
+                if (distanceField) {
+                    glyphRaster = DistanceField.generate(glyphRaster, renderScale, sdfSpread);
+                }
+                FreeType.GlyphMetrics metrics = slot.getMetrics();
+                //FreeType keeps its sizes in 26.6 format, so do a quick divide here
+                int horiAdvance = Math.round(metrics.getHoriAdvance() / (64 * renderScale));
+                int horiBearingY = Math.round(metrics.getHoriBearingY() / (64 * renderScale));
+                if (distanceField) {
+                    //the field is padded by the spread on every side
+                    horiBearingY += sdfSpread;
+                }
+                glyphs.add(new RenderedGlyph(character, glyphRaster, horiAdvance, horiBearingY));
+            }
+        }
+        return glyphs;
+    }
+
+    /*
+    renderGlyphs() through the face's cache, only the characters it hasn't rendered at this size and with these settings
+        are loaded and rendered - the face must be at the size already
+    returns the glyphs in glyphIndices order, like renderGlyphs()
+     */
+    private static ArrayList<RenderedGlyph> renderCached(FontFace source, int size, int renderMode, int renderScale, boolean distanceField, int sdfSpread, RunStats stats) throws Exception {
+        String key = String.format("%d/%d/%d/%d", size, renderMode, renderScale, distanceField ? sdfSpread : 0);
+        HashMap<Character, RenderedGlyph> known = source.rendered.computeIfAbsent(key, k -> new HashMap<Character, RenderedGlyph>());
+        HashMap<Character, Integer> missing = new HashMap<Character, Integer>();
+        for (char character : source.glyphIndices.keySet()) {
+            if (!known.containsKey(character)) {
+                missing.put(character, source.glyphIndices.get(character));
+            }
+        }
+        if (!missing.isEmpty()) {
+            stats.glyphsRendered += missing.size();
+            for (RenderedGlyph glyph : renderGlyphs(source.face, missing, renderMode, renderScale, distanceField, sdfSpread, stats)) {
+                known.put(glyph.character, glyph);
+            }
+            //the ones left are blank, remembered so they aren't loaded again
+            for (char character : missing.keySet()) {
+                known.putIfAbsent(character, null);
+            }
+        }
+        ArrayList<RenderedGlyph> glyphs = new ArrayList<RenderedGlyph>(source.glyphIndices.size());
+        for (char character : source.glyphIndices.keySet()) {
+            RenderedGlyph glyph = known.get(character);
+            if (glyph != null) {
+                glyphs.add(glyph);
+            }
+        }
+        return glyphs;
+    }
+
+    /*
+    the planning version of renderGlyphs(): loads only the outlines and returns glyphs
+        with no raster but the size they would be rendered at
+     */
+    private static ArrayList<RenderedGlyph> measureGlyphs(FreeType.Face face, HashMap<Character, Integer> glyphIndices, int renderMode, int renderScale, boolean distanceField, int sdfSpread, RunStats stats) throws Exception {
+        int loadFlags = FreeType.FT_LOAD_NO_BITMAP | (renderMode == FreeType.FT_RENDER_MODE_MONO ? FT_LOAD_TARGET_MONO : 0);
+        ArrayList<RenderedGlyph> glyphs = new ArrayList<RenderedGlyph>(glyphIndices.size());
+        for (char character : glyphIndices.keySet()) {
+            FreeType.GlyphMetrics metrics = loadGlyph(face, glyphIndices.get(character), loadFlags, stats).getMetrics();
+            Rectangle box = bitmapBox(metrics);
+            //same as renderGlyph(), glyphs without pixels are left out
+            if (box.width > 0 && box.height > 0) {
+                int width = box.width;
+                int height = box.height;
+                int horiAdvance = Math.round(metrics.getHoriAdvance() / (64 * renderScale));
+                int horiBearingY = Math.round(metrics.getHoriBearingY() / (64 * renderScale));
+                if (distanceField) {
+                    width = DistanceField.outputLength(width, renderScale, sdfSpread);
+                    height = DistanceField.outputLength(height, renderScale, sdfSpread);
+                    horiBearingY += sdfSpread;
+                }
+                glyphs.add(new RenderedGlyph(character, null, width, height, horiAdvance, horiBearingY));
+            }
+        }
+        return glyphs;
+    }
+
+    /*
+    loads and renders every glyph once at the face's current size, for downsampleGlyphs()
+     */
+    private static ArrayList<MasterGlyph> renderMasterGlyphs(FreeType.Face face, HashMap<Character, Integer> glyphIndices, RunStats stats) throws Exception {
+        ArrayList<MasterGlyph> masters = new ArrayList<MasterGlyph>(glyphIndices.size());
+        for (char character : glyphIndices.keySet()) {
+            FreeType.GlyphSlot slot = loadGlyph(face, glyphIndices.get(character), 0, stats);
+            Raster glyphRaster = renderGlyph(slot, FreeType.FT_RENDER_MODE_NORMAL, stats);
+            if (glyphRaster != null) {
+                masters.add(new MasterGlyph(character, glyphRaster, slot.getBitmapTop(), slot.getMetrics().getHoriAdvance()));
+            }
+        }
+        return masters;
+    }
+
+    /*
+    the planning version of renderMasterGlyphs(), master glyphs get a size but no raster
+     */
+    private static ArrayList<MasterGlyph> measureMasterGlyphs(FreeType.Face face, HashMap<Character, Integer> glyphIndices, RunStats stats) throws Exception {
+        ArrayList<MasterGlyph> masters = new ArrayList<MasterGlyph>(glyphIndices.size());
+        for (char character : glyphIndices.keySet()) {
+            FreeType.GlyphMetrics metrics = loadGlyph(face, glyphIndices.get(character), FreeType.FT_LOAD_NO_BITMAP, stats).getMetrics();
+            Rectangle box = bitmapBox(metrics);
+            if (box.width > 0 && box.height > 0) {
+                masters.add(new MasterGlyph(character, null, box.width, box.height, box.y, metrics.getHoriAdvance()));
+            }
+        }
+        return masters;
+    }
+
+    /*
+    makes a smaller size from the master glyphs by area averaging, spread across threads by glyph
+
+    scale - the smaller pixel size over the master pixel size
+     */
+    private static ArrayList<RenderedGlyph> downsampleGlyphs(ArrayList<MasterGlyph> masters, final double scale) {
+        return masters.parallelStream().map(master -> {
+            //shift the sampling grid so the baseline lands between two output rows
+            int top = (int) Math.ceil(master.bitmapTop * scale - 1e-9);
+            double offsetY = master.bitmapTop - top / scale;
+            int horiAdvance = (int) Math.round(master.horiAdvance * scale / 64);
+            if (master.raster == null) {
+                int width = Downsampler.outputLength(master.width, scale, 0);
+                int height = Downsampler.outputLength(master.height, scale, offsetY);
+                return new RenderedGlyph(master.character, null, width, height, horiAdvance, top);
+            }
+            Raster raster = Downsampler.downsample(master.raster, scale, offsetY);
+            return new RenderedGlyph(master.character, raster, horiAdvance, top);
+        }).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /*
+    spreads the sizes over the color channels so each channel's packer gets a similar amount of glyph area
+    the biggest sizes go first, each into the channel with the least area so far
+    returns the channel for every size
+     */
+    private static HashMap<Integer, Integer> assignChannels(ArrayList<Integer> sizes, int channelCount) {
+        ArrayList<Integer> descending = new ArrayList<Integer>(sizes);
+        Collections.sort(descending, Collections.reverseOrder());
+        long[] area = new long[channelCount];
+        HashMap<Integer, Integer> channels = new HashMap<Integer, Integer>();
+        for (int size : descending) {
+            int smallest = 0;
+            for (int c = 1; c < channelCount; c++) {
+                if (area[c] < area[smallest]) {
+                    smallest = c;
+                }
+            }
+            channels.put(size, smallest);
+            area[smallest] += (long) size * size;
+        }
+        return channels;
+    }
+
+    /*
+    binary searches for the smallest page that holds every glyph, with packing dry runs
+    fixedWidth and fixedHeight are 0 for the sides being searched
+    returns null if the glyphs need more than one page of the largest size
+     */
+    private static Point searchPageSize(ArrayList<PlacedGlyph> order, HashMap<Integer, Integer> sizeChannels,
+                                        int channelCount, boolean restrictPowerOfTwo, int pageSize, boolean blockAlign, boolean rotate,
+                                        int fixedWidth, int fixedHeight, boolean square) {
+        //the rectangles go in the same order they will be placed in
+        int[] widths = new int[order.size()];
+        int[] heights = new int[order.size()];
+        int[] channels = new int[order.size()];
+        for (int i = 0; i < order.size(); i++) {
+            widths[i] = order.get(i).glyph.width;
+            heights[i] = order.get(i).glyph.height;
+            channels[i] = sizeChannels.get(order.get(i).run.size);
+        }
+        AtlasSizeSearch search = new AtlasSizeSearch(widths, heights, channels, channelCount, restrictPowerOfTwo, pageSize);
+        if (blockAlign) {
+            search.setAlignment(BC4Encoder.BLOCK_SIZE);
+        }
+        search.setRotation(rotate);
+        return search.search(fixedWidth, fixedHeight, square);
+    }
+
+    /*
+    the runs of the sizes in this section, in packing order
+     */
+    private static ArrayList<GlyphRun> sectionRuns(AtlasSection section, ArrayList<GlyphRun> runs) {
+        ArrayList<GlyphRun> sectionRuns = new ArrayList<GlyphRun>();
+        for (GlyphRun run : runs) {
+            if (section.sizes.contains(run.size)) {
+                sectionRuns.add(run);
+            }
+        }
+        return sectionRuns;
+    }
+
+    /*
+    searches for the page size when asked to, then places the section's glyphs in order and records where each one went
+    stats is null when sections are packed in parallel, the caller times them as a whole
+     */
+    private static void packSection(AtlasSection section, ArrayList<PlacedGlyph> order, PackSettings settings,
+                                    HashMap<Character, Integer> ranks, RunStats stats) throws Exception {
+        int outputWidth = settings.width;
+        int outputHeight = settings.height;
+        long phaseStart = System.nanoTime();
+        if (settings.searchSize && (settings.autoWidth || settings.autoHeight)) {
+            Point searched = searchPageSize(order, settings.sizeChannels, settings.channelCount, settings.restrictPowerOfTwo,
+                    settings.pageSize, settings.blockAlign, settings.rotate,
+                    settings.autoWidth ? 0 : outputWidth, settings.autoHeight ? 0 : outputHeight, settings.squarePages);
+            if (searched != null) {
+                System.out.println(String.format("Searched page size: %dx%d", searched.x, searched.y));
+                outputWidth = searched.x;
+                outputHeight = searched.y;
+            } else {
+                //more than one page either way, so start every page at the largest size
+                outputWidth = settings.autoWidth ? settings.pageSize : outputWidth;
+                outputHeight = settings.autoHeight ? settings.pageSize : outputHeight;
+            }
+            if (stats != null) {
+                stats.endPhase("sizeSearch", phaseStart);
+            }
+        }
+        AtlasPages pages = new AtlasPages(outputWidth, outputHeight, settings.autoWidth, settings.autoHeight,
+                settings.restrictPowerOfTwo, settings.pageSize, settings.channelCount);
+        if (settings.blockAlign) {
+            pages.setBlockAlignment(BC4Encoder.BLOCK_SIZE);
+        }
+        //a plan packs the glyph boxes without any pixel planes
+        pages.setPlanning(settings.plan);
+        pages.setRotation(settings.rotate);
+        if (settings.bitDepth != 8) {
+            pages.setBitDepth(settings.bitDepth, settings.dither);
+        }
+
+        phaseStart = System.nanoTime();
+        for (PlacedGlyph placed : order) {
+            int size = placed.run.size;
+            int channel = settings.sizeChannels.get(size);
+            RenderedGlyph glyph = placed.glyph;
+            char character = glyph.character;
+            //grows the current page or opens a new one when the glyph doesn't fit
+            AtlasPages.Placement placement = settings.plan ? pages.place(glyph.width, glyph.height, channel) : pages.place(glyph.raster, channel);
+            Point p = placement.point;
+            section.glyphsDrawn++;
+            section.glyphArea += glyph.width * glyph.height;
+
+            if (placed.run.sprites) {
+                TypefaceMetrics.SpriteInfo sprite = new TypefaceMetrics.SpriteInfo(((RenderedSprite) glyph).name);
+                sprite.x = p.x;
+                sprite.y = p.y;
+                sprite.width = glyph.width;
+                sprite.height = glyph.height;
+                sprite.baseline = glyph.horiBearingY;
+                sprite.advance = glyph.horiAdvance;
+                sprite.channel = channel;
+                sprite.page = placement.page;
+                sprite.rotated = placement.rotated;
+                section.record.recordSprite(placed.run.source.fontId, size, sprite);
+                continue;
+            }
+
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(character);
+            info.x = p.x;
+            info.y = p.y;
+            info.width = glyph.width;
+            info.height = glyph.height;
+            info.channel = channel;
+            info.page = placement.page;
+            info.rotated = placement.rotated;
+            info.horiAdvance = glyph.horiAdvance;
+            info.horiBearingY = glyph.horiBearingY;
+            if (ranks != null) {
+                info.rank = ranks.getOrDefault(character, 0);
+            }
+            //a fallback glyph is placed once and shared by every font that borrowed it
+            for (int fontId : placed.run.source.fontIds(character)) {
+                section.record.recordGlyph(fontId, size, info);
+            }
+        }
+        section.record.setPageCount(pages.pageCount());
+        section.pages = pages;
+        if (stats != null) {
+            stats.endPhase("pack", phaseStart);
+        }
+    }
+
+    /*
+    prints what a full run would produce, for checking atlas and metadata budgets without rendering
+    the metadata isn't encoded: the binary figure is worked out from the table sizes and the JSON is only counted
+     */
+    private static void printPlan(AtlasPages pages, TypefaceMetrics record, int channelCount, int bitDepth, long glyphArea,
+                                  boolean jsonArrayLayout, boolean kerningProbed) throws Exception {
+        long pageArea = 0;
+        long pixelBytes = 0;
+        for (int i = 0; i < pages.pageCount(); i++) {
+            BitmapRenderer page = pages.getRenderer(i, 0);
+            System.out.println(String.format("Page %d: %dx%d", i, page.getWidth(), page.getHeight()));
+            pageArea += (long) page.getWidth() * page.getHeight() * channelCount;
+            //packed rows are padded to whole bytes
+            pixelBytes += (long) (page.getWidth() * bitDepth + 7) / 8 * page.getHeight() * channelCount;
+        }
+        System.out.println("Atlas pages: " + String.valueOf(pages.pageCount()));
+        System.out.println(String.format("Glyph coverage: %.1f%% of %d pixels", pageArea > 0 ? 100.0 * glyphArea / pageArea : 0.0, pageArea));
+        System.out.println(String.format("Uncompressed pixel data: %d bytes", pixelBytes));
+        int glyphs = 0;
+        int pairs = 0;
+        int sprites = 0;
+        for (GlyphTable table : record.getGlyphTables()) {
+            glyphs += table.size();
+            pairs += table.kerningStart[table.size()];
+            sprites += table.spriteCount();
+        }
+        System.out.println(String.format("Metadata: %d glyphs, %s, %d sprites", glyphs,
+                kerningProbed ? String.valueOf(pairs) + " kerning pairs" : "kerning not probed (plan-kerning=true to include it)", sprites));
+        System.out.println(String.format("Metadata: binary at most %d bytes before compression, json %d bytes",
+                record.getBinaryLengthBound(), record.getJsonLength(jsonArrayLayout)));
+    }
+
+    /*
+    writes the metadata of a partitioned atlas, one section per size, into a single indexed file - see MetadataSections
+     */
+    private static void saveSections(ArrayList<AtlasSection> sections, File outFile, boolean compact) throws IOException {
+        ArrayList<Integer> pixelSizes = new ArrayList<Integer>(sections.size());
+        ArrayList<byte[]> streams = new ArrayList<byte[]>(sections.size());
+        for (AtlasSection section : sections) {
+            pixelSizes.add(section.sizes.get(0));
+            streams.add(compact ? section.record.getCompactBinary() : section.record.getBinary());
+        }
+        MetadataSections.save(new File(outFile + ".fontsections"), pixelSizes, streams,
+                compact ? MetadataSections.FORMAT_COMPACT : MetadataSections.FORMAT_BINARY);
+    }
+
+    /*
+    sums the resize counters and skyline areas over every page and channel
+     */
+    private static void collectPackerStats(AtlasPages pages, int channelCount, RunStats stats) {
+        for (int i = 0; i < pages.pageCount(); i++) {
+            for (int c = 0; c < channelCount; c++) {
+                BitmapRenderer renderer = pages.getRenderer(i, c);
+                stats.expandCalls += renderer.getExpandCount();
+                stats.bytesCopied += renderer.getBytesCopied();
+                stats.atlasArea += (long) renderer.getWidth() * renderer.getHeight();
+                stats.filledArea += renderer.filledArea();
+            }
         }
-        return originalSize;
     }
 
     /*
@@ -102,11 +841,12 @@ public class BitmapGenerator {
     set skipUndefinedChars to true to automatically skip glyphs that the typeface does not contain
         otherwise, the generation will raise an exception and abort
      */
-    private static HashMap<Character, Integer> getGlyphIndices(FreeType.Face face, String charSet, boolean skipUndefinedChars) throws Exception {
+    private static HashMap<Character, Integer> getGlyphIndices(FreeType.Face face, String charSet, boolean skipUndefinedChars, RunStats stats) throws Exception {
         HashMap<Character, Integer> glyphIndices = new HashMap<Character, Integer>();
         for (int i = 0; i < charSet.length(); i++) {
             char character = charSet.charAt(i);
             int glyphIndex = FreeType.getCharIndex(face, character);
+            stats.freeTypeCalls++;
             //will be true if the typeface doesn't have this character
             if (glyphIndex == 0) {
                 String message = "Typeface does not define a glyph for character: " + String.valueOf(character);
@@ -123,6 +863,210 @@ public class BitmapGenerator {
         return glyphIndices;
     }
 
+    private static String sortedCharacters(Collection<Character> characters) {
+        char[] sorted = new char[characters.size()];
+        int i = 0;
+        for (char character : characters) {
+            sorted[i++] = character;
+        }
+        Arrays.sort(sorted);
+        return new String(sorted);
+    }
+
+    /*
+    reads the kerning between each glyph drawn at this size and every glyph in the charset, keeping the non-zero pairs
+    the probe is quadratic in the charset, so the pairs are kept on the face and a rerun that draws the same characters
+        from an unchanged file records them again without asking FreeType
+     */
+    private static void recordKerning(FontFace source, ArrayList<RenderedGlyph> glyphs, TypefaceMetrics record,
+                                      int size, int renderScale, RunStats stats) {
+        ArrayList<Character> drawn = new ArrayList<Character>(glyphs.size());
+        for (RenderedGlyph glyph : glyphs) {
+            drawn.add(glyph.character);
+        }
+        String left = sortedCharacters(drawn);
+        String right = sortedCharacters(source.glyphIndices.keySet());
+        String key = String.format("%d/%d", size, renderScale);
+        KerningTable table = source.kerning.get(key);
+        if (table == null || !table.left.equals(left) || !table.right.equals(right)) {
+            table = probeKerning(source.face, source.glyphIndices, glyphs, size, renderScale, stats, left, right);
+            source.kerning.put(key, table);
+        }
+        for (long pair : table.pairs) {
+            record.recordKerning(source.fontId, size, (char) (pair >>> 48), (char) (pair >>> 32), (int) pair);
+        }
+        stats.kerningPairsStored += table.pairs.length;
+    }
+
+    /*
+    asks FreeType for every pair, the face is set to the output size here even when the bitmaps came from the
+        master rendering
+     */
+    private static KerningTable probeKerning(FreeType.Face face, HashMap<Character, Integer> glyphIndices, ArrayList<RenderedGlyph> glyphs,
+                                             int size, int renderScale, RunStats stats, String left, String right) {
+        setPixelSize(face, size * renderScale, stats);
+        stats.freeTypeCalls++;
+        if (!FreeType.hasKerning(face)) {
+            return new KerningTable(left, right, new long[0]);
+        }
+        GeneratorEvents.Kerning event = new GeneratorEvents.Kerning();
+        event.begin();
+        long[] pairs = new long[64];
+        int stored = 0;
+        for (RenderedGlyph glyph : glyphs) {
+            char character = glyph.character;
+            int glyphIndex = glyphIndices.get(character);
+            for (char rhcharacter : glyphIndices.keySet()) {
+                int kerning = FreeType.getKerning(face, glyphIndex, glyphIndices.get(rhcharacter), FreeType.FT_KERNING_DEFAULT) / renderScale;
+                if (kerning > 0) {
+                    if (stored == pairs.length) {
+                        pairs = Arrays.copyOf(pairs, stored * 2);
+                    }
+                    pairs[stored++] = ((long) character << 48) | ((long) rhcharacter << 32) | (kerning & 0xFFFFFFFFL);
+                }
+            }
+        }
+        long probed = (long) glyphs.size() * glyphIndices.size();
+        stats.freeTypeCalls += probed;
+        stats.kerningPairsProbed += probed;
+        if (event.shouldCommit()) {
+            event.pixelSize = size;
+            event.pairsProbed = probed;
+            event.pairsStored = stored;
+            event.commit();
+        }
+        return new KerningTable(left, right, Arrays.copyOf(pairs, stored));
+    }
+
+    /*
+    the advance of a character that has no bitmap, from the first of font 0 and the fallbacks that defines it
+     */
+    private static int blankAdvance(ArrayList<FontFace> faces, char character, int renderScale, String spriteName, RunStats stats) throws Exception {
+        for (FontFace source : faces) {
+            if (source.fontId > 0) {
+                continue;
+            }
+            stats.freeTypeCalls++;
+            int glyphIndex = FreeType.getCharIndex(source.face, character);
+            if (glyphIndex != 0) {
+                FreeType.GlyphMetrics metrics = loadGlyph(source.face, glyphIndex, FreeType.FT_LOAD_NO_BITMAP, stats).getMetrics();
+                return Math.round(metrics.getHoriAdvance() / (64 * renderScale));
+            }
+        }
+        throw new Exception(String.format("Sprite %s uses a character no font defines: %s", spriteName, String.valueOf(character)));
+    }
+
+    /*
+    lays a static string out with font 0's glyphs and draws it as one raster
+    kerning is read the way recordKerning() reads it, so the sprite matches the text drawn glyph by glyph from the metadata
+    the faces must be at the sprite's size
+     */
+    private static RenderedSprite renderSprite(StringSprites.Sprite sprite, HashMap<Character, RenderedGlyph> glyphs,
+                                               ArrayList<FontFace> faces, int renderScale, boolean plan, RunStats stats) throws Exception {
+        FontFace font = faces.get(0);
+        stats.freeTypeCalls++;
+        boolean kerned = FreeType.hasKerning(font.face);
+        String text = sprite.text;
+        int count = text.length();
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        int[] advances = new int[count];
+        int[] bearings = new int[count];
+        int[] kerning = new int[count];
+        Raster[] rasters = new Raster[count];
+        for (int i = 0; i < count; i++) {
+            char character = text.charAt(i);
+            RenderedGlyph glyph = glyphs.get(character);
+            if (glyph != null) {
+                widths[i] = glyph.width;
+                heights[i] = glyph.height;
+                advances[i] = glyph.horiAdvance;
+                bearings[i] = glyph.horiBearingY;
+                rasters[i] = glyph.raster;
+            } else {
+                advances[i] = blankAdvance(faces, character, renderScale, sprite.name, stats);
+            }
+            //borrowed glyphs come from another face, only pairs of the font's own glyphs are kerned
+            if (i > 0 && kerned) {
+                Integer left = font.glyphIndices.get(text.charAt(i - 1));
+                Integer right = font.glyphIndices.get(character);
+                if (left != null && right != null) {
+                    stats.freeTypeCalls++;
+                    int distance = FreeType.getKerning(font.face, left, right, FreeType.FT_KERNING_DEFAULT) / renderScale;
+                    if (distance > 0) {
+                        kerning[i] = FreeType.toInt(distance);
+                    }
+                }
+            }
+        }
+        StringSprites.Layout layout = StringSprites.layout(widths, heights, advances, bearings, kerning);
+        if (layout.width == 0 || layout.height == 0) {
+            throw new Exception("Sprite " + sprite.name + " has nothing to draw.");
+        }
+        Raster raster = plan ? null : StringSprites.compose(layout, rasters);
+        return new RenderedSprite(sprite.name, raster, layout.width, layout.height, layout.advance, layout.baseline);
+    }
+
+    /*
+    renders the static strings from the glyphs already rendered for font 0, a run of sprites for each size that has any
+     */
+    private static ArrayList<GlyphRun> renderSprites(ArrayList<StringSprites.Sprite> sprites, ArrayList<FontFace> faces,
+                                                     ArrayList<GlyphRun> runs, ArrayList<Integer> sizes, int renderScale, boolean plan, RunStats stats) throws Exception {
+        ArrayList<GlyphRun> spriteRuns = new ArrayList<GlyphRun>();
+        for (int size : new TreeSet<Integer>(sizes)) {
+            HashMap<Character, RenderedGlyph> glyphs = null;
+            ArrayList<RenderedGlyph> rendered = new ArrayList<RenderedGlyph>();
+            for (StringSprites.Sprite sprite : sprites) {
+                if (sprite.size != size) {
+                    continue;
+                }
+                if (glyphs == null) {
+                    //font 0's glyphs at this size, its own and the ones it borrowed
+                    glyphs = new HashMap<Character, RenderedGlyph>();
+                    for (GlyphRun run : runs) {
+                        if (run.size != size || run.sprites) {
+                            continue;
+                        }
+                        for (RenderedGlyph glyph : run.glyphs) {
+                            if (run.source.fontIds(glyph.character).contains(0)) {
+                                glyphs.put(glyph.character, glyph);
+                            }
+                        }
+                    }
+                    for (FontFace source : faces) {
+                        setPixelSize(source.face, size * renderScale, stats);
+                    }
+                }
+                rendered.add(renderSprite(sprite, glyphs, faces, renderScale, plan, stats));
+            }
+            if (!rendered.isEmpty()) {
+                spriteRuns.add(new GlyphRun(size, faces.get(0), rendered, true));
+            }
+        }
+        return spriteRuns;
+    }
+
+    /*
+    tells FreeType that we're gonna start working in a new size
+     */
+    private static void setPixelSize(FreeType.Face face, int size, RunStats stats) {
+        stats.freeTypeCalls++;
+        FreeType.setPixelSizes(face, 0, size);
+    }
+
+    /*
+    commits a Rasterize event begun before the size was rendered
+     */
+    private static void rasterized(GeneratorEvents.Rasterize event, int size, String method, int glyphs, long pixels) {
+        if (event.shouldCommit()) {
+            event.pixelSize = size;
+            event.method = method;
+            event.glyphs = glyphs;
+            event.pixels = pixels;
+            event.commit();
+        }
+    }
+
     //Thanks to Michael Borgwardt
     //http://stackoverflow.com/questions/2578233/how-do-i-get-the-set-of-all-letters-in-java-clojure
     private static String buildCharSet(Charset set)
@@ -143,11 +1087,39 @@ public class BitmapGenerator {
     public static final String HEIGHT_ARG = "height";
     public static final String OUT_ARG = "out";
     public static final String IN_ARG = "in";
+    public static final String FALLBACK_ARG = "fallback";
     public static final String SIZES_ARG = "sizes";
     public static final String IGNORE_UNDEFINED_ARG = "ignoreUndefined";
     public static final String CHARSET_ARG = "charset";
+    public static final String CORPUS_ARG = "corpus";
+    public static final String FREQUENCIES_ARG = "frequencies";
     public static final String POWEROFTWO_ARG = "force-pot";
     public static final String METADATA_ARG = "metadata";
+    public static final String JSON_LAYOUT_ARG = "json-layout";
+    public static final String MODE_ARG = "mode";
+    public static final String SDF_SPREAD_ARG = "sdf-spread";
+    public static final String SDF_SCALE_ARG = "sdf-scale";
+    public static final String DOWNSAMPLE_ARG = "downsample";
+    public static final String DOWNSAMPLE_MIN_ARG = "downsample-min";
+    public static final String DEPTH_ARG = "depth";
+    public static final String DITHER_ARG = "dither";
+    public static final String CHANNEL_PACK_ARG = "channel-pack";
+    public static final String BLOCK_ALIGN_ARG = "block-align";
+    public static final String COMPRESS_ARG = "compress";
+    public static final String PAGE_SIZE_ARG = "page-size";
+    public static final String UNIFORM_PAGES_ARG = "uniform-pages";
+    public static final String PLAN_ARG = "plan";
+    public static final String PLAN_KERNING_ARG = "plan-kerning";
+    public static final String AUTO_SIZE_ARG = "auto-size";
+    public static final String AUTO_ASPECT_ARG = "auto-aspect";
+    public static final String ROTATE_ARG = "rotate";
+    public static final String STATS_ARG = "stats";
+    public static final String PARTITION_ARG = "partition";
+    public static final String STRINGS_ARG = "strings";
+    public static final String WATCH_ARG = "watch";
+
+    //how long the inputs must be quiet before a watch run starts, editors often save a file in several writes
+    private static final long WATCH_SETTLE_MS = 200;
 
     private static void printUsage() {
         System.out.println("Parses a typeface file and outputs glyphs in a packed bitmap");
@@ -155,20 +1127,35 @@ public class BitmapGenerator {
         System.out.println("\tEXAMPLE: width=256 height=256 charset=US_ASCII sizes=16,18,32 out=render.png in=font.ttf");
     }
 
-    public static void main (String[] args) {
+    /*
+    these are the charsets available to us - could add more later but these are standard Java sets
+     */
+    static HashMap<String, Charset> charsets() {
+        HashMap<String, Charset> charsets = new HashMap<String, Charset>();
+        charsets.put("US_ASCII", StandardCharsets.US_ASCII);
+        charsets.put("ISO_8859_1", StandardCharsets.ISO_8859_1);
+        charsets.put("UTF_16", StandardCharsets.UTF_16);
+        return charsets;
+    }
+
+    /*
+    every argument the generator takes, ready to parse
+     */
+    static CmdLineArgs arguments(HashMap<String, Charset> charsets) {
         CmdLineArgs argProcessor = new CmdLineArgs();
 
         //auto makes the sizes 0, which tells us to do auto sizing - we start at 32 and work up from there
         HashMap<String, Integer> autoChoice = new HashMap<String, Integer>();
         autoChoice.put("auto", 0);
 
-        //these are the charsets available to us - could add more later but these are standard Java sets
-        HashMap<String, Charset> charsets = new HashMap<String, Charset>();
-        charsets.put("US_ASCII", StandardCharsets.US_ASCII);
-        charsets.put("ISO_8859_1", StandardCharsets.ISO_8859_1);
-        charsets.put("UTF_16", StandardCharsets.UTF_16);
-
-        String[] metadataChoices = {"json", "binary", "embedded"};
+        String[] metadataChoices = {"json", "binary", "embedded", "compact", "chunk"};
+        String[] jsonLayoutChoices = {"object", "array"};
+        String[] modeChoices = {"bitmap", "sdf"};
+        String[] depthChoices = {"8", "4", "2", "1"};
+        String[] compressChoices = {"none", "bc4"};
+        String[] autoSizeChoices = {"grow", "search"};
+        String[] autoAspectChoices = {"free", "square"};
+        String[] partitionChoices = {"none", "size"};
 
         argProcessor.registerArgument(new CmdLineArgs.Argument(
                 WIDTH_ARG,
@@ -190,8 +1177,14 @@ public class BitmapGenerator {
         ));
         argProcessor.registerArgument(new CmdLineArgs.Argument(
                 IN_ARG,
-                "path to input font",
-                new CmdLineArgs.PathArgumentHandler(true)
+                "path to input font, several comma separated fonts share one atlas and are told apart by font id in this order",
+                new CmdLineArgs.DelimitedArgumentHandler(",", 255, new FontArgumentHandler())
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                FALLBACK_ARG,
+                "comma separated fonts tried in order for characters the input fonts don't have, each glyph is packed once and shared",
+                new CmdLineArgs.DelimitedArgumentHandler(",", 255, new FontArgumentHandler()),
+                "none"
         ));
         argProcessor.registerArgument(new CmdLineArgs.Argument(
                 SIZES_ARG,
@@ -217,6 +1210,18 @@ public class BitmapGenerator {
                 new CmdLineArgs.ChoiceArgumentHandler(charsets.keySet()),
                 "US_ASCII"
         ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                CORPUS_ARG,
+                "directory of .txt, .json and .po files, renders exactly the characters they use instead of the charset",
+                new CmdLineArgs.PathArgumentHandler(true),
+                "none"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                FREQUENCIES_ARG,
+                "file of 'character count' lines, packs the most used glyphs first and stores each glyph's rank in the metadata",
+                new CmdLineArgs.PathArgumentHandler(true),
+                "none"
+        ));
         argProcessor.registerArgument(new CmdLineArgs.Argument(
                 METADATA_ARG,
                 "metadata output type",
@@ -224,6 +1229,146 @@ public class BitmapGenerator {
                 metadataChoices[0]
         ));
 
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                JSON_LAYOUT_ARG,
+                "json metadata layout, 'array' writes glyphs and kerning as flat number arrays",
+                new CmdLineArgs.ChoiceArgumentHandler(jsonLayoutChoices),
+                jsonLayoutChoices[0]
+        ));
+
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                MODE_ARG,
+                "glyph output, 'sdf' writes signed distance fields that can be scaled at runtime",
+                new CmdLineArgs.ChoiceArgumentHandler(modeChoices),
+                modeChoices[0]
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                SDF_SPREAD_ARG,
+                "distance in pixels the distance field reaches either side of the outline",
+                new CmdLineArgs.IntegerRangeArgumentHandler(1, 32),
+                "4"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                SDF_SCALE_ARG,
+                "how many times larger than the output size glyphs are rendered before building the distance field",
+                new CmdLineArgs.IntegerRangeArgumentHandler(1, 16),
+                "8"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                DOWNSAMPLE_ARG,
+                "render glyphs once at the largest size and shrink them for the other sizes",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                DOWNSAMPLE_MIN_ARG,
+                "sizes below this are still rendered by FreeType when downsampling, since hinting matters most there",
+                new CmdLineArgs.IntegerRangeArgumentHandler(8, 128),
+                "20"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                DEPTH_ARG,
+                "bits per pixel of the output bitmap, 1 renders glyphs with FreeType's monochrome rasterizer",
+                new CmdLineArgs.ChoiceArgumentHandler(depthChoices),
+                depthChoices[0]
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                DITHER_ARG,
+                "dither coverage when writing fewer than 8 bits per pixel",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                CHANNEL_PACK_ARG,
+                "pack the sizes into the red, green, blue and alpha channels of one RGBA bitmap, each channel packed separately",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                BLOCK_ALIGN_ARG,
+                "place glyphs on 4x4 pixel block boundaries so block compression doesn't bleed between them",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                COMPRESS_ARG,
+                "also write a block compressed texture, 'bc4' writes a .dds next to the output bitmap",
+                new CmdLineArgs.ChoiceArgumentHandler(compressChoices),
+                compressChoices[0]
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                PAGE_SIZE_ARG,
+                "largest width and height an auto sized page grows to before another page is started",
+                new CmdLineArgs.IntegerRangeArgumentHandler(64, 8192),
+                "8192"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                UNIFORM_PAGES_ARG,
+                "make every page the same size so they can be loaded as a texture array",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                PLAN_ARG,
+                "lay the atlas out from glyph metrics only and print its size instead of rendering anything",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                PLAN_KERNING_ARG,
+                "probe every kerning pair in a plan too, so the metadata figures (and embedded sizing) include the kerning table",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                AUTO_SIZE_ARG,
+                "how auto sized pages are sized, 'search' finds the smallest page with packing dry runs before anything is drawn",
+                new CmdLineArgs.ChoiceArgumentHandler(autoSizeChoices),
+                autoSizeChoices[0]
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                AUTO_ASPECT_ARG,
+                "shape of pages when both width and height are auto, 'square' keeps them square",
+                new CmdLineArgs.ChoiceArgumentHandler(autoAspectChoices),
+                autoAspectChoices[0]
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                ROTATE_ARG,
+                "let glyphs be stored turned on their side (transposed) when that packs tighter, flagged per glyph in the metadata",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                STATS_ARG,
+                "write phase timings, FreeType call counts, packer occupancy, metadata sizes and peak memory to <out>.stats.json",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                PARTITION_ARG,
+                "'size' packs every size into its own pages (<out>_<size>.png) with its own metadata, binary and compact go into one indexed <out>.fontsections",
+                new CmdLineArgs.ChoiceArgumentHandler(partitionChoices),
+                partitionChoices[0]
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                STRINGS_ARG,
+                "file of 'name size text' lines, each text is rendered whole into the atlas and recorded as a named sprite of font 0",
+                new CmdLineArgs.PathArgumentHandler(true),
+                "none"
+        ));
+        argProcessor.registerArgument(new CmdLineArgs.Argument(
+                WATCH_ARG,
+                "keep running and regenerate whenever a font, the corpus, the frequencies or the strings file changes, reusing the loaded faces and rendered glyphs",
+                new CmdLineArgs.BooleanArgumentHandler(),
+                "false"
+        ));
+        return argProcessor;
+    }
+
+    public static void main (String[] args) {
+        HashMap<String, Charset> charsets = charsets();
+        CmdLineArgs argProcessor = arguments(charsets);
+
         //early out for no-arg situations
         if (args.length == 0 || (args.length == 1 && args[0].equalsIgnoreCase("help"))) {
             printUsage();
@@ -238,18 +1383,168 @@ public class BitmapGenerator {
             throw new Error(e.getMessage());
         }
 
+        boolean watch = (Boolean) argProcessor.getValue(WATCH_ARG);
+        Session session = new Session();
+        try {
+            generate(argProcessor, charsets, session);
+            if (watch) {
+                watch(argProcessor, charsets, session);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new Error(e.getMessage());
+            //System.err.println(e.getMessage());
+        } finally {
+            session.close();
+        }
+    }
+
+    /*
+    registers the directory for changes to its entries, remembering which directory each key is for
+     */
+    private static void register(WatchService watcher, HashMap<WatchKey, Path> directories, Path directory) throws IOException {
+        WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+    }
+
+    /*
+    the corpus and every directory under it, again after each change since new subdirectories aren't watched by their parent
+     */
+    private static void registerTree(WatchService watcher, HashMap<WatchKey, Path> directories, Path root) throws IOException {
+        Stream<Path> walk = Files.walk(root);
+        try {
+            for (Path directory : (Iterable<Path>) walk.filter(Files::isDirectory)::iterator) {
+                register(watcher, directories, directory);
+            }
+        } finally {
+            walk.close();
+        }
+    }
+
+    /*
+    reruns generate() whenever one of its inputs changes, until the process is stopped
+    the session keeps the faces and the rendered glyphs between runs, so a run reloads only the fonts whose files changed
+        and renders only the characters it hasn't rendered at that size before - packing and the outputs are redone whole,
+        and every output is replaced atomically so a reader never sees a partial file
+    a failed run is reported and the watch goes on, the next save usually fixes it
+     */
+    private static void watch(CmdLineArgs argProcessor, HashMap<String, Charset> charsets, Session session) throws Exception {
+        HashSet<Path> files = new HashSet<Path>();
+        ArrayList<FontFile> fonts = fontList(argProcessor.getValue(IN_ARG));
+        fonts.addAll(fontList(argProcessor.getValue(FALLBACK_ARG)));
+        for (FontFile font : fonts) {
+            files.add(font.file.toPath().toAbsolutePath().normalize());
+        }
+        for (String arg : new String[] {FREQUENCIES_ARG, STRINGS_ARG}) {
+            File file = (File) argProcessor.getValue(arg);
+            if (file != null) {
+                files.add(file.toPath().toAbsolutePath().normalize());
+            }
+        }
+        File corpusFile = (File) argProcessor.getValue(CORPUS_ARG);
+        Path corpus = null;
+        if (corpusFile != null && corpusFile.isDirectory()) {
+            corpus = corpusFile.toPath().toAbsolutePath().normalize();
+        } else if (corpusFile != null) {
+            //a single file corpus is watched like the other input files
+            files.add(corpusFile.toPath().toAbsolutePath().normalize());
+        }
+
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        try {
+            HashMap<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+            for (Path file : files) {
+                register(watcher, directories, file.getParent());
+            }
+            if (corpus != null) {
+                registerTree(watcher, directories, corpus);
+            }
+            System.out.println("Watching for changes...");
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = false;
+                while (key != null) {
+                    Path directory = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changed = true;
+                            continue;
+                        }
+                        Path path = directory.resolve((Path) event.context());
+                        if (files.contains(path) || (corpus != null && path.startsWith(corpus))) {
+                            changed = true;
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(key);
+                    }
+                    key = watcher.poll(WATCH_SETTLE_MS, TimeUnit.MILLISECONDS);
+                }
+                //only our own outputs or unrelated files moved
+                if (!changed) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    if (corpus != null && Files.isDirectory(corpus)) {
+                        registerTree(watcher, directories, corpus);
+                    }
+                    RunStats stats = generate(argProcessor, charsets, session);
+                    System.out.println(String.format("Regenerated in %d ms, %d glyphs rendered", (System.nanoTime() - start) / 1000000, stats.glyphsRendered));
+                } catch (Exception e) {
+                    System.err.println("Regeneration failed: " + e.getMessage());
+                }
+            }
+        } finally {
+            watcher.close();
+        }
+    }
+
+    /*
+    one run over the parsed arguments, from loading the fonts to writing every output
+    returns the run's counters, they're only saved with stats=true
+     */
+    static RunStats generate(CmdLineArgs argProcessor, HashMap<String, Charset> charsets, Session session) throws Exception {
         //pull all the args back in after we've processed and verified
         int outputWidth = (Integer) argProcessor.getValue(WIDTH_ARG);
         int outputHeight = (Integer) argProcessor.getValue(HEIGHT_ARG);
         //String charSet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz1234567890\"!`?'.,;:()[]{}<>|/@\\^$-%+=#_&~*";
-        String charSet = (String) argProcessor.getValue(CHARSET_ARG);
-        charSet = buildCharSet(charsets.get(charSet));
+        String charSetName = (String) argProcessor.getValue(CHARSET_ARG);
+        //null unless given
+        File corpus = (File) argProcessor.getValue(CORPUS_ARG);
+        File frequencies = (File) argProcessor.getValue(FREQUENCIES_ARG);
+        File strings = (File) argProcessor.getValue(STRINGS_ARG);
         File outFile = (File) argProcessor.getValue(OUT_ARG);
-        File inFile = (File) argProcessor.getValue(IN_ARG);
+        ArrayList<FontFile> fonts = fontList(argProcessor.getValue(IN_ARG));
+        //empty unless given
+        ArrayList<FontFile> fallbacks = fontList(argProcessor.getValue(FALLBACK_ARG));
         boolean ignoreUndefinedCharacters = (Boolean) argProcessor.getValue(IGNORE_UNDEFINED_ARG);
         boolean restrictPowerOfTwo = (Boolean) argProcessor.getValue(POWEROFTWO_ARG);
-        ArrayList<Integer> sizes = (ArrayList) argProcessor.getValue(SIZES_ARG);
+        ArrayList<Integer> sizes = sizeList(argProcessor.getValue(SIZES_ARG));
         String metadataEncoding = (String) argProcessor.getValue(METADATA_ARG);
+        boolean jsonArrayLayout = ((String) argProcessor.getValue(JSON_LAYOUT_ARG)).equalsIgnoreCase("array");
+        boolean distanceField = ((String) argProcessor.getValue(MODE_ARG)).equalsIgnoreCase("sdf");
+        int sdfSpread = (Integer) argProcessor.getValue(SDF_SPREAD_ARG);
+        //distance fields are built from a larger rendering, FreeType units are divided back down by this
+        int renderScale = distanceField ? (Integer) argProcessor.getValue(SDF_SCALE_ARG) : 1;
+        boolean downsample = (Boolean) argProcessor.getValue(DOWNSAMPLE_ARG);
+        int downsampleMin = (Integer) argProcessor.getValue(DOWNSAMPLE_MIN_ARG);
+        int bitDepth = Integer.parseInt((String) argProcessor.getValue(DEPTH_ARG));
+        boolean dither = (Boolean) argProcessor.getValue(DITHER_ARG);
+        boolean channelPack = (Boolean) argProcessor.getValue(CHANNEL_PACK_ARG);
+        boolean blockAlign = (Boolean) argProcessor.getValue(BLOCK_ALIGN_ARG);
+        boolean compressBC4 = ((String) argProcessor.getValue(COMPRESS_ARG)).equalsIgnoreCase("bc4");
+        int pageSize = (Integer) argProcessor.getValue(PAGE_SIZE_ARG);
+        boolean uniformPages = (Boolean) argProcessor.getValue(UNIFORM_PAGES_ARG);
+        boolean plan = (Boolean) argProcessor.getValue(PLAN_ARG);
+        //the pair probe is quadratic in the charset, a plan skips it unless asked
+        boolean probeKerning = !plan || (Boolean) argProcessor.getValue(PLAN_KERNING_ARG);
+        boolean searchSize = ((String) argProcessor.getValue(AUTO_SIZE_ARG)).equalsIgnoreCase("search");
+        boolean rotate = (Boolean) argProcessor.getValue(ROTATE_ARG);
+        boolean writeStats = (Boolean) argProcessor.getValue(STATS_ARG);
+        boolean partitionSizes = ((String) argProcessor.getValue(PARTITION_ARG)).equalsIgnoreCase("size");
+        //distance fields need smooth coverage to measure from, whatever depth they're saved at
+        int renderMode = bitDepth == 1 && !distanceField ? FreeType.FT_RENDER_MODE_MONO : FreeType.FT_RENDER_MODE_NORMAL;
 
         boolean autoWidth = false;
         boolean autoHeight = false;
@@ -262,155 +1557,395 @@ public class BitmapGenerator {
             autoHeight = true;
             outputHeight = 32;
         }
+        boolean squarePages = autoWidth && autoHeight && ((String) argProcessor.getValue(AUTO_ASPECT_ARG)).equalsIgnoreCase("square");
 
-        int glyphsDrawn = 0;
-        FreeType freetype = new FreeType();
-        try {
-            FreeType.Face face = loadFile(freetype, inFile);
-            //map the charset indices to the indicies in the font
-            HashMap<Character, Integer> glyphIndices = getGlyphIndices(face, charSet, ignoreUndefinedCharacters);
-            if (glyphIndices.size() < charSet.length()) {
-                System.err.println(String.format("Skipping %d characters...", charSet.length()-glyphIndices.size()));
+        RunStats stats = new RunStats();
+        long phaseStart = System.nanoTime();
+        //the in= fonts first, so their index is their font id, then the fallbacks
+        ArrayList<FontFace> faces = new ArrayList<FontFace>();
+        for (int f = 0; f < fonts.size(); f++) {
+            faces.add(session.face(fonts.get(f), f, stats));
+        }
+        for (FontFile fallback : fallbacks) {
+            faces.add(session.face(fallback, -1, stats));
+        }
+        stats.endPhase("fontLoad", phaseStart);
+        phaseStart = System.nanoTime();
+        GeneratorEvents.CharsetMap charsetEvent = new GeneratorEvents.CharsetMap();
+        charsetEvent.begin();
+        String charSet;
+        if (corpus != null) {
+            BitSet codePoints = CorpusCharset.scan(corpus);
+            charSet = CorpusCharset.toCharSet(codePoints);
+            charSetName = corpus.getPath();
+            System.out.println(String.format("Corpus uses %d characters", charSet.length()));
+            int supplementary = CorpusCharset.supplementaryCount(codePoints);
+            if (supplementary > 0) {
+                System.err.println(String.format("Skipping %d characters outside the Basic Multilingual Plane...", supplementary));
+            }
+        } else {
+            charSet = buildCharSet(charsets.get(charSetName));
+        }
+        //null without a strings file
+        ArrayList<StringSprites.Sprite> sprites = null;
+        if (strings != null) {
+            sprites = StringSprites.read(strings);
+            for (StringSprites.Sprite sprite : sprites) {
+                if (!sizes.contains(sprite.size)) {
+                    throw new Exception(String.format("Sprite %s is %d pixels, which isn't one of the sizes.", sprite.name, sprite.size));
+                }
+            }
+            //the sprites are drawn from the glyphs, so every character they use is rendered whatever the charset
+            charSet = StringSprites.addCharacters(charSet, sprites);
+        }
+        //map the charset indices to the indicies in each font
+        //  with fallbacks, undefined characters are only skipped or reported once the fallbacks have been tried
+        ArrayList<HashMap<Character, Integer>> fallbackIndices = new ArrayList<HashMap<Character, Integer>>();
+        for (int f = fonts.size(); f < faces.size(); f++) {
+            fallbackIndices.add(getGlyphIndices(faces.get(f).face, charSet, true, stats));
+        }
+        for (int f = 0; f < fonts.size(); f++) {
+            FontFace font = faces.get(f);
+            font.glyphIndices.putAll(getGlyphIndices(font.face, charSet, ignoreUndefinedCharacters || !fallbacks.isEmpty(), stats));
+            int filled = 0;
+            int skipped = 0;
+            for (int i = 0; i < charSet.length(); i++) {
+                char character = charSet.charAt(i);
+                if (font.glyphIndices.containsKey(character)) {
+                    continue;
+                }
+                int chain = 0;
+                while (chain < fallbackIndices.size() && !fallbackIndices.get(chain).containsKey(character)) {
+                    chain++;
+                }
+                if (chain < fallbackIndices.size()) {
+                    FontFace fallback = faces.get(fonts.size() + chain);
+                    fallback.glyphIndices.put(character, fallbackIndices.get(chain).get(character));
+                    fallback.borrowers.computeIfAbsent(character, c -> new ArrayList<Integer>()).add(f);
+                    filled++;
+                } else if (!ignoreUndefinedCharacters) {
+                    throw new Exception("Typeface does not define a glyph for character: " + String.valueOf(character));
+                } else {
+                    skipped++;
+                }
+            }
+            String fontName = fonts.size() > 1 ? " of font " + String.valueOf(f) : "";
+            if (filled > 0) {
+                System.out.println(String.format("Filled %d characters%s from the fallbacks", filled, fontName));
+            }
+            if (skipped > 0) {
+                System.err.println(String.format("Skipping %d characters%s...", skipped, fontName));
+            }
+        }
+        HashSet<Character> characters = new HashSet<Character>();
+        int glyphCount = 0;
+        for (FontFace face : faces) {
+            characters.addAll(face.glyphIndices.keySet());
+            glyphCount += face.glyphIndices.size();
+        }
+        if (charsetEvent.shouldCommit()) {
+            charsetEvent.charset = charSetName;
+            charsetEvent.characters = charSet.length();
+            charsetEvent.glyphs = glyphCount;
+            charsetEvent.commit();
+        }
+        stats.endPhase("charsetMap", phaseStart);
+        //usage ranks of the glyphs in the atlas, null without a frequency file
+        HashMap<Character, Integer> ranks = null;
+        if (frequencies != null) {
+            ranks = GlyphFrequencies.rank(GlyphFrequencies.read(frequencies), characters);
+            System.out.println(String.format("Ranked glyphs: %d", ranks.size()));
+        }
+        //one section for the whole atlas, or with partitioning one per size with its own pages and metadata
+        ArrayList<AtlasSection> sections = new ArrayList<AtlasSection>();
+        if (partitionSizes) {
+            if (metadataEncoding.equalsIgnoreCase("embedded")) {
+                throw new Exception("Partitioned atlases keep metadata per size, use metadata=binary, compact, json or chunk instead.");
+            }
+            if (channelPack) {
+                throw new Exception("Partitioned atlases keep one size per page, channel packing can't be combined with them.");
+            }
+            ArrayList<Integer> ascending = new ArrayList<Integer>(new TreeSet<Integer>(sizes));
+            for (int size : ascending) {
+                sections.add(new AtlasSection(new ArrayList<Integer>(Collections.singletonList(size)), AtlasPages.suffixed(outFile, "_" + size)));
+            }
+        } else {
+            sections.add(new AtlasSection(sizes, outFile));
+        }
+        //every channel has its own packer, each page keeps its channels the same size so they can be interleaved at the end
+        int channelCount = 1;
+        if (channelPack) {
+            if (metadataEncoding.equalsIgnoreCase("embedded") || bitDepth != 8) {
+                throw new Exception("Channel packing needs an 8-bit bitmap without embedded metadata.");
+            }
+            channelCount = 4;
+        }
+        HashMap<Integer, Integer> sizeChannels = assignChannels(sizes, channelCount);
+        if (compressBC4 && (channelPack || bitDepth != 8)) {
+            throw new Exception("BC4 compression needs a single channel 8-bit bitmap.");
+        }
+        if (bitDepth != 8) {
+            //the embedded encoder needs every bit of an 8-bit pixel
+            if (metadataEncoding.equalsIgnoreCase("embedded")) {
+                throw new Exception("Embedded metadata needs an 8-bit bitmap, use metadata=chunk instead.");
+            }
+        }
+        for (AtlasSection section : sections) {
+            TypefaceMetrics record = section.record;
+            if (channelCount > 1) {
+                record.setChannelCount(channelCount);
+            }
+            if (bitDepth != 8) {
+                record.setBitDepth(bitDepth);
+            }
+            if (distanceField) {
+                //a single size is usually enough here since the field scales, but every size asked for is honoured
+                record.setDistanceFieldSpread(sdfSpread);
+            }
+            record.setRotation(rotate);
+            record.setRanked(ranks != null);
+            record.setFontCount(fonts.size());
+        }
+
+        phaseStart = System.nanoTime();
+        int masterSize = Collections.max(sizes);
+        if (downsample && distanceField) {
+            throw new Exception("Downsampling can't be combined with distance field output.");
+        }
+        //every size of every face is rasterized before anything is placed, so the page size can be searched for first
+        ArrayList<GlyphRun> runs = new ArrayList<GlyphRun>();
+        for (FontFace source : faces) {
+            FreeType.Face face = source.face;
+            HashMap<Character, Integer> glyphIndices = source.glyphIndices;
+            if (glyphIndices.isEmpty()) {
+                continue;
+            }
+            //with downsampling on, glyphs are rendered once at the largest size and the smaller sizes are made from that
+            ArrayList<MasterGlyph> masters = null;
+            if (downsample) {
+                GeneratorEvents.Rasterize event = new GeneratorEvents.Rasterize();
+                event.begin();
+                setPixelSize(face, masterSize, stats);
+                masters = plan ? measureMasterGlyphs(face, glyphIndices, stats) : renderMasterGlyphs(face, glyphIndices, stats);
+                rasterized(event, masterSize, plan ? "measure" : "master", masters.size(),
+                        masters.stream().mapToLong(glyph -> (long) glyph.width * glyph.height).sum());
             }
-            BitmapRenderer renderer = new BitmapRenderer(outputWidth, outputHeight);
-            TypefaceMetrics record = new TypefaceMetrics();
 
             for (int size : sizes) {
+                GeneratorEvents.Rasterize event = new GeneratorEvents.Rasterize();
+                event.begin();
                 //pretty major functionc call here - tells FreeType that we're gonna start working in a new size
-                FreeType.setPixelSizes(face, 0, size);
-                for (char character : glyphIndices.keySet()) {
-                    int glyphIndex = glyphIndices.get(character);
-                    //I'm PRETTY SURE this needs to be called after setting a new size even though we've rendered this glyph before
-                    FreeType.GlyphSlot slot = loadGlyph(face, glyphIndex);
-                    //this raster is the image data that we get from FreeType
-                    Raster glyphRaster = renderGlyph(slot);
-                    if (glyphRaster != null) {
-                        Point p = renderer.putRaster(glyphRaster);
-                        //the point will be null if the skyline algorithm couldn't place the glyph anywhere
-                        //we'll need to either expand our area or just abort and output what we've got
-                        if (p == null) {
-                            //if the user doesn't want to expand, just abort
-                            if (!autoHeight && !autoWidth) {
-                                System.err.println("Failed to render glyph!  Out of room.");
-                                break;
-                            } else {
-                                //try to expand in either or both directions
-                                if (autoWidth) {
-                                    outputWidth = expandDimension(outputWidth, glyphRaster.getWidth(), restrictPowerOfTwo);
-                                    //throw an error if we're getting too big
-                                    if (outputWidth > 8192) {
-                                        System.err.println("Output bitmap is too large!  Aborting.");
-                                        break;
-                                    }
-                                }
-                                if (autoHeight) {
-                                    outputHeight = expandDimension(outputHeight, glyphRaster.getHeight(), restrictPowerOfTwo);
-                                    if (outputHeight > 8192) {
-                                        System.err.println("Output bitmap is too large!  Aborting.");
-                                        break;
-                                    }
-                                }
-                                renderer.expand(outputWidth, outputHeight);
-                                //this should be a guaranteed success after resizing
-                                p = renderer.putRaster(glyphRaster);
-                                if (p == null) {
-                                    throw new Error("Failed to render glyph!  Unknown Error.");
-                                }
-                            }
-                        }
-                        FreeType.GlyphMetrics metrics = slot.getMetrics();
-
-                        TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(character);
-                        info.x = p.x;
-                        info.y = p.y;
-                        info.width = glyphRaster.getWidth();
-                        info.height = glyphRaster.getHeight();
-                        //FreeType keeps its sizes in 26.6 format, so do a quick divide here
-                        info.horiAdvance = Math.round(metrics.getHoriAdvance() / 64);
-                        info.horiBearingY = Math.round(metrics.getHoriBearingY() / 64);
-                        record.recordGlyph(size, info);
-
-                        //build the kerning table between this glyph and every other glyph in the charset
-                        if (FreeType.hasKerning(face)) {
-                            for (char rhcharacter : glyphIndices.keySet()) {
-                                int kerning = FreeType.getKerning(face, glyphIndex, glyphIndices.get(rhcharacter), FreeType.FT_KERNING_DEFAULT);
-                                if (kerning > 0) {
-                                    info.recordKerning(rhcharacter, kerning);
-                                }
-                            }
-                        }
+                setPixelSize(face, size * renderScale, stats);
+                ArrayList<RenderedGlyph> glyphs;
+                String method;
+                if (downsample && (size >= downsampleMin || size == masterSize)) {
+                    glyphs = downsampleGlyphs(masters, size / (double) masterSize);
+                    method = "downsample";
+                } else if (plan) {
+                    glyphs = measureGlyphs(face, glyphIndices, renderMode, renderScale, distanceField, sdfSpread, stats);
+                    method = "measure";
+                } else {
+                    glyphs = renderCached(source, size, renderMode, renderScale, distanceField, sdfSpread, stats);
+                    method = "render";
+                }
+                rasterized(event, size, method, glyphs.size(), glyphs.stream().mapToLong(glyph -> (long) glyph.width * glyph.height).sum());
+                runs.add(new GlyphRun(size, source, glyphs));
+            }
+        }
+        if (sprites != null) {
+            runs.addAll(renderSprites(sprites, faces, runs, sizes, renderScale, plan, stats));
+            System.out.println("Sprites: " + String.valueOf(sprites.size()));
+        }
+        //placed size by size, the faces of a size in font id order with the fallbacks last, then the sprites
+        runs.sort(Comparator.comparingInt(run -> sizes.indexOf(run.size)));
+        stats.endPhase("rasterize", phaseStart);
 
-                        glyphsDrawn++;
+        PackSettings settings = new PackSettings();
+        settings.width = outputWidth;
+        settings.height = outputHeight;
+        settings.autoWidth = autoWidth;
+        settings.autoHeight = autoHeight;
+        settings.restrictPowerOfTwo = restrictPowerOfTwo;
+        settings.pageSize = pageSize;
+        settings.channelCount = channelCount;
+        settings.sizeChannels = sizeChannels;
+        settings.blockAlign = blockAlign;
+        settings.plan = plan;
+        settings.rotate = rotate;
+        settings.bitDepth = bitDepth;
+        settings.dither = dither;
+        settings.searchSize = searchSize;
+        settings.squarePages = squarePages;
+        ArrayList<ArrayList<PlacedGlyph>> sectionOrders = new ArrayList<ArrayList<PlacedGlyph>>(sections.size());
+        for (AtlasSection section : sections) {
+            sectionOrders.add(placementOrder(sectionRuns(section, runs), ranks));
+        }
+        if (sections.size() == 1) {
+            packSection(sections.get(0), sectionOrders.get(0), settings, ranks, stats);
+        } else {
+            //the sections only share the rendered glyphs, so every size is packed on its own thread
+            phaseStart = System.nanoTime();
+            final HashMap<Character, Integer> sectionRanks = ranks;
+            try {
+                IntStream.range(0, sections.size()).parallel().forEach(i -> {
+                    try {
+                        packSection(sections.get(i), sectionOrders.get(i), settings, sectionRanks, null);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
                     }
+                });
+            } catch (RuntimeException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
                 }
+                throw e;
             }
+            stats.endPhase("pack", phaseStart);
+        }
 
-            System.out.println("Glyphs drawn: " + String.valueOf(glyphsDrawn));
-
-            //special case for embedded fonts - we do a bunch of resizing magic here to
-            //  make sure there are enough pixels for all the metadata
-            if (metadataEncoding.equalsIgnoreCase("embedded")) {
-                byte[] bytes = record.getBinary();
-                Point trimSize = renderer.trimmedSize();
-                int bytesAvailable = renderer.bytesAvailbleForEncoding(trimSize.x, trimSize.y);
-                //this is the difference - if it's negative we're short on pixels ans need to add more
-                int bytesNeeded = bytes.length - bytesAvailable;
-                if (bytesNeeded > 0) {
-                    //abort if we're not resizing
-                    if (!autoHeight && autoWidth) {
-                        throw new Exception("Not enough room embed the metadata.  Please specify a larger bitmap or use auto sizing.");
+        //build the kerning table between every pair of glyphs in each font
+        //  borrowed glyphs come from another face, so there is no kerning between them and the font's own
+        phaseStart = System.nanoTime();
+        if (probeKerning) {
+            for (AtlasSection section : sections) {
+                for (GlyphRun run : sectionRuns(section, runs)) {
+                    if (run.source.fontId >= 0 && !run.sprites) {
+                        recordKerning(run.source, run.glyphs, section.record, run.size, renderScale, stats);
                     }
-                    //expand height first (and only height if possible)
-                    if (autoHeight) {
-                        //add this many rows to the bitmap
-                        int rowsNeeded = (int) Math.ceil(bytesNeeded/renderer.getWidth());
-                        //this is here just so we get a POT size if necessary
-                        outputHeight = expandDimension(outputHeight, rowsNeeded, restrictPowerOfTwo);
-                        //abort if things are getting out of hand
-                        if (outputHeight > 8192) {
-                            throw new Exception("Output bitmap is too large!  Aborting.");
-                        }
+                }
+            }
+        }
+        stats.endPhase("kerning", phaseStart);
+
+        int glyphsDrawn = 0;
+        long glyphArea = 0;
+        for (AtlasSection section : sections) {
+            glyphsDrawn += section.glyphsDrawn;
+            glyphArea += section.glyphArea;
+        }
+        System.out.println((plan ? "Glyphs planned: " : "Glyphs drawn: ") + String.valueOf(glyphsDrawn));
+        for (AtlasSection section : sections) {
+            if (section.pages.pageCount() > 1 && !plan) {
+                String name = sections.size() > 1 ? " for " + section.outFile.getName() : "";
+                System.out.println("Atlas pages" + name + ": " + String.valueOf(section.pages.pageCount()));
+            }
+        }
+
+        //special case for embedded fonts - we do a bunch of resizing magic here to
+        //  make sure there are enough pixels for all the metadata
+        phaseStart = System.nanoTime();
+        if (metadataEncoding.equalsIgnoreCase("embedded")) {
+            //partitioning is turned down above, so there is only the one section
+            AtlasPages pages = sections.get(0).pages;
+            if (pages.pageCount() > 1) {
+                throw new Exception("Embedded metadata only fits a single page, use metadata=chunk instead.");
+            }
+            BitmapRenderer renderer = pages.getRenderer(0, 0);
+            outputWidth = renderer.getWidth();
+            outputHeight = renderer.getHeight();
+            byte[] bytes = sections.get(0).record.getBinary();
+            Point trimSize = renderer.trimmedSize();
+            int bytesAvailable = renderer.bytesAvailbleForEncoding(trimSize.x, trimSize.y);
+            //this is the difference - if it's negative we're short on pixels ans need to add more
+            int bytesNeeded = bytes.length - bytesAvailable;
+            if (bytesNeeded > 0) {
+                //abort if we're not resizing
+                if (!autoHeight && !autoWidth) {
+                    throw new Exception("Not enough room embed the metadata.  Please specify a larger bitmap or use auto sizing.");
+                }
+                //expand height first (and only height if possible)
+                if (autoHeight) {
+                    //add this many rows to the bitmap
+                    int rowsNeeded = (int) Math.ceil(bytesNeeded / (double) renderer.getWidth());
+                    //this is here just so we get a POT size if necessary
+                    outputHeight = AtlasPages.expandDimension(outputHeight, rowsNeeded, restrictPowerOfTwo);
+                    //abort if things are getting out of hand
+                    if (outputHeight > 8192) {
+                        throw new Exception("Output bitmap is too large!  Aborting.");
                     }
-                    //don't resize the width unless we have to
-                    //  this is basically the same as the height above
-                    if (autoWidth && !autoHeight) {
-                        int colsNeeded = (int) Math.ceil(bytesNeeded/renderer.getHeight());
-                        outputWidth = expandDimension(outputWidth, colsNeeded, restrictPowerOfTwo);
-                        //throw an error if we're getting too big
-                        if (outputWidth > 8192) {
-                            throw new Exception("Output bitmap is too large!  Aborting.");
-                        }
+                }
+                //don't resize the width unless we have to
+                //  this is basically the same as the height above
+                if (autoWidth && !autoHeight) {
+                    int colsNeeded = (int) Math.ceil(bytesNeeded / (double) renderer.getHeight());
+                    outputWidth = AtlasPages.expandDimension(outputWidth, colsNeeded, restrictPowerOfTwo);
+                    //throw an error if we're getting too big
+                    if (outputWidth > 8192) {
+                        throw new Exception("Output bitmap is too large!  Aborting.");
                     }
-                    renderer.shrink(outputWidth, outputHeight);
-                } else {
-                    //if we have enough bytes in the minimum trimmed size, just trim and go
-                    renderer.shrink(trimSize.x, trimSize.y);
                 }
-                renderer.encode(bytes);
+                renderer.shrink(outputWidth, outputHeight);
             } else {
+                //if we have enough bytes in the minimum trimmed size, just trim and go
+                renderer.shrink(trimSize.x, trimSize.y);
+            }
+            //a plan stops at the size, there are no pixels to encode into
+            if (!plan && renderer.encode(bytes) < bytes.length) {
+                throw new Exception("Not enough room embed the metadata.  Please specify a larger bitmap or use auto sizing.");
+            }
+            stats.endPhase("embed", phaseStart);
+        } else {
+            //a plan only reports what would be written
+            if (!plan) {
                 if (metadataEncoding.equalsIgnoreCase("json")) {
-                    record.saveJson(outFile + ".json");
+                    for (AtlasSection section : sections) {
+                        section.record.saveJson(section.outFile + ".json", jsonArrayLayout);
+                    }
+                } else if (partitionSizes && (metadataEncoding.equalsIgnoreCase("binary") || metadataEncoding.equalsIgnoreCase("compact"))) {
+                    saveSections(sections, outFile, metadataEncoding.equalsIgnoreCase("compact"));
                 } else if (metadataEncoding.equalsIgnoreCase("binary")) {
-                    record.saveBinary(outFile + ".fontdata");
+                    sections.get(0).record.saveBinary(outFile + ".fontdata");
+                } else if (metadataEncoding.equalsIgnoreCase("compact")) {
+                    sections.get(0).record.saveCompactBinary(outFile + ".fontcompact");
                 }
-                //get trimmed size, ensure POT if necessary
-                Point trimSize = renderer.trimmedSize();
-                if (restrictPowerOfTwo) {
-                    trimSize.x = nearestPowerOfTwo(trimSize.x);
-                    trimSize.y = nearestPowerOfTwo(trimSize.y);
+            }
+            stats.endPhase("metadata", phaseStart);
+            phaseStart = System.nanoTime();
+            for (AtlasSection section : sections) {
+                section.pages.trim(uniformPages, squarePages);
+            }
+            stats.endPhase("trim", phaseStart);
+        }
+        if (plan) {
+            for (AtlasSection section : sections) {
+                if (sections.size() > 1) {
+                    System.out.println("Section " + section.outFile.getName() + ":");
                 }
-                //don't resize if the sizes are the same
-                //  this is fairly probable when we're doing POT sizing
-                if (outputWidth != trimSize.x || outputHeight != trimSize.y) {
-                    renderer.shrink(trimSize.x, trimSize.y);
+                printPlan(section.pages, section.record, channelCount, bitDepth, section.glyphArea, jsonArrayLayout, probeKerning);
+            }
+        } else {
+            for (AtlasSection section : sections) {
+                phaseStart = System.nanoTime();
+                byte[] chunk = null;
+                if (metadataEncoding.equalsIgnoreCase("chunk")) {
+                    //the binary stream rides along in the first page's PNG chunk, so the pixels stay untouched
+                    chunk = section.record.getBinary();
+                    System.out.println(String.format("Writing font data chunk: %d bytes", chunk.length));
+                    stats.endPhase("metadata", phaseStart);
+                    phaseStart = System.nanoTime();
                 }
+                section.pages.save(section.outFile, chunk, compressBC4);
+                stats.endPhase("write", phaseStart);
             }
-            renderer.saveToFile(outFile);
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new Error(e.getMessage());
-            //System.err.println(e.getMessage());
         }
-        freetype.close();
+        if (writeStats) {
+            stats.glyphs = glyphsDrawn;
+            stats.glyphArea = glyphArea;
+            int binaryBytes = 0;
+            int compactBytes = 0;
+            int jsonBytes = 0;
+            for (AtlasSection section : sections) {
+                collectPackerStats(section.pages, channelCount, stats);
+                //every format is measured so the sizes can be compared, whichever one was written
+                binaryBytes += section.record.getBinary().length;
+                compactBytes += section.record.getCompactBinary().length;
+                jsonBytes += section.record.getJsonLength(jsonArrayLayout);
+            }
+            stats.setMetadataBytes("binary", binaryBytes);
+            stats.setMetadataBytes("compact", compactBytes);
+            stats.setMetadataBytes("json", jsonBytes);
+            stats.save(new File(outFile + ".stats.json"));
+        }
+        return stats;
     }
 }
@@ -3,6 +3,10 @@ package com.wdimiceli;
 import junit.framework.TestCase;
 import org.junit.Test;
 
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+
 import static org.junit.Assert.*;
 
 public class BitmapGeneratorTest {
@@ -142,6 +146,16 @@ public class BitmapGeneratorTest {
         BitmapGenerator.main(args);
     }
 
+    @Test
+    public void testMainCompact() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputCompact.png",
+                "metadata=compact"
+        };
+        BitmapGenerator.main(args);
+    }
+
     @Test
     public void testMainEmbedded() throws Exception {
         String[] args = {
@@ -152,6 +166,198 @@ public class BitmapGeneratorTest {
         BitmapGenerator.main(args);
     }
 
+    @Test
+    public void testMainChunk() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputChunk.png",
+                "metadata=chunk"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainJsonArrayLayout() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputJsonArray.png",
+                "metadata=json",
+                "json-layout=array"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainDistanceField() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputDistanceField.png",
+                "sizes=32",
+                "mode=sdf",
+                "sdf-spread=6"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainDownsample() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputDownsample.png",
+                "sizes=12,16,20,24,28,32,40,48",
+                "downsample=true",
+                "downsample-min=16"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainMono() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputMono.png",
+                "sizes=12,16",
+                "depth=1",
+                "metadata=chunk"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainDithered() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputDithered.png",
+                "depth=4",
+                "dither=true"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainChannelPack() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputChannels.png",
+                "sizes=12,16,20,24,28,32",
+                "channel-pack=true",
+                "metadata=chunk"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainBC4() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputBC4.png",
+                "block-align=true",
+                "compress=bc4"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainPages() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputPages.png",
+                "sizes=32,48,64",
+                "charset=ISO_8859_1",
+                "page-size=256",
+                "uniform-pages=true",
+                "metadata=binary"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainPlan() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputPlan.png",
+                "sizes=16,32,64",
+                "charset=ISO_8859_1",
+                "page-size=512",
+                "plan=true"
+        };
+        BitmapGenerator.main(args);
+        assertFalse(new File("test/testOutputPlan.png").exists());
+    }
+
+    @Test
+    public void testMainAutoSizeSearch() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputSearch.png",
+                "sizes=16,24,32",
+                "auto-size=search",
+                "auto-aspect=square",
+                "force-pot=true"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainRotate() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputRotate.png",
+                "sizes=16,32,64",
+                "charset=ISO_8859_1",
+                "rotate=true",
+                "metadata=compact"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainStats() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputStats.png",
+                "sizes=16,32",
+                "charset=ISO_8859_1",
+                "stats=true"
+        };
+        BitmapGenerator.main(args);
+        assertTrue(new File("test/testOutputStats.png.stats.json").exists());
+    }
+
+    @Test
+    public void testMainCorpus() throws Exception {
+        File corpus = java.nio.file.Files.createTempDirectory("corpus").toFile();
+        java.nio.file.Files.write(new File(corpus, "strings.json").toPath(), "{\"play\":\"Play again?\"}".getBytes("UTF-8"));
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputCorpus.png",
+                "sizes=16,32",
+                "corpus=" + corpus.getPath(),
+                "ignoreundefined=true"
+        };
+        BitmapGenerator.main(args);
+    }
+
+    @Test
+    public void testMainFrequencies() throws Exception {
+        File frequencies = File.createTempFile("frequencies", ".txt");
+        java.nio.file.Files.write(frequencies.toPath(), "e 1200\nt 900\na 800\nQ 3\n".getBytes("UTF-8"));
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputFrequencies.png",
+                "sizes=16,32",
+                "page-size=128",
+                "frequencies=" + frequencies.getPath(),
+                "metadata=compact"
+        };
+        BitmapGenerator.main(args);
+        GlyphTable table = TypefaceMetricsReader.read(new File("test/testOutputFrequencies.png.fontcompact")).get(0);
+        int e = table.indexOf('e');
+        assertEquals(1, table.rank[e]);
+        //the most used glyph is packed first, on the first page
+        assertEquals(0, table.page[e]);
+    }
+
     @Test
     public void testMainAllArguments() throws Exception {
         String[] args = {
@@ -166,4 +372,84 @@ public class BitmapGeneratorTest {
         };
         BitmapGenerator.main(args);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testMainPartition() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputPartition.png",
+                "sizes=32,16",
+                "partition=size",
+                "metadata=compact"
+        };
+        BitmapGenerator.main(args);
+        assertTrue(new File("test/testOutputPartition_16.png").exists());
+        assertTrue(new File("test/testOutputPartition_32.png").exists());
+        ByteBuffer sections = MetadataSections.map(new File("test/testOutputPartition.png.fontsections"));
+        assertEquals(16, MetadataSections.readIndex(sections).get(0).pixelSize);
+        assertEquals(32, MetadataSections.readSize(sections, 32).get(0).pixelSize);
+    }
+
+    @Test
+    public void testMainFonts() throws Exception {
+        //the same face twice stands in for a family, the second copy borrows nothing
+        String[] args = {
+                "in=assets/c_and_l.ttf,assets/c_and_l.ttf#0",
+                "fallback=assets/c_and_l.ttf",
+                "out=test/testOutputFonts.png",
+                "sizes=16,32",
+                "charset=ISO_8859_1",
+                "metadata=compact"
+        };
+        BitmapGenerator.main(args);
+        List<GlyphTable> tables = TypefaceMetricsReader.read(new File("test/testOutputFonts.png.fontcompact"));
+        assertEquals(4, tables.size());
+        assertEquals(1, tables.get(2).fontId);
+        assertEquals(tables.get(0).size(), tables.get(2).size());
+    }
+
+    @Test
+    public void testMainStrings() throws Exception {
+        File strings = File.createTempFile("strings", ".txt");
+        java.nio.file.Files.write(strings.toPath(), "play_button 32 Play again?\ntitle 16 Hello\n".getBytes("UTF-8"));
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputStrings.png",
+                "sizes=16,32",
+                "strings=" + strings.getPath(),
+                "metadata=compact"
+        };
+        BitmapGenerator.main(args);
+        List<GlyphTable> tables = TypefaceMetricsReader.read(new File("test/testOutputStrings.png.fontcompact"));
+        GlyphTable table = tables.get(1);
+        int sprite = table.indexOfSprite("play_button");
+        assertTrue(sprite >= 0);
+        //the question mark isn't a letter, but the sprite needs it so it's rendered anyway
+        assertTrue(table.indexOf('?') >= 0);
+        assertTrue(table.spriteWidth[sprite] > table.width[table.indexOf('P')]);
+        assertTrue(tables.get(0).indexOfSprite("title") >= 0);
+    }
+
+    @Test
+    public void testMainSessionCache() throws Exception {
+        String[] args = {
+                "in=assets/c_and_l.ttf",
+                "out=test/testOutputSession.png",
+                "sizes=16,32"
+        };
+        java.util.HashMap<String, java.nio.charset.Charset> charsets = BitmapGenerator.charsets();
+        CmdLineArgs argProcessor = BitmapGenerator.arguments(charsets);
+        argProcessor.parseArgs(args);
+        BitmapGenerator.Session session = new BitmapGenerator.Session();
+        try {
+            assertTrue(BitmapGenerator.generate(argProcessor, charsets, session).glyphsRendered > 0);
+            //nothing changed, so a watch run takes every glyph and kern pair from the cache
+            RunStats stats = BitmapGenerator.generate(argProcessor, charsets, session);
+            assertEquals(0, stats.glyphsRendered);
+            assertEquals(0, stats.kerningPairsProbed);
+            assertTrue(new File("test/testOutputSession.png").exists());
+        } finally {
+            session.close();
+        }
+    }
+}
@@ -4,11 +4,17 @@ import javax.imageio.ImageIO;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.*;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.zip.CRC32;
 
 /**
  * Created by Wes on 7/21/2014.
@@ -16,10 +22,16 @@ import java.util.List;
 public class BitmapRenderer {
     private BufferedImage output;
     private SkylineBottomLeft skyline;
+    //bits per pixel the atlas is written out with, glyphs are always packed at 8
+    private int bitDepth;
+    private boolean dither;
+    //resize counters for the run statistics
+    private int expandCount;
+    private long bytesCopied;
 
     public Point putRaster(Raster raster) {
         Point retval = null;
-        Point placement = skyline.place(raster.getWidth(), raster.getHeight());
+        Point placement = reserve(raster.getWidth(), raster.getHeight());
         if (placement != null) {
             output.getRaster().setRect(placement.x, placement.y, raster);
             retval = placement;
@@ -27,45 +39,312 @@ public class BitmapRenderer {
         return retval;
     }
 
+    /*
+    finds room for a width x height rectangle without drawing anything
+    returns null if it doesn't fit
+     */
+    public Point reserve(int width, int height) {
+        return skyline.place(width, height);
+    }
+
+    /*
+    like putRaster(), but the raster is drawn transposed when that sits lower in the skyline
+    returns the area used, its width and height are swapped from the raster's when it was turned
+     */
+    public Rectangle putRasterRotatable(Raster raster) {
+        Rectangle area = reserveRotatable(raster.getWidth(), raster.getHeight());
+        if (area != null) {
+            Raster placed = area.width == raster.getWidth() ? raster : transpose(raster);
+            output.getRaster().setRect(area.x, area.y, placed);
+        }
+        return area;
+    }
+
+    public Rectangle reserveRotatable(int width, int height) {
+        return skyline.placeRotatable(width, height);
+    }
+
+    /*
+    swaps rows and columns, so source pixel (x, y) ends up at (y, x)
+     */
+    public static Raster transpose(Raster raster) {
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        int[] samples = raster.getSamples(raster.getMinX(), raster.getMinY(), width, height, 0, (int[]) null);
+        WritableRaster transposed = raster.createCompatibleWritableRaster(height, width);
+        int[] column = new int[height];
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                column[y] = samples[y * width + x];
+            }
+            transposed.setSamples(0, x, height, 1, 0, column);
+        }
+        return transposed;
+    }
+
+    /*
+    sets how many bits per pixel the saved atlas uses: 8, 4, 2 or 1
+    dither spreads the quantization error to neighbouring pixels (Floyd-Steinberg) instead of rounding each pixel
+     */
+    public void setBitDepth(int depth, boolean in_dither) {
+        if (depth != 8 && depth != 4 && depth != 2 && depth != 1) {
+            throw new IllegalArgumentException("Unsupported bit depth: " + String.valueOf(depth));
+        }
+        bitDepth = depth;
+        dither = in_dither;
+    }
+
+    public int getBitDepth() {
+        return bitDepth;
+    }
+
+    /*
+    returns the atlas as it is saved
+    below 8 bits the coverage is quantized to evenly spaced gray levels and packed
+        several pixels to a byte, leftmost pixel in the high bits
+     */
+    public BufferedImage getPackedImage() {
+        if (bitDepth == 8) {
+            return output;
+        }
+        int width = output.getWidth();
+        int height = output.getHeight();
+        int levels = 1 << bitDepth;
+        byte[] gray = new byte[levels];
+        for (int i = 0; i < levels; i++) {
+            gray[i] = (byte) (i * 255 / (levels - 1));
+        }
+        IndexColorModel colorModel = new IndexColorModel(bitDepth, levels, gray, gray, gray);
+        BufferedImage packed = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, colorModel);
+        byte[] target = ((DataBufferByte) packed.getRaster().getDataBuffer()).getData();
+        int stride = (width * bitDepth + 7) / 8;
+        int pixelsPerByte = 8 / bitDepth;
+
+        byte[] source = pixels();
+        //error carried into this row and the next, with a pixel of slack either side
+        int[] error = new int[width + 2];
+        int[] nextError = new int[width + 2];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int value = source[row + x] & 0xFF;
+                int level;
+                if (dither) {
+                    //errors are kept in sixteenths
+                    int wanted = Math.max(0, Math.min(255, value + (error[x + 1] >> 4)));
+                    level = (wanted * (levels - 1) + 127) / 255;
+                    int quantError = wanted - (gray[level] & 0xFF);
+                    error[x + 2] += quantError * 7;
+                    nextError[x] += quantError * 3;
+                    nextError[x + 1] += quantError * 5;
+                    nextError[x + 2] += quantError;
+                } else {
+                    level = (value * (levels - 1) + 127) / 255;
+                }
+                int shift = 8 - bitDepth * (x % pixelsPerByte + 1);
+                target[y * stride + x / pixelsPerByte] |= (byte) (level << shift);
+            }
+            int[] swap = error;
+            error = nextError;
+            nextError = swap;
+            Arrays.fill(nextError, 0);
+        }
+        return packed;
+    }
+
+    /*
+    interleaves up to four atlases of the same size into one RGBA image
+    channel i (red, green, blue, alpha) comes from channels.get(i), missing channels are left empty
+     */
+    public static BufferedImage mergeChannels(List<BitmapRenderer> channels) {
+        int width = channels.get(0).getWidth();
+        int height = channels.get(0).getHeight();
+        BufferedImage merged = new BufferedImage(width, height, BufferedImage.TYPE_4BYTE_ABGR);
+        byte[] target = ((DataBufferByte) merged.getRaster().getDataBuffer()).getData();
+        //bytes are stored A, B, G, R for each pixel
+        int[] offsets = {3, 2, 1, 0};
+        for (int c = 0; c < channels.size(); c++) {
+            BitmapRenderer channel = channels.get(c);
+            if (channel.getWidth() != width || channel.getHeight() != height) {
+                throw new IllegalArgumentException("Channel atlases must all be the same size");
+            }
+            byte[] source = channel.pixels();
+            for (int i = 0, t = offsets[c]; i < source.length; i++, t += 4) {
+                target[t] = source[i];
+            }
+        }
+        return merged;
+    }
+
     public void saveToFile(File file) throws IOException, SecurityException {
-        if (!file.getParentFile().exists()) {
+        savePng(getPackedImage(), file, null);
+    }
+
+    public static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    //private (lowercase second letter), ancillary (lowercase first) and not safe to copy (uppercase last)
+    //  since the metadata describes the pixel layout
+    public static final String METADATA_CHUNK_TYPE = "fnTM";
+
+    /*
+    saves the PNG with the metadata in a private ancillary chunk placed straight after IHDR
+        so readers can find it without scanning past the image data
+     */
+    public void saveToFile(File file, byte[] metadata) throws IOException, SecurityException {
+        savePng(getPackedImage(), file, metadata);
+    }
+
+    /*
+    writes any image as a PNG, with the metadata chunk when metadata isn't null
+     */
+    public static void savePng(BufferedImage image, File file, byte[] metadata) throws IOException, SecurityException {
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
             file.getParentFile().mkdirs();
         }
-        ImageIO.write(output, "png", file);
+        GeneratorEvents.FileWrite event = new GeneratorEvents.FileWrite();
+        event.begin();
+        File temporary = AtomicFile.temporary(file);
+        if (metadata == null) {
+            ImageIO.write(image, "png", temporary);
+            AtomicFile.commit(temporary, file);
+            GeneratorEvents.fileWritten(event, file, image.getWidth(), image.getHeight());
+            return;
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream(image.getWidth() * image.getHeight() / 2 + metadata.length + 1024);
+        ImageIO.write(image, "png", png);
+        byte[] bytes = png.toByteArray();
+        //signature, then IHDR is always the first chunk: length, type, 13 bytes of data and the CRC
+        int ihdrEnd = PNG_SIGNATURE.length + 4 + 4 + 13 + 4;
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.write(bytes, 0, ihdrEnd);
+            byte[] type = METADATA_CHUNK_TYPE.getBytes(StandardCharsets.US_ASCII);
+            CRC32 crc = new CRC32();
+            crc.update(type);
+            crc.update(metadata);
+            out.writeInt(metadata.length);
+            out.write(type);
+            out.write(metadata);
+            out.writeInt((int) crc.getValue());
+            out.write(bytes, ihdrEnd, bytes.length - ihdrEnd);
+        } finally {
+            out.close();
+        }
+        AtomicFile.commit(temporary, file);
+        GeneratorEvents.fileWritten(event, file, image.getWidth(), image.getHeight());
     }
 
     public void expand(int newWidth, int newHeight) {
-        WritableRaster newRaster = output.getRaster().createCompatibleWritableRaster(newWidth, newHeight);
-        BufferedImage newImage = new BufferedImage(output.getColorModel(), newRaster, output.getColorModel().isAlphaPremultiplied(), null);
-        newImage.getGraphics().drawImage(output, 0, 0, null);
-        newImage.flush();
-        output.flush();
-        output = newImage;
-        skyline.expand(newWidth, newHeight);
+        resize("expand", newWidth, newHeight);
     }
 
     public void shrink(int newWidth, int newHeight) {
-        WritableRaster newRaster = output.getRaster().createCompatibleWritableRaster(newWidth, newHeight);
-        BufferedImage newImage = new BufferedImage(output.getColorModel(), newRaster, output.getColorModel().isAlphaPremultiplied(), null);
-        newImage.getGraphics().drawImage(output, 0, 0, null);
-        newImage.flush();
-        output.flush();
-        output = newImage;
-        skyline.shrink(newWidth, newHeight);
+        resize("shrink", newWidth, newHeight);
+    }
+
+    /*
+    resizes the packer and moves the pixels over to an image of the new size, reported as an AtlasResize event
+     */
+    private void resize(String operation, int newWidth, int newHeight) {
+        GeneratorEvents.AtlasResize event = new GeneratorEvents.AtlasResize();
+        event.begin();
+        int oldWidth = getWidth();
+        int oldHeight = getHeight();
+        if (operation.equals("expand")) {
+            skyline.expand(newWidth, newHeight);
+        } else {
+            skyline.shrink(newWidth, newHeight);
+        }
+        long copied = 0;
+        if (output != null) {
+            copied = (long) Math.min(oldWidth, newWidth) * Math.min(oldHeight, newHeight) * output.getRaster().getNumBands();
+            WritableRaster newRaster = output.getRaster().createCompatibleWritableRaster(newWidth, newHeight);
+            BufferedImage newImage = new BufferedImage(output.getColorModel(), newRaster, output.getColorModel().isAlphaPremultiplied(), null);
+            newImage.getGraphics().drawImage(output, 0, 0, null);
+            newImage.flush();
+            output.flush();
+            output = newImage;
+        }
+        if (operation.equals("expand")) {
+            expandCount++;
+        }
+        bytesCopied += copied;
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.oldWidth = oldWidth;
+            event.oldHeight = oldHeight;
+            event.width = newWidth;
+            event.height = newHeight;
+            //planning renderers have no pixels to copy
+            event.bytesCopied = copied;
+            event.commit();
+        }
+    }
+
+    /*
+    snaps glyph placement to blockSize x blockSize cells so no glyph shares a compression block with another
+     */
+    public void setBlockAlignment(int blockSize) {
+        skyline.setAlignment(blockSize);
+    }
+
+    /*
+    writes the atlas as a BC4 compressed DDS texture
+     */
+    public void saveCompressed(File file) throws IOException {
+        byte[] blocks = BC4Encoder.encode(pixels(), output.getWidth(), output.getHeight());
+        BC4Encoder.saveDds(file, blocks, output.getWidth(), output.getHeight());
+    }
+
+    public BufferedImage getImage() {
+        return output;
     }
 
     public int getWidth() {
-        return output.getWidth();
+        return skyline.getWidth();
     }
 
     public int getHeight() {
-        return output.getHeight();
+        return skyline.getHeight();
+    }
+
+    public List<Rectangle> getSkyline() {
+        return skyline.getSkyline();
+    }
+
+    /*
+    the area under the skyline, the placed glyphs plus any gaps trapped beneath them
+     */
+    public long filledArea() {
+        return skyline.filledArea();
+    }
+
+    public int getExpandCount() {
+        return expandCount;
+    }
+
+    /*
+    pixel bytes moved by every expand() and shrink() so far
+     */
+    public long getBytesCopied() {
+        return bytesCopied;
     }
 
     public Point trimmedSize() {
         return skyline.boundingBox();
     }
 
+    //each usable stripe starts with its skyline height so the decoder knows where the full byte area begins
+    public static final int STRIPE_HEADER_BYTES = 2;
+
+    /*
+    a stripe can carry data if it is at least two columns wide (the decoder needs a zero before the end marker)
+        and has room below the skyline for the stripe header
+     */
+    private static boolean stripeUsable(int stripeWidth, int skyline) {
+        return stripeWidth >= 2 && (skyline - 1) * stripeWidth >= STRIPE_HEADER_BYTES * 8;
+    }
+
     /*
     returns the size in bytes of encoding area available
      */
@@ -73,113 +352,204 @@ public class BitmapRenderer {
         return bytesAvailbleForEncoding(output.getWidth(), output.getHeight());
     }
     public int bytesAvailbleForEncoding(int width, int height) {
-        int skylineFilledPixels = skyline.filledArea();
-        return (width * height - skylineFilledPixels) + (int)Math.floor(skylineFilledPixels / 8);
+        int bytes = 0;
+        for (Rectangle r : skyline.getSkyline()) {
+            int stripeWidth = Math.min(r.width, width - r.x);
+            if (stripeWidth <= 0) {
+                break;
+            }
+            if (stripeUsable(stripeWidth, r.y)) {
+                bytes += ((r.y - 1) * stripeWidth - STRIPE_HEADER_BYTES * 8) / 8;
+                bytes += (height - r.y) * stripeWidth;
+            }
+        }
+        //the payload length is stored up front
+        return Math.max(bytes - 4, 0);
+    }
+
+    //LSB of every byte in a word
+    static final long LSB_MASK = 0x0101010101010101L;
+    //SPREAD[b] puts bit i of b into the LSB of byte i of a word, counting from the low end
+    private static final long[] SPREAD = new long[256];
+    static {
+        for (int b = 0; b < 256; b++) {
+            long word = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                word |= (long) ((b >> bit) & 1) << (bit * 8);
+            }
+            SPREAD[b] = word;
+        }
+    }
+
+    /*
+    spreads a byte across the LSBs of eight pixels read as a big-endian word, most significant bit first
+     */
+    static long spreadBits(int b) {
+        return SPREAD[b & 0xFF];
+    }
+
+    /*
+    the reverse of spreadBits() - collects the LSBs of eight pixels back into a byte
+     */
+    static int gatherBits(long word) {
+        return (int) (((word & LSB_MASK) * 0x0102040810204080L) >>> 56);
+    }
+
+    /*
+    the atlas samples, one byte per pixel with no row padding (TYPE_BYTE_GRAY)
+     */
+    private byte[] pixels() {
+        return ((DataBufferByte) output.getRaster().getDataBuffer()).getData();
     }
 
     /*
     encodes one byte for each pixel into the area given (x,y,width,height)
 
-    starts at offset and writes count bytes
+    starts at offset and writes count bytes, copying a row of the area at a time
 
     returns the number of bytes encoded
      */
-    private int encodeBytes(int areaX, int areaY, int width, int height, int offset, int count, byte[] bytes) {
-        WritableRaster raster = output.getRaster();
-        int bytesWritten = 0;
-        int areaSize = width*height;
-        for (int i = 0; i < count && i < areaSize; i++, bytesWritten++) {
-            byte b = bytes[offset + i];
-            int y = areaY + (int) Math.floor(i / width);
-            int x = areaX + (i % width);
-            raster.setSample(x, y, 0, b);
-            bytesWritten++;
+    private int encodeBytes(byte[] pixels, int areaX, int areaY, int width, int height, int offset, int count, byte[] bytes) {
+        int imageWidth = output.getWidth();
+        count = Math.min(count, width * height);
+        for (int written = 0, row = areaY; written < count; row++) {
+            int length = Math.min(width, count - written);
+            System.arraycopy(bytes, offset + written, pixels, row * imageWidth + areaX, length);
+            written += length;
         }
-        return bytesWritten;
+        return count;
     }
 
     /*
     encodes one bit for each pixel using the LSB into the area given (x,y,width,height)
 
-    starts at offset and writes count bytes
+    starts writing at pixel number firstPixel of the area, taking count bytes from offset
     since we're only writing one bit per pixel, this requires an area of count*8 pixels
+    whenever the eight pixels for a byte sit on one row they are updated as a single word
 
     returns the number of bytes (NOT BITS) encoded
      */
-    private int encodeBits(int areaX, int areaY, int width, int height, int offset, int count, byte[] bytes) {
-        WritableRaster raster = output.getRaster();
-        int bytesWritten = 0;
-        int areaSize = width*height;
-        for (int i = 0; i < count && i < areaSize; i++, bytesWritten++) {
-            byte b = bytes[offset+i];
-            for (int bitIndex = 7; bitIndex >= 0; bitIndex--) {
-                int bitMask = (int) Math.pow(2, bitIndex);
-                int bitSet = (b & bitMask) > 0 ? 1 : 0;
-                int pixelNumber = i * 8 + (7 - bitIndex);
-                int y = areaY + (int) Math.floor(pixelNumber / width);
-                int x = areaX + (pixelNumber % width);
-                int sample = raster.getSample(x, y, 0);
-                sample = (sample & Integer.MAX_VALUE - 1) | bitSet;
-                raster.setSample(x, y, 0, sample);
+    private int encodeBits(ByteBuffer words, int areaX, int areaY, int width, int height, int firstPixel, int offset, int count, byte[] bytes) {
+        int imageWidth = output.getWidth();
+        count = Math.min(count, (width * height - firstPixel) / 8);
+        int column = firstPixel % width;
+        int index = (areaY + firstPixel / width) * imageWidth + areaX + column;
+        for (int i = 0; i < count; i++) {
+            int b = bytes[offset + i];
+            if (column + 8 <= width) {
+                long word = words.getLong(index);
+                words.putLong(index, (word & ~LSB_MASK) | spreadBits(b));
+                column += 8;
+                index += 8;
+                if (column == width) {
+                    column = 0;
+                    index += imageWidth - width;
+                }
+            } else {
+                //this byte wraps onto the next row of the area
+                for (int bitIndex = 7; bitIndex >= 0; bitIndex--) {
+                    byte sample = words.get(index);
+                    words.put(index, (byte) ((sample & ~1) | ((b >> bitIndex) & 1)));
+                    if (++column == width) {
+                        column = 0;
+                        index += imageWidth - width + 1;
+                    } else {
+                        index++;
+                    }
+                }
             }
         }
-        return bytesWritten;
+        return count;
     }
 
     /*
-    encodes each byte using the LSB of pixels below the skyline
-        then uses the area above the skyline
+    encodes the bytes using the LSB of pixels below the skyline, then uses the area above the skyline
+
+    layout:
+        row 0 - the LSB of each column marks skyline stripes, a one ends a stripe
+            a one with no zeroes before it marks a column that doesn't carry data
+        for each stripe that carries data, left to right:
+            the LSBs of rows 1 up to the skyline, row-major within the stripe
+                16 bits - skyline height of this stripe
+                then as many whole bytes as fit
+            every pixel from the skyline to the bottom of the image, row-major within the stripe, one byte each
+        the stream that runs through the stripes is a 4 byte length followed by the bytes themselves
+
+    works directly on the atlas bytes rather than going through the raster a sample at a time
 
     returns the number of bytes encoded -- see bytesAvailableForEncoding()
      */
     public int encode(byte[] bytes) {
         int bytesEncoded = 0;
         if (bytes.length > 0) {
+            byte[] stream = new byte[bytes.length + 4];
+            ByteBuffer.wrap(stream).putInt(bytes.length);
+            System.arraycopy(bytes, 0, stream, 4, bytes.length);
+
+            int width = output.getWidth();
+            int height = output.getHeight();
+            byte[] pixels = pixels();
+            ByteBuffer words = ByteBuffer.wrap(pixels);
             //these are the skyline stripes - height corresponds to area not filled by the skyline
             List<Rectangle> stripes = skyline.getSkyline();
-            //encode stripe information in the first row for the decoder
-            //  a one indicates the end of a stripe
-            byte[] stripeInformation = new byte[output.getWidth()];
+            //stripe information goes in the first row for the decoder
             for (Rectangle r : stripes) {
-                //we have to encode skyline boundary, so make sure this stripe has at least 16 bits of info
-                //otherwise we need to skip it
-                if (r.width*(r.y-1) < 16) {
-                    //fill with ones, the decoder will skip across 0-width stripes
-                    Arrays.fill(stripeInformation, r.x, r.x + r.width - 1, (byte) 1);
+                if (r.x + r.width > width) {
+                    break;
+                }
+                if (stripeUsable(r.width, r.y)) {
+                    //zeroes across the stripe and a one on the end
+                    for (int x = r.x; x < r.x + r.width - 1; x++) {
+                        pixels[x] &= ~1;
+                    }
+                    pixels[r.x + r.width - 1] |= 1;
                 } else {
-                    //fill the length of the stripe with zeroes...
-                    Arrays.fill(stripeInformation, r.x, r.x + r.width - 2, (byte) 0);
-                    //...and a one on the end...
-                    stripeInformation[r.x + r.width - 1] = 1;
+                    //fill with ones, the decoder will skip across 0-width stripes
+                    for (int x = r.x; x < r.x + r.width; x++) {
+                        pixels[x] |= 1;
+                    }
                 }
             }
-            //...and throw that info into the image
-            encodeBits(0, 0, output.getWidth(), 1, 0, stripeInformation.length, stripeInformation);
+
+            int streamEncoded = 0;
+            byte[] header = new byte[STRIPE_HEADER_BYTES];
             for (Rectangle r : stripes) {
-                //below skyline
-                int bytesBelowSkyline = (int) Math.floor(r.y * r.width / 8);
-                int bytesToEncode = Math.min(bytes.length - bytesEncoded, bytesBelowSkyline);
-                if (bytesToEncode <= 0) {
+                if (streamEncoded >= stream.length || r.x + r.width > width) {
                     break;
                 }
-                //the y value is a one because we don't want to stomp on the strip info
-                encodeBits(r.x, 1, r.width, r.y, bytesEncoded, bytesToEncode, bytes);
-                bytesEncoded += bytesToEncode;
-                //above skyline
-                int bytesAboveSkyline = r.height * r.width;
-                bytesToEncode = Math.min(bytes.length - bytesEncoded, bytesAboveSkyline);
-                if (bytesToEncode <= 0) {
-                    break;
+                if (!stripeUsable(r.width, r.y)) {
+                    continue;
                 }
-                encodeBytes(r.x, r.y, r.width, r.height, bytesEncoded, bytesToEncode, bytes);
-                bytesEncoded += bytesToEncode;
+                //below skyline - the y value is a one because we don't want to stomp on the stripe info
+                header[0] = (byte) (r.y >> 8);
+                header[1] = (byte) r.y;
+                encodeBits(words, r.x, 1, r.width, r.y - 1, 0, 0, header.length, header);
+                int bytesBelowSkyline = ((r.y - 1) * r.width - STRIPE_HEADER_BYTES * 8) / 8;
+                int bytesToEncode = Math.min(stream.length - streamEncoded, bytesBelowSkyline);
+                streamEncoded += encodeBits(words, r.x, 1, r.width, r.y - 1, STRIPE_HEADER_BYTES * 8, streamEncoded, bytesToEncode, stream);
+                //above skyline
+                int bytesAboveSkyline = (height - r.y) * r.width;
+                bytesToEncode = Math.min(stream.length - streamEncoded, bytesAboveSkyline);
+                streamEncoded += encodeBytes(pixels, r.x, r.y, r.width, height - r.y, streamEncoded, bytesToEncode, stream);
             }
+            bytesEncoded = Math.max(streamEncoded - 4, 0);
         }
         return bytesEncoded;
     }
 
     public BitmapRenderer(int width, int height) {
-        output = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+        this(width, height, true);
+    }
+
+    /*
+    without pixels only the layout is tracked - glyphs are placed with reserve() and nothing can be drawn or saved
+     */
+    public BitmapRenderer(int width, int height, boolean allocatePixels) {
+        output = allocatePixels ? new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY) : null;
         skyline = new SkylineBottomLeft(width, height);
+        bitDepth = 8;
+        dither = false;
+        expandCount = 0;
+        bytesCopied = 0;
     }
 }
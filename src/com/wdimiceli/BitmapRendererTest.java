@@ -0,0 +1,203 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BitmapRendererTest {
+
+    private static BitmapRenderer packRandomGlyphs(Random random, int count) {
+        BitmapRenderer renderer = new BitmapRenderer(200, 300);
+        for (int i = 0; i < count; i++) {
+            //narrow glyphs make stripes that aren't a multiple of eight wide
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 1 + random.nextInt(19), 3 + random.nextInt(30), 1, new Point(0, 0));
+            for (int y = 0; y < glyph.getHeight(); y++) {
+                for (int x = 0; x < glyph.getWidth(); x++) {
+                    glyph.setSample(x, y, 0, random.nextInt(256));
+                }
+            }
+            assertNotNull(renderer.putRaster(glyph));
+        }
+        return renderer;
+    }
+
+    @Test
+    public void testEmbeddingRoundTrip() throws Exception {
+        Random random = new Random(7);
+        for (int run = 0; run < 20; run++) {
+            BitmapRenderer renderer = packRandomGlyphs(random, 30 + run * 5);
+            Point trimmed = renderer.trimmedSize();
+            renderer.shrink(trimmed.x, trimmed.y + run);
+            byte[] before = ((DataBufferByte) renderer.getImage().getRaster().getDataBuffer()).getData().clone();
+
+            //fill to capacity so every stripe and both areas get used
+            byte[] bytes = new byte[renderer.bytesAvailbleForEncoding()];
+            random.nextBytes(bytes);
+            assertEquals(bytes.length, renderer.encode(bytes));
+            assertArrayEquals(bytes, TypefaceMetricsReader.extractEmbedded(renderer.getImage()));
+
+            //pixels under the skyline may only lose their LSB
+            byte[] after = ((DataBufferByte) renderer.getImage().getRaster().getDataBuffer()).getData();
+            int width = renderer.getWidth();
+            for (Rectangle r : renderer.getSkyline()) {
+                for (int y = 0; y < r.y; y++) {
+                    for (int x = r.x; x < r.x + r.width; x++) {
+                        assertEquals((before[y * width + x] & 0xFE), (after[y * width + x] & 0xFE));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBitSpreading() throws Exception {
+        for (int b = 0; b < 256; b++) {
+            assertEquals(b, BitmapRenderer.gatherBits(BitmapRenderer.spreadBits(b) | 0xFEFEFEFEFEFEFEFEL));
+        }
+    }
+
+    @Test
+    public void testPackedBitDepth() throws Exception {
+        BitmapRenderer renderer = new BitmapRenderer(16, 8);
+        WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 13, 4, 1, new Point(0, 0));
+        for (int x = 0; x < 13; x++) {
+            glyph.setSample(x, 0, 0, x * 20);
+            glyph.setSample(x, 1, 0, 255);
+        }
+        assertNotNull(renderer.putRaster(glyph));
+
+        renderer.setBitDepth(4, false);
+        Raster packed = renderer.getPackedImage().getRaster();
+        assertEquals(16, packed.getWidth());
+        for (int x = 0; x < 13; x++) {
+            assertEquals((x * 20 * 15 + 127) / 255, packed.getSample(x, 0, 0));
+            assertEquals(15, packed.getSample(x, 1, 0));
+            assertEquals(0, packed.getSample(x, 2, 0));
+        }
+
+        renderer.setBitDepth(1, true);
+        packed = renderer.getPackedImage().getRaster();
+        assertEquals(1, packed.getSample(12, 1, 0));
+        assertEquals(0, packed.getSample(0, 0, 0));
+        //a mid gray row dithers to roughly half the pixels lit
+        int lit = 0;
+        for (int x = 0; x < 13; x++) {
+            lit += packed.getSample(x, 0, 0);
+        }
+        assertTrue(lit >= 5 && lit <= 8);
+    }
+
+    @Test
+    public void testMergeChannels() throws Exception {
+        List<BitmapRenderer> channels = new ArrayList<BitmapRenderer>();
+        for (int c = 0; c < 4; c++) {
+            BitmapRenderer renderer = new BitmapRenderer(8, 8);
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 2, 2, 1, new Point(0, 0));
+            glyph.setSample(0, 0, 0, 10 + c);
+            assertNotNull(renderer.putRaster(glyph));
+            channels.add(renderer);
+        }
+        Raster merged = BitmapRenderer.mergeChannels(channels).getRaster();
+        for (int c = 0; c < 4; c++) {
+            assertEquals(10 + c, merged.getSample(0, 0, c));
+            assertEquals(0, merged.getSample(1, 0, c));
+        }
+    }
+
+    @Test
+    public void testBlockAlignment() throws Exception {
+        BitmapRenderer renderer = new BitmapRenderer(64, 64);
+        renderer.setBlockAlignment(4);
+        Random random = new Random(5);
+        for (int i = 0; i < 30; i++) {
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 1 + random.nextInt(9), 1 + random.nextInt(9), 1, new Point(0, 0));
+            Point p = renderer.putRaster(glyph);
+            assertNotNull(p);
+            assertEquals(0, p.x % 4);
+            assertEquals(0, p.y % 4);
+        }
+        //an odd expansion leaves a node off the grid, nothing should be placed there
+        renderer.expand(71, 80);
+        for (int i = 0; i < 30; i++) {
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 3, 5, 1, new Point(0, 0));
+            Point p = renderer.putRaster(glyph);
+            if (p != null) {
+                assertEquals(0, p.x % 4);
+                assertEquals(0, p.y % 4);
+            }
+        }
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+        BitmapRenderer renderer = new BitmapRenderer(20, 40);
+        //too wide to stand upright, so it has to go on its side
+        WritableRaster dash = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 30, 2, 1, new Point(0, 0));
+        for (int x = 0; x < 30; x++) {
+            dash.setSample(x, 0, 0, x);
+            dash.setSample(x, 1, 0, 100 + x);
+        }
+        Rectangle area = renderer.putRasterRotatable(dash);
+        assertEquals(new Rectangle(0, 0, 2, 30), area);
+        Raster atlas = renderer.getImage().getRaster();
+        for (int x = 0; x < 30; x++) {
+            assertEquals(x, atlas.getSample(0, x, 0));
+            assertEquals(100 + x, atlas.getSample(1, x, 0));
+        }
+        //a bar that ends lower upright stays upright
+        Rectangle bar = renderer.putRasterRotatable(Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 10, 3, 1, new Point(0, 0)));
+        assertEquals(new Rectangle(2, 0, 10, 3), bar);
+    }
+
+    @Test
+    public void testRotatedPackingDoesNotOverlap() throws Exception {
+        BitmapRenderer renderer = new BitmapRenderer(128, 128);
+        boolean[] used = new boolean[128 * 128];
+        Random random = new Random(9);
+        int rotated = 0;
+        for (int i = 0; i < 200; i++) {
+            int width = random.nextBoolean() ? 1 + random.nextInt(4) : 8 + random.nextInt(16);
+            int height = random.nextBoolean() ? 1 + random.nextInt(4) : 8 + random.nextInt(16);
+            Rectangle area = renderer.reserveRotatable(width, height);
+            if (area == null) {
+                continue;
+            }
+            if (area.width != width) {
+                rotated++;
+                assertEquals(width, area.height);
+            }
+            assertTrue(area.x + area.width <= 128 && area.y + area.height <= 128);
+            for (int y = area.y; y < area.y + area.height; y++) {
+                for (int x = area.x; x < area.x + area.width; x++) {
+                    assertFalse(used[y * 128 + x]);
+                    used[y * 128 + x] = true;
+                }
+            }
+        }
+        assertTrue(rotated > 0);
+    }
+
+    @Test
+    public void testSavePngWithoutDirectory() throws Exception {
+        //out=plain.png has no parent directory to create
+        File file = new File("testOutputNoDirectory.png");
+        try {
+            BitmapRenderer.savePng(new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_GRAY), file, null);
+            assertTrue(file.exists());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.wdimiceli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Builds a character set from the strings an application actually ships, instead of a whole charset.
+ *
+ * Every text, JSON and PO file under a directory is memory mapped and cut into chunks on UTF-8
+ * sequence boundaries. The chunks are decoded in parallel and each code point seen is set in a
+ * bitset, so a CJK localization comes out at the few thousand characters it uses.
+ *
+ * Files are read as UTF-8 and taken literally, so the characters of the file syntax (quotes,
+ * braces, msgid) are included and characters escaped in JSON strings are not decoded.
+ */
+public class CorpusCharset {
+    public static final String[] EXTENSIONS = {".txt", ".json", ".po", ".pot"};
+    public static final int CHUNK_BYTES = 1024*1024;
+
+    private static boolean isCorpusFile(Path path) {
+        String name = path.getFileName().toString().toLowerCase();
+        for (String extension : EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    the characters that need a glyph - controls, whitespace, the byte order mark and the decoder's replacement character don't
+     */
+    private static boolean needsGlyph(int codePoint) {
+        return !Character.isISOControl(codePoint) && !Character.isWhitespace(codePoint)
+                && codePoint != 0xFEFF && codePoint != 0xFFFD;
+    }
+
+    /*
+    cuts the buffer into pieces of about chunkBytes, never inside a UTF-8 sequence
+     */
+    static List<ByteBuffer> split(ByteBuffer buffer, int chunkBytes) {
+        ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+        int start = 0;
+        int limit = buffer.limit();
+        while (start < limit) {
+            int end = Math.min(start + chunkBytes, limit);
+            //continuation bytes look like 10xxxxxx, move on to the start of the next sequence
+            while (end < limit && (buffer.get(end) & 0xC0) == 0x80) {
+                end++;
+            }
+            ByteBuffer chunk = buffer.duplicate();
+            chunk.position(start);
+            chunk.limit(end);
+            chunks.add(chunk.slice());
+            start = end;
+        }
+        return chunks;
+    }
+
+    /*
+    decodes one chunk and sets the bit of every code point in it that needs a glyph
+     */
+    private static void decode(BitSet codePoints, ByteBuffer chunk) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars;
+        try {
+            chars = decoder.decode(chunk);
+        } catch (CharacterCodingException e) {
+            throw new UncheckedIOException(e);
+        }
+        for (int i = 0; i < chars.length(); ) {
+            int codePoint = Character.codePointAt(chars, i);
+            i += Character.charCount(codePoint);
+            if (needsGlyph(codePoint)) {
+                codePoints.set(codePoint);
+            }
+        }
+    }
+
+    /*
+    maps the file, the mapping stays valid once the channel is closed
+     */
+    private static ByteBuffer map(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Corpus file is too large to map: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    public static BitSet scan(File directory) throws IOException {
+        return scan(directory, CHUNK_BYTES);
+    }
+
+    /*
+    returns every code point used by the corpus files under directory (or the single file given)
+     */
+    static BitSet scan(File directory, int chunkBytes) throws IOException {
+        List<Path> files;
+        Stream<Path> walk = Files.walk(directory.toPath());
+        try {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(path -> directory.isFile() || isCorpusFile(path))
+                    .collect(Collectors.toList());
+        } finally {
+            walk.close();
+        }
+        ArrayList<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+        for (Path file : files) {
+            chunks.addAll(split(map(file), chunkBytes));
+        }
+        try {
+            return chunks.parallelStream().collect(BitSet::new, CorpusCharset::decode, BitSet::or);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+    the characters to render, ascending
+    the generator maps chars, so code points above the Basic Multilingual Plane are left out - see supplementaryCount()
+     */
+    public static String toCharSet(BitSet codePoints) {
+        StringBuilder charSet = new StringBuilder();
+        for (int c = codePoints.nextSetBit(0); c >= 0 && c < Character.MIN_SUPPLEMENTARY_CODE_POINT; c = codePoints.nextSetBit(c + 1)) {
+            charSet.append((char) c);
+        }
+        return charSet.toString();
+    }
+
+    public static int supplementaryCount(BitSet codePoints) {
+        return codePoints.get(Character.MIN_SUPPLEMENTARY_CODE_POINT, Math.max(codePoints.length(), Character.MIN_SUPPLEMENTARY_CODE_POINT)).cardinality();
+    }
+}
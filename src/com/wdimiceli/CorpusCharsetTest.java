@@ -0,0 +1,64 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CorpusCharsetTest {
+
+    private static void write(File file, String text) throws Exception {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testSplitKeepsSequencesWhole() {
+        byte[] bytes = "a\u00E9\u4E2D\uD83D\uDE00b\u4E2D\u6587".getBytes(StandardCharsets.UTF_8);
+        for (int chunkBytes = 1; chunkBytes < bytes.length + 2; chunkBytes++) {
+            List<ByteBuffer> chunks = CorpusCharset.split(ByteBuffer.wrap(bytes), chunkBytes);
+            int total = 0;
+            for (ByteBuffer chunk : chunks) {
+                assertTrue(chunk.remaining() > 0);
+                assertTrue((chunk.get(0) & 0xC0) != 0x80);
+                total += chunk.remaining();
+            }
+            assertEquals(bytes.length, total);
+        }
+    }
+
+    @Test
+    public void testScan() throws Exception {
+        File directory = Files.createTempDirectory("corpus").toFile();
+        write(new File(directory, "en.json"), "{\"ok\":\"OK\"}\n");
+        write(new File(directory, "zh/messages.po"), "msgid \"ok\"\nmsgstr \"\u786E\u5B9A\"\n");
+        write(new File(directory, "ja.txt"), "\uFEFF\u78BA\u5B9A\t\uD83D\uDE00");
+        //not a corpus file, left out
+        write(new File(directory, "notes.md"), "\u00DF");
+
+        for (int chunkBytes : new int[] {1, 3, CorpusCharset.CHUNK_BYTES}) {
+            BitSet codePoints = CorpusCharset.scan(directory, chunkBytes);
+            String charSet = CorpusCharset.toCharSet(codePoints);
+            assertTrue(charSet.contains("\u786E"));
+            assertTrue(charSet.contains("\u78BA"));
+            assertTrue(charSet.contains("K"));
+            assertFalse(charSet.contains("\u00DF"));
+            assertFalse(charSet.contains("\uFEFF"));
+            assertFalse(charSet.contains(" "));
+            assertFalse(charSet.contains("\n"));
+            assertEquals(1, CorpusCharset.supplementaryCount(codePoints));
+            //ascending, no repeats
+            for (int i = 1; i < charSet.length(); i++) {
+                assertTrue(charSet.charAt(i - 1) < charSet.charAt(i));
+            }
+        }
+        //a single file is scanned whatever its extension
+        assertEquals("\u00DF", CorpusCharset.toCharSet(CorpusCharset.scan(new File(directory, "notes.md"))));
+    }
+}
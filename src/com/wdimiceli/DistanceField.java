@@ -0,0 +1,136 @@
+package com.wdimiceli;
+
+import java.awt.Point;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.stream.IntStream;
+
+/**
+ * Turns a high resolution coverage raster into a signed distance field.
+ *
+ * Uses the exact Euclidean distance transform from Felzenszwalb and Huttenlocher,
+ * "Distance Transforms of Sampled Functions" - a 1D lower envelope of parabolas run
+ * over every column and then every row, so each pass is split across threads by line.
+ */
+public class DistanceField {
+    private static final double INF = 1e20;
+    //coverage at or above this is treated as inside the glyph
+    private static final int THRESHOLD = 128;
+
+    /*
+    1D squared distance transform over n samples of the grid starting at offset with the given stride
+    v, z and d are scratch space of at least n, n+1 and n entries
+     */
+    private static void transform(double[] grid, int offset, int stride, int n, int[] v, double[] z, double[] d) {
+        int k = 0;
+        v[0] = 0;
+        z[0] = -INF;
+        z[1] = INF;
+        for (int q = 1; q < n; q++) {
+            double fq = grid[offset + q * stride] + (double) q * q;
+            int p = v[k];
+            double s = (fq - (grid[offset + p * stride] + (double) p * p)) / (2.0 * (q - p));
+            //z[0] is -INF so this always stops at the first parabola
+            while (s <= z[k]) {
+                k--;
+                p = v[k];
+                s = (fq - (grid[offset + p * stride] + (double) p * p)) / (2.0 * (q - p));
+            }
+            k++;
+            v[k] = q;
+            z[k] = s;
+            z[k + 1] = INF;
+        }
+        k = 0;
+        for (int q = 0; q < n; q++) {
+            while (z[k + 1] < q) {
+                k++;
+            }
+            int p = v[k];
+            d[q] = (double) (q - p) * (q - p) + grid[offset + p * stride];
+        }
+        for (int q = 0; q < n; q++) {
+            grid[offset + q * stride] = d[q];
+        }
+    }
+
+    /*
+    squared distance from every sample to the nearest zero sample, in place
+     */
+    private static void transform2D(final double[] grid, final int width, final int height) {
+        //columns first...
+        IntStream.range(0, width).parallel().forEach(x -> {
+            transform(grid, x, width, height, new int[height], new double[height + 1], new double[height]);
+        });
+        //...then rows over the column results
+        IntStream.range(0, height).parallel().forEach(y -> {
+            transform(grid, y * width, 1, width, new int[width], new double[width + 1], new double[width]);
+        });
+    }
+
+    /*
+    returns the width or height of the field built from coverage of this length
+     */
+    public static int outputLength(int coverageLength, int scale, int spread) {
+        //pad to whole output pixels
+        return (coverageLength + 2 * spread * scale + scale - 1) / scale;
+    }
+
+    /*
+    builds the distance field for one glyph
+
+    coverage - the glyph rendered scale times larger than the output
+    spread - distance in output pixels covered by the field on either side of the outline,
+        this is also the padding added around the glyph
+    returns a raster scale times smaller (plus padding) where 128 sits on the outline,
+        higher values are inside and lower values outside
+     */
+    public static Raster generate(Raster coverage, int scale, int spread) {
+        final int padding = spread * scale;
+        final int outWidth = outputLength(coverage.getWidth(), scale, spread);
+        final int outHeight = outputLength(coverage.getHeight(), scale, spread);
+        final int width = outWidth * scale;
+        final int height = outHeight * scale;
+
+        int[] samples = coverage.getSamples(coverage.getMinX(), coverage.getMinY(), coverage.getWidth(), coverage.getHeight(), 0, (int[]) null);
+        final boolean[] inside = new boolean[width * height];
+        for (int y = 0; y < coverage.getHeight(); y++) {
+            int row = (y + padding) * width + padding;
+            for (int x = 0; x < coverage.getWidth(); x++) {
+                inside[row + x] = samples[y * coverage.getWidth() + x] >= THRESHOLD;
+            }
+        }
+
+        //distance to the nearest inside pixel, and to the nearest outside pixel
+        final double[] toInside = new double[width * height];
+        final double[] toOutside = new double[width * height];
+        for (int i = 0; i < inside.length; i++) {
+            toInside[i] = inside[i] ? 0 : INF;
+            toOutside[i] = inside[i] ? INF : 0;
+        }
+        transform2D(toInside, width, height);
+        transform2D(toOutside, width, height);
+
+        //average the signed distance over each output pixel's block and map it into a byte
+        final byte[] field = new byte[outWidth * outHeight];
+        final double unit = 127.0 / (spread * scale);
+        IntStream.range(0, outHeight).parallel().forEach(outY -> {
+            for (int outX = 0; outX < outWidth; outX++) {
+                double sum = 0;
+                for (int y = outY * scale; y < (outY + 1) * scale; y++) {
+                    for (int x = outX * scale, i = y * width + x; x < (outX + 1) * scale; x++, i++) {
+                        //half a pixel puts the zero crossing on the boundary between inside and outside pixels
+                        sum += inside[i] ? Math.sqrt(toOutside[i]) - 0.5 : 0.5 - Math.sqrt(toInside[i]);
+                    }
+                }
+                double distance = sum / (scale * scale);
+                field[outY * outWidth + outX] = (byte) Math.max(0, Math.min(255, Math.round(128 + distance * unit)));
+            }
+        });
+        SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_BYTE, outWidth, outHeight, 1, outWidth, new int[]{0});
+        return Raster.createRaster(sampleModel, new DataBufferByte(field, field.length), new Point(0, 0));
+    }
+}
@@ -0,0 +1,37 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import static org.junit.Assert.*;
+
+public class DistanceFieldTest {
+
+    @Test
+    public void testSquare() throws Exception {
+        //a 32x32 square rendered at 4x, so 8x8 output pixels
+        WritableRaster coverage = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 32, 32, 1, new Point(0, 0));
+        for (int y = 0; y < 32; y++) {
+            for (int x = 0; x < 32; x++) {
+                coverage.setSample(x, y, 0, 255);
+            }
+        }
+        Raster field = DistanceField.generate(coverage, 4, 3);
+        //padded by the spread on every side
+        assertEquals(14, field.getWidth());
+        assertEquals(14, field.getHeight());
+        assertEquals(14, DistanceField.outputLength(32, 4, 3));
+        //centre is deep inside, corners are beyond the spread
+        assertEquals(255, field.getSample(7, 7, 0));
+        assertEquals(0, field.getSample(0, 0, 0));
+        //the pixels either side of the edge straddle the midpoint
+        assertTrue(field.getSample(3, 7, 0) > 128);
+        assertTrue(field.getSample(2, 7, 0) < 128);
+        //one output pixel outside the edge is a third of the way down the outside range
+        assertEquals(128 - 127 / 3 / 2, field.getSample(2, 7, 0), 2);
+    }
+}
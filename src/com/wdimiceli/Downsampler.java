@@ -0,0 +1,101 @@
+package com.wdimiceli;
+
+import java.awt.Point;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+
+/**
+ * Shrinks grayscale glyph rasters by area averaging.
+ *
+ * Every output pixel is the coverage-weighted mean of the source pixels under its footprint,
+ * done as a horizontal pass followed by a vertical pass since the box filter is separable.
+ */
+public class Downsampler {
+    /*
+    the footprint of each output pixel along one axis
+    output pixel i reads source pixels [first[i], first[i] + count[i]) with weights[i][...]
+     */
+    private static class Footprints {
+        public final int[] first;
+        public final int[] count;
+        public final float[][] weights;
+
+        /*
+        output pixel i covers source coordinates [offset + i/scale, offset + (i+1)/scale)
+        source pixels outside [0, sourceLength) are empty
+         */
+        public Footprints(int sourceLength, int outputLength, double scale, double offset) {
+            first = new int[outputLength];
+            count = new int[outputLength];
+            weights = new float[outputLength][];
+            for (int i = 0; i < outputLength; i++) {
+                double from = offset + i / scale;
+                double to = offset + (i + 1) / scale;
+                int start = Math.max(0, (int) Math.floor(from));
+                int end = Math.min(sourceLength, (int) Math.ceil(to));
+                first[i] = start;
+                count[i] = Math.max(0, end - start);
+                weights[i] = new float[count[i]];
+                for (int k = 0; k < count[i]; k++) {
+                    double overlap = Math.min(to, start + k + 1) - Math.max(from, start + k);
+                    weights[i][k] = (float) (overlap * scale);
+                }
+            }
+        }
+    }
+
+    /*
+    returns the number of output pixels needed to cover a source length once shifted by offset
+     */
+    public static int outputLength(int sourceLength, double scale, double offset) {
+        return Math.max(1, (int) Math.ceil((sourceLength - offset) * scale - 1e-9));
+    }
+
+    /*
+    scale - output size over source size, in (0, 1]
+    offsetY - source row that the top of the output lines up with, usually zero or negative
+        so the baseline can land on a whole output row
+     */
+    public static Raster downsample(Raster source, double scale, double offsetY) {
+        int sourceWidth = source.getWidth();
+        int sourceHeight = source.getHeight();
+        int width = outputLength(sourceWidth, scale, 0);
+        int height = outputLength(sourceHeight, scale, offsetY);
+        Footprints columns = new Footprints(sourceWidth, width, scale, 0);
+        Footprints rows = new Footprints(sourceHeight, height, scale, offsetY);
+
+        int[] samples = source.getSamples(source.getMinX(), source.getMinY(), sourceWidth, sourceHeight, 0, (int[]) null);
+        //horizontal pass, one row of the intermediate per source row
+        float[] horizontal = new float[sourceHeight * width];
+        for (int y = 0; y < sourceHeight; y++) {
+            int sourceRow = y * sourceWidth;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                float sum = 0;
+                float[] weights = columns.weights[x];
+                for (int k = 0, s = sourceRow + columns.first[x]; k < weights.length; k++, s++) {
+                    sum += weights[k] * samples[s];
+                }
+                horizontal[row + x] = sum;
+            }
+        }
+        //vertical pass into bytes
+        byte[] pixels = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            float[] weights = rows.weights[y];
+            int first = rows.first[y];
+            for (int x = 0; x < width; x++) {
+                float sum = 0;
+                for (int k = 0; k < weights.length; k++) {
+                    sum += weights[k] * horizontal[(first + k) * width + x];
+                }
+                pixels[y * width + x] = (byte) Math.min(255, Math.round(sum));
+            }
+        }
+        SampleModel sampleModel = new ComponentSampleModel(DataBuffer.TYPE_BYTE, width, height, 1, width, new int[]{0});
+        return Raster.createRaster(sampleModel, new DataBufferByte(pixels, pixels.length), new Point(0, 0));
+    }
+}
@@ -0,0 +1,63 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+
+import static org.junit.Assert.*;
+
+public class DownsamplerTest {
+
+    private static WritableRaster filled(int width, int height, int value) {
+        WritableRaster raster = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, width, height, 1, new Point(0, 0));
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, value);
+            }
+        }
+        return raster;
+    }
+
+    @Test
+    public void testHalf() throws Exception {
+        WritableRaster source = filled(8, 6, 0);
+        //left half of every 2x2 block is lit
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 8; x += 2) {
+                source.setSample(x, y, 0, 200);
+            }
+        }
+        Raster result = Downsampler.downsample(source, 0.5, 0);
+        assertEquals(4, result.getWidth());
+        assertEquals(3, result.getHeight());
+        for (int y = 0; y < 3; y++) {
+            for (int x = 0; x < 4; x++) {
+                assertEquals(100, result.getSample(x, y, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testFractionalScale() throws Exception {
+        Raster result = Downsampler.downsample(filled(11, 10, 255), 0.3, 0);
+        assertEquals(4, result.getWidth());
+        assertEquals(3, result.getHeight());
+        assertEquals(255, result.getSample(2, 1, 0));
+        //the last column only covers one source pixel of its 3.33
+        assertEquals(77, result.getSample(3, 1, 0));
+    }
+
+    @Test
+    public void testOffset() throws Exception {
+        //shifting up by half an output pixel adds a half covered row on top
+        Raster result = Downsampler.downsample(filled(4, 4, 255), 0.5, -1);
+        assertEquals(2, result.getWidth());
+        assertEquals(3, result.getHeight());
+        assertEquals(128, result.getSample(0, 0, 0));
+        assertEquals(255, result.getSample(0, 1, 0));
+        assertEquals(128, result.getSample(0, 2, 0));
+    }
+}
@@ -0,0 +1,138 @@
+package com.wdimiceli;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.io.File;
+
+/**
+ * Java Flight Recorder events for each phase of a run, all under one category.
+ *
+ * They cost next to nothing unless a recording is running, for a build service start one with
+ *   jcmd <pid> JFR.start name=atlas settings=profile
+ * and dump it with JFR.dump, or run the generator with -XX:StartFlightRecording.
+ */
+public class GeneratorEvents {
+    private static final String CATEGORY = "FreeType Bitmap Generator";
+
+    @Name("com.wdimiceli.FontLoad")
+    @Label("Font Load")
+    @Category(CATEGORY)
+    @Description("FreeType opening the typeface file")
+    public static class FontLoad extends Event {
+        @Label("Path")
+        public String path;
+        @Label("Glyphs In Face")
+        public int glyphCount;
+    }
+
+    @Name("com.wdimiceli.CharsetMap")
+    @Label("Charset Map")
+    @Category(CATEGORY)
+    @Description("Building the character set and looking every character up in the font's cmap")
+    public static class CharsetMap extends Event {
+        @Label("Charset")
+        public String charset;
+        @Label("Characters")
+        public int characters;
+        @Label("Glyphs Found")
+        public int glyphs;
+    }
+
+    @Name("com.wdimiceli.Rasterize")
+    @Label("Rasterize Size")
+    @Category(CATEGORY)
+    @Description("Producing the glyph bitmaps of one pixel size")
+    public static class Rasterize extends Event {
+        @Label("Pixel Size")
+        public int pixelSize;
+        @Label("Method")
+        @Description("render, downsample, master (the full size rendering downsampling starts from) or measure for plans")
+        public String method;
+        @Label("Glyphs")
+        public int glyphs;
+        @Label("Pixels")
+        public long pixels;
+    }
+
+    @Name("com.wdimiceli.Kerning")
+    @Label("Kerning Extraction")
+    @Category(CATEGORY)
+    @Description("Reading the kerning of every glyph pair of one pixel size")
+    public static class Kerning extends Event {
+        @Label("Pixel Size")
+        public int pixelSize;
+        @Label("Pairs Probed")
+        public long pairsProbed;
+        @Label("Pairs Stored")
+        public long pairsStored;
+    }
+
+    @Name("com.wdimiceli.AtlasResize")
+    @Label("Atlas Resize")
+    @Category(CATEGORY)
+    @Description("A packer growing or trimming its canvas, copying the pixels over")
+    public static class AtlasResize extends Event {
+        @Label("Operation")
+        public String operation;
+        @Label("Old Width")
+        public int oldWidth;
+        @Label("Old Height")
+        public int oldHeight;
+        @Label("Width")
+        public int width;
+        @Label("Height")
+        public int height;
+        @Label("Bytes Copied")
+        @DataAmount
+        public long bytesCopied;
+    }
+
+    @Name("com.wdimiceli.MetadataEncode")
+    @Label("Metadata Encode")
+    @Category(CATEGORY)
+    @Description("Encoding the glyph metrics in one of the metadata formats")
+    public static class MetadataEncode extends Event {
+        @Label("Format")
+        public String format;
+        @Label("Glyphs")
+        public int glyphs;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.wdimiceli.FileWrite")
+    @Label("File Write")
+    @Category(CATEGORY)
+    @Description("Writing an atlas page or metadata file, JSON metadata is encoded as it is written")
+    public static class FileWrite extends Event {
+        @Label("Path")
+        public String path;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+        @Label("Width")
+        @Description("Zero for metadata files")
+        public int width;
+        @Label("Height")
+        public int height;
+    }
+
+    /*
+    fills in and commits a FileWrite that was begun before the file was written
+     */
+    public static void fileWritten(FileWrite event, File file, int width, int height) {
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.bytes = file.length();
+            event.width = width;
+            event.height = height;
+            event.commit();
+        }
+    }
+}
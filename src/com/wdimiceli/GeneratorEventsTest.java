@@ -0,0 +1,72 @@
+package com.wdimiceli;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GeneratorEventsTest {
+
+    private static RecordedEvent find(List<RecordedEvent> events, String name) {
+        for (RecordedEvent event : events) {
+            if (event.getEventType().getName().equals(name)) {
+                return event;
+            }
+        }
+        fail("no " + name + " event recorded");
+        return null;
+    }
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        Path dump = Files.createTempFile("events", ".jfr");
+        File png = File.createTempFile("events", ".png");
+        Recording recording = new Recording();
+        for (String name : new String[] {"AtlasResize", "MetadataEncode", "FileWrite"}) {
+            recording.enable("com.wdimiceli." + name).withoutThreshold();
+        }
+        recording.start();
+
+        BitmapRenderer renderer = new BitmapRenderer(16, 8);
+        renderer.expand(32, 24);
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        for (char c = 'a'; c <= 'e'; c++) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+            info.width = 4;
+            info.height = 6;
+            metrics.recordGlyph(12, info);
+        }
+        byte[] binary = metrics.getBinary();
+        renderer.saveToFile(png);
+
+        recording.stop();
+        recording.dump(dump);
+        recording.close();
+        List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+        Files.delete(dump);
+
+        RecordedEvent resize = find(events, "com.wdimiceli.AtlasResize");
+        assertEquals("expand", resize.getString("operation"));
+        assertEquals(16, resize.getInt("oldWidth"));
+        assertEquals(24, resize.getInt("height"));
+        assertEquals(16 * 8, resize.getLong("bytesCopied"));
+
+        RecordedEvent encode = find(events, "com.wdimiceli.MetadataEncode");
+        assertEquals("binary", encode.getString("format"));
+        assertEquals(5, encode.getInt("glyphs"));
+        assertEquals(binary.length, encode.getLong("bytes"));
+
+        RecordedEvent write = find(events, "com.wdimiceli.FileWrite");
+        assertEquals(png.getPath(), write.getString("path"));
+        assertEquals(png.length(), write.getLong("bytes"));
+        assertEquals(32, write.getInt("width"));
+        png.delete();
+    }
+}
@@ -0,0 +1,93 @@
+package com.wdimiceli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * How often each character is used, for laying the atlas out most frequent first.
+ *
+ * The frequency file has one character per line followed by its count, separated by whitespace:
+ *   e 48211
+ *   U+4E2D 1532
+ * A character is written as itself or as U+ and its hex code point (needed for space and #).
+ * Blank lines and lines starting with # are skipped.
+ */
+public class GlyphFrequencies {
+
+    private static char parseCharacter(String token) throws NumberFormatException {
+        if (token.length() > 2 && token.regionMatches(true, 0, "U+", 0, 2)) {
+            int codePoint = Integer.parseInt(token.substring(2), 16);
+            if (codePoint < 0 || codePoint > Character.MAX_VALUE) {
+                throw new NumberFormatException("outside the Basic Multilingual Plane");
+            }
+            return (char) codePoint;
+        }
+        if (token.length() != 1) {
+            throw new NumberFormatException("not a single character");
+        }
+        return token.charAt(0);
+    }
+
+    /*
+    returns the count for every character in the file, counts for a repeated character are added up
+     */
+    public static HashMap<Character, Long> read(File file) throws IOException {
+        HashMap<Character, Long> counts = new HashMap<Character, Long>();
+        BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                try {
+                    if (parts.length != 2) {
+                        throw new NumberFormatException("expected a character and a count");
+                    }
+                    long count = Long.parseLong(parts[1]);
+                    if (count < 0) {
+                        throw new NumberFormatException("negative count");
+                    }
+                    counts.merge(parseCharacter(parts[0]), count, Long::sum);
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Bad frequency on line %d of %s: %s", lineNumber, file, e.getMessage()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return counts;
+    }
+
+    /*
+    ranks the characters that are in the atlas, 1 for the most used
+    ties go to the lower code point, characters with no count (or a zero count) are left out and stay unranked
+     */
+    public static HashMap<Character, Integer> rank(HashMap<Character, Long> counts, Collection<Character> characters) {
+        ArrayList<Character> used = new ArrayList<Character>();
+        for (char character : characters) {
+            if (counts.getOrDefault(character, 0L) > 0) {
+                used.add(character);
+            }
+        }
+        used.sort((a, b) -> {
+            int byCount = Long.compare(counts.get(b), counts.get(a));
+            return byCount != 0 ? byCount : Character.compare(a, b);
+        });
+        HashMap<Character, Integer> ranks = new HashMap<Character, Integer>();
+        for (int i = 0; i < used.size(); i++) {
+            ranks.put(used.get(i), i + 1);
+        }
+        return ranks;
+    }
+}
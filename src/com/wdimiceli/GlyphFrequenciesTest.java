@@ -0,0 +1,51 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+
+public class GlyphFrequenciesTest {
+
+    private static File write(String text) throws Exception {
+        File file = File.createTempFile("frequencies", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    @Test
+    public void testReadAndRank() throws Exception {
+        File file = write("# counts from the string table\n"
+                + "e 500\n"
+                + "U+0020 900\n"
+                + "\n"
+                + "a\t120\n"
+                + "u+4E2D 120\n"
+                + "a 30\n"
+                + "z 0\n");
+        HashMap<Character, Long> counts = GlyphFrequencies.read(file);
+        assertEquals(150L, (long) counts.get('a'));
+        assertEquals(900L, (long) counts.get(' '));
+        assertEquals(120L, (long) counts.get('\u4E2D'));
+
+        //space isn't in the atlas, so it takes no rank; ties go to the lower code point
+        HashMap<Character, Integer> ranks = GlyphFrequencies.rank(counts, Arrays.asList('a', 'e', 'z', 'q', '\u4E2D'));
+        assertEquals(1, (int) ranks.get('e'));
+        assertEquals(2, (int) ranks.get('a'));
+        assertEquals(3, (int) ranks.get('\u4E2D'));
+        assertFalse(ranks.containsKey('z'));
+        assertFalse(ranks.containsKey('q'));
+    }
+
+    @Test (expected=IOException.class)
+    public void testBadLine() throws Exception {
+        GlyphFrequencies.read(write("e 5\nab 3\n"));
+    }
+}
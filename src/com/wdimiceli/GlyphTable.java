@@ -0,0 +1,132 @@
+package com.wdimiceli;
+
+import java.util.Arrays;
+
+/**
+ * Metrics for every glyph of one font at one pixel size, stored as parallel primitive columns.
+ *
+ * Glyphs are sorted by code point so lookups are a binary search.
+ * Kerning is stored compressed-row style: the pairs for glyph i live in
+ *   [kerningStart[i], kerningStart[i+1]) of kerningCodePoints/kerningValues, sorted by right code point.
+ * Sprites (whole strings rendered at this size, see StringSprites) have columns of their own, sorted by name.
+ */
+public class GlyphTable {
+    public final int pixelSize;
+    //the font the glyphs belong to when the atlas holds several, see TypefaceMetrics.setFontCount()
+    public int fontId;
+    public final int[] codePoints;
+    public final int[] horiBearingY;
+    public final int[] horiAdvance;
+    public final int[] x;
+    public final int[] y;
+    public final int[] width;
+    public final int[] height;
+    //atlas color channel of each glyph, all zero unless channelCount is more than one
+    public final int[] channel;
+    //atlas page of each glyph, all zero unless pageCount is more than one
+    public final int[] page;
+    //true where the atlas holds the glyph transposed, as a height x width rectangle
+    public final boolean[] rotated;
+    //usage rank of each glyph, 1 for the most frequent and 0 for glyphs the frequency table didn't cover
+    public final int[] rank;
+    public final int[] kerningStart;
+    public final int[] kerningCodePoints;
+    public final int[] kerningValues;
+    public final String[] spriteNames;
+    public final int[] spriteX;
+    public final int[] spriteY;
+    public final int[] spriteWidth;
+    public final int[] spriteHeight;
+    //rows from the top of the sprite down to the baseline
+    public final int[] spriteBaseline;
+    //pen movement over the whole string
+    public final int[] spriteAdvance;
+    public final int[] spriteChannel;
+    public final int[] spritePage;
+    public final boolean[] spriteRotated;
+    //non-zero when the glyphs are distance fields, see TypefaceMetrics.setDistanceFieldSpread()
+    public int distanceFieldSpread;
+    //bits per pixel of the atlas the glyphs were packed into
+    public int bitDepth;
+    //color channels in the atlas
+    public int channelCount;
+    //atlas pages
+    public int pageCount;
+    //glyphs may be rotated, see TypefaceMetrics.setRotation()
+    public boolean rotation;
+    //glyphs carry a frequency rank, see TypefaceMetrics.setRanked()
+    public boolean ranked;
+    //fonts in the atlas
+    public int fontCount;
+
+    public int size() {
+        return codePoints.length;
+    }
+
+    /*
+    returns the glyph index for this code point, or a negative number if it isn't in the table
+     */
+    public int indexOf(int codePoint) {
+        return Arrays.binarySearch(codePoints, codePoint);
+    }
+
+    public int spriteCount() {
+        return spriteNames.length;
+    }
+
+    /*
+    returns the sprite index for this name, or a negative number if it isn't in the table
+     */
+    public int indexOfSprite(String name) {
+        return Arrays.binarySearch(spriteNames, name);
+    }
+
+    /*
+    returns the kerning between the glyph at leftIndex and the right code point, zero if none is recorded
+     */
+    public int kerning(int leftIndex, int rightCodePoint) {
+        int from = kerningStart[leftIndex];
+        int to = kerningStart[leftIndex + 1];
+        if (from == to) {
+            return 0;
+        }
+        int pair = Arrays.binarySearch(kerningCodePoints, from, to, rightCodePoint);
+        return pair >= 0 ? kerningValues[pair] : 0;
+    }
+
+    public GlyphTable(int in_pixelSize, int glyphCount, int kerningCount) {
+        this(in_pixelSize, glyphCount, kerningCount, 0);
+    }
+
+    public GlyphTable(int in_pixelSize, int glyphCount, int kerningCount, int spriteCount) {
+        pixelSize = in_pixelSize;
+        codePoints = new int[glyphCount];
+        horiBearingY = new int[glyphCount];
+        horiAdvance = new int[glyphCount];
+        x = new int[glyphCount];
+        y = new int[glyphCount];
+        width = new int[glyphCount];
+        height = new int[glyphCount];
+        channel = new int[glyphCount];
+        page = new int[glyphCount];
+        rotated = new boolean[glyphCount];
+        rank = new int[glyphCount];
+        kerningStart = new int[glyphCount + 1];
+        kerningCodePoints = new int[kerningCount];
+        kerningValues = new int[kerningCount];
+        spriteNames = new String[spriteCount];
+        spriteX = new int[spriteCount];
+        spriteY = new int[spriteCount];
+        spriteWidth = new int[spriteCount];
+        spriteHeight = new int[spriteCount];
+        spriteBaseline = new int[spriteCount];
+        spriteAdvance = new int[spriteCount];
+        spriteChannel = new int[spriteCount];
+        spritePage = new int[spriteCount];
+        spriteRotated = new boolean[spriteCount];
+        bitDepth = 8;
+        channelCount = 1;
+        pageCount = 1;
+        fontCount = 1;
+    }
+}
@@ -0,0 +1,423 @@
+package com.wdimiceli;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams glyph tables out as JSON without building a document in memory.
+ *
+ * The object layout matches what json-simple produced from the glyph sets:
+ *   {"16":{"A":{"horiBearingY":12,"horiAdvance":10,"x":0,"y":0,"width":9,"height":12,"kerningTable":{"V":64}}}}
+ * Document level values such as "distanceFieldSpread", "bitDepth", "channelCount", "pageCount", "rotation", "ranked"
+ * and "fontCount" go in an "info" object, written only when one of the features is used:
+ *   {"info":{"rotation":1,"fontCount":2},"0:16":{...},"1:16":{...}}
+ * The per glyph "channel", "page", "rotated" (1 when stored on its side) and "rank" (1 for the most used glyph,
+ * 0 if unranked) are likewise only written when used.
+ * An atlas of several fonts keys each size by font id and pixel size, "1:16" for font 1 at 16 pixels.
+ * Pre-rendered strings follow the sizes, keyed by size and then by sprite name:
+ *   "sprites":{"16":{"title":{"x":40,"y":0,"width":75,"height":15,"baseline":12,"advance":76}}}
+ * so "info" and "sprites" are the only top level keys that aren't sizes.
+ * The array layout stores each glyph and each kern pair as a flat array of numbers:
+ *   {"info":{...},"glyphFields":[...],"kerningFields":[...],"sizes":{"16":{"glyphs":[[65,0,0,9,12,12,10]],"kerning":[[65,86,64]]}}}
+ * and each sprite as its name followed by the "spriteFields" values, in a "sprites" array next to "glyphs" and "kerning".
+ */
+public class JsonMetricsWriter {
+    public static final String[] GLYPH_FIELDS = {"codePoint", "x", "y", "width", "height", "horiBearingY", "horiAdvance"};
+    public static final String[] KERNING_FIELDS = {"left", "right", "kerning"};
+    public static final String[] SPRITE_FIELDS = {"name", "x", "y", "width", "height", "baseline", "advance"};
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    //scratch space for formatting integers
+    private final byte[] digits = new byte[11];
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void reserve(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+
+    private JsonMetricsWriter ascii(String text) throws IOException {
+        reserve(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+        return this;
+    }
+
+    private JsonMetricsWriter ascii(char c) throws IOException {
+        reserve(1);
+        buffer.put((byte) c);
+        return this;
+    }
+
+    private JsonMetricsWriter number(int value) throws IOException {
+        reserve(digits.length);
+        if (value == Integer.MIN_VALUE) {
+            return ascii(String.valueOf(value));
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, position, digits.length - position);
+        return this;
+    }
+
+    /*
+    writes a single character as a quoted JSON string, escaped the same way json-simple does
+     */
+    private JsonMetricsWriter string(int c) throws IOException {
+        reserve(8);
+        buffer.put((byte) '"');
+        switch (c) {
+            case '"': buffer.put((byte) '\\').put((byte) '"'); break;
+            case '\\': buffer.put((byte) '\\').put((byte) '\\'); break;
+            case '/': buffer.put((byte) '\\').put((byte) '/'); break;
+            case '\b': buffer.put((byte) '\\').put((byte) 'b'); break;
+            case '\f': buffer.put((byte) '\\').put((byte) 'f'); break;
+            case '\n': buffer.put((byte) '\\').put((byte) 'n'); break;
+            case '\r': buffer.put((byte) '\\').put((byte) 'r'); break;
+            case '\t': buffer.put((byte) '\\').put((byte) 't'); break;
+            default:
+                if (c <= 0x1F || (c >= 0x7F && c <= 0x9F) || (c >= 0x2000 && c <= 0x20FF)) {
+                    ascii(String.format("\\u%04X", c));
+                } else if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+                } else {
+                    buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F))).put((byte) (0x80 | (c & 0x3F)));
+                }
+        }
+        return ascii('"');
+    }
+
+    private JsonMetricsWriter field(String name, int value) throws IOException {
+        return ascii('"').ascii(name).ascii("\":").number(value);
+    }
+
+    /*
+    the "info" object of document level values, which only appear when the feature is in use
+    returns true if it was written
+     */
+    private boolean writeInfo(List<GlyphTable> tables) throws IOException {
+        if (tables.isEmpty()) {
+            return false;
+        }
+        GlyphTable first = tables.get(0);
+        boolean written = false;
+        written = attribute(written, first.distanceFieldSpread > 0, "distanceFieldSpread", first.distanceFieldSpread);
+        written = attribute(written, first.bitDepth != 8, "bitDepth", first.bitDepth);
+        written = attribute(written, first.channelCount > 1, "channelCount", first.channelCount);
+        written = attribute(written, first.pageCount > 1, "pageCount", first.pageCount);
+        written = attribute(written, first.rotation, "rotation", 1);
+        written = attribute(written, first.ranked, "ranked", 1);
+        written = attribute(written, first.fontCount > 1, "fontCount", first.fontCount);
+        if (written) {
+            ascii('}');
+        }
+        return written;
+    }
+
+    private boolean attribute(boolean written, boolean used, String name, int value) throws IOException {
+        if (!used) {
+            return written;
+        }
+        //the object is opened by the first value in it
+        ascii(written ? "," : "\"info\":{");
+        field(name, value);
+        return true;
+    }
+
+    private static boolean hasSprites(List<GlyphTable> tables) {
+        for (GlyphTable table : tables) {
+            if (table.spriteCount() > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    the quoted key of a size, led by the font id when there are several fonts
+     */
+    private JsonMetricsWriter sizeKey(GlyphTable table) throws IOException {
+        ascii('"');
+        if (table.fontCount > 1) {
+            number(table.fontId).ascii(':');
+        }
+        return number(table.pixelSize).ascii('"');
+    }
+
+    private void writeObjectLayout(List<GlyphTable> tables) throws IOException {
+        ascii('{');
+        boolean separate = writeInfo(tables);
+        for (int s = 0; s < tables.size(); s++) {
+            GlyphTable table = tables.get(s);
+            if (s > 0 || separate) {
+                ascii(',');
+            }
+            sizeKey(table).ascii(":{");
+            for (int i = 0; i < table.size(); i++) {
+                if (i > 0) {
+                    ascii(',');
+                }
+                string(table.codePoints[i]).ascii(":{");
+                field("horiBearingY", table.horiBearingY[i]).ascii(',');
+                field("horiAdvance", table.horiAdvance[i]).ascii(',');
+                field("x", table.x[i]).ascii(',');
+                field("y", table.y[i]).ascii(',');
+                field("width", table.width[i]).ascii(',');
+                field("height", table.height[i]).ascii(',');
+                if (table.channelCount > 1) {
+                    field("channel", table.channel[i]).ascii(',');
+                }
+                if (table.pageCount > 1) {
+                    field("page", table.page[i]).ascii(',');
+                }
+                if (table.rotation) {
+                    field("rotated", table.rotated[i] ? 1 : 0).ascii(',');
+                }
+                if (table.ranked) {
+                    field("rank", table.rank[i]).ascii(',');
+                }
+                ascii("\"kerningTable\":{");
+                for (int pair = table.kerningStart[i]; pair < table.kerningStart[i + 1]; pair++) {
+                    if (pair > table.kerningStart[i]) {
+                        ascii(',');
+                    }
+                    string(table.kerningCodePoints[pair]).ascii(':').number(table.kerningValues[pair]);
+                }
+                ascii("}}");
+            }
+            ascii('}');
+        }
+        if (hasSprites(tables)) {
+            ascii(",\"sprites\":{");
+            boolean firstSize = true;
+            for (GlyphTable table : tables) {
+                if (table.spriteCount() == 0) {
+                    continue;
+                }
+                if (!firstSize) {
+                    ascii(',');
+                }
+                firstSize = false;
+                sizeKey(table).ascii(":{");
+                for (int i = 0; i < table.spriteCount(); i++) {
+                    if (i > 0) {
+                        ascii(',');
+                    }
+                    ascii('"').ascii(table.spriteNames[i]).ascii("\":{");
+                    field("x", table.spriteX[i]).ascii(',');
+                    field("y", table.spriteY[i]).ascii(',');
+                    field("width", table.spriteWidth[i]).ascii(',');
+                    field("height", table.spriteHeight[i]).ascii(',');
+                    field("baseline", table.spriteBaseline[i]).ascii(',');
+                    field("advance", table.spriteAdvance[i]);
+                    if (table.channelCount > 1) {
+                        ascii(',').field("channel", table.spriteChannel[i]);
+                    }
+                    if (table.pageCount > 1) {
+                        ascii(',').field("page", table.spritePage[i]);
+                    }
+                    if (table.rotation) {
+                        ascii(',').field("rotated", table.spriteRotated[i] ? 1 : 0);
+                    }
+                    ascii('}');
+                }
+                ascii('}');
+            }
+            ascii('}');
+        }
+        ascii('}');
+    }
+
+    private void writeFieldNames(String name, List<String> fields) throws IOException {
+        ascii('"').ascii(name).ascii("\":[");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                ascii(',');
+            }
+            ascii('"').ascii(fields.get(i)).ascii('"');
+        }
+        ascii(']');
+    }
+
+    private void writeArrayLayout(List<GlyphTable> tables) throws IOException {
+        ascii('{');
+        if (writeInfo(tables)) {
+            ascii(',');
+        }
+        boolean channels = !tables.isEmpty() && tables.get(0).channelCount > 1;
+        boolean pages = !tables.isEmpty() && tables.get(0).pageCount > 1;
+        boolean rotation = !tables.isEmpty() && tables.get(0).rotation;
+        boolean ranked = !tables.isEmpty() && tables.get(0).ranked;
+        //optional fields go on the end so readers that index the base fields keep working
+        ArrayList<String> glyphFields = new ArrayList<String>(Arrays.asList(GLYPH_FIELDS));
+        if (channels) {
+            glyphFields.add("channel");
+        }
+        if (pages) {
+            glyphFields.add("page");
+        }
+        if (rotation) {
+            glyphFields.add("rotated");
+        }
+        if (ranked) {
+            glyphFields.add("rank");
+        }
+        writeFieldNames("glyphFields", glyphFields);
+        ascii(',');
+        writeFieldNames("kerningFields", Arrays.asList(KERNING_FIELDS));
+        boolean sprites = hasSprites(tables);
+        if (sprites) {
+            ArrayList<String> spriteFields = new ArrayList<String>(Arrays.asList(SPRITE_FIELDS));
+            if (channels) {
+                spriteFields.add("channel");
+            }
+            if (pages) {
+                spriteFields.add("page");
+            }
+            if (rotation) {
+                spriteFields.add("rotated");
+            }
+            ascii(',');
+            writeFieldNames("spriteFields", spriteFields);
+        }
+        ascii(",\"sizes\":{");
+        for (int s = 0; s < tables.size(); s++) {
+            GlyphTable table = tables.get(s);
+            if (s > 0) {
+                ascii(',');
+            }
+            sizeKey(table).ascii(":{\"glyphs\":[");
+            for (int i = 0; i < table.size(); i++) {
+                if (i > 0) {
+                    ascii(',');
+                }
+                ascii('[').number(table.codePoints[i]);
+                ascii(',').number(table.x[i]);
+                ascii(',').number(table.y[i]);
+                ascii(',').number(table.width[i]);
+                ascii(',').number(table.height[i]);
+                ascii(',').number(table.horiBearingY[i]);
+                ascii(',').number(table.horiAdvance[i]);
+                if (channels) {
+                    ascii(',').number(table.channel[i]);
+                }
+                if (pages) {
+                    ascii(',').number(table.page[i]);
+                }
+                if (rotation) {
+                    ascii(',').number(table.rotated[i] ? 1 : 0);
+                }
+                if (ranked) {
+                    ascii(',').number(table.rank[i]);
+                }
+                ascii(']');
+            }
+            ascii("],\"kerning\":[");
+            boolean first = true;
+            for (int i = 0; i < table.size(); i++) {
+                for (int pair = table.kerningStart[i]; pair < table.kerningStart[i + 1]; pair++) {
+                    if (!first) {
+                        ascii(',');
+                    }
+                    first = false;
+                    ascii('[').number(table.codePoints[i]);
+                    ascii(',').number(table.kerningCodePoints[pair]);
+                    ascii(',').number(table.kerningValues[pair]).ascii(']');
+                }
+            }
+            ascii(']');
+            if (table.spriteCount() > 0) {
+                ascii(",\"sprites\":[");
+                for (int i = 0; i < table.spriteCount(); i++) {
+                    if (i > 0) {
+                        ascii(',');
+                    }
+                    ascii("[\"").ascii(table.spriteNames[i]).ascii('"');
+                    ascii(',').number(table.spriteX[i]);
+                    ascii(',').number(table.spriteY[i]);
+                    ascii(',').number(table.spriteWidth[i]);
+                    ascii(',').number(table.spriteHeight[i]);
+                    ascii(',').number(table.spriteBaseline[i]);
+                    ascii(',').number(table.spriteAdvance[i]);
+                    if (channels) {
+                        ascii(',').number(table.spriteChannel[i]);
+                    }
+                    if (pages) {
+                        ascii(',').number(table.spritePage[i]);
+                    }
+                    if (rotation) {
+                        ascii(',').number(table.spriteRotated[i] ? 1 : 0);
+                    }
+                    ascii(']');
+                }
+                ascii(']');
+            }
+            ascii('}');
+        }
+        ascii("}}");
+    }
+
+    /*
+    the length in bytes of the document write() produces, counted as it streams so it's never held in memory
+     */
+    public static int length(List<GlyphTable> tables, boolean arrayLayout) throws IOException {
+        final int[] length = new int[1];
+        new JsonMetricsWriter(new WritableByteChannel() {
+            public int write(ByteBuffer source) {
+                int count = source.remaining();
+                source.position(source.limit());
+                length[0] += count;
+                return count;
+            }
+
+            public boolean isOpen() {
+                return true;
+            }
+
+            public void close() {
+            }
+        }).write(tables, arrayLayout);
+        return length[0];
+    }
+
+    /*
+    writes the whole document and flushes it to the channel
+     */
+    public void write(List<GlyphTable> tables, boolean arrayLayout) throws IOException {
+        if (arrayLayout) {
+            writeArrayLayout(tables);
+        } else {
+            writeObjectLayout(tables);
+        }
+        ascii('\n');
+        flush();
+    }
+
+    public JsonMetricsWriter(WritableByteChannel in_channel) {
+        channel = in_channel;
+        buffer = ByteBuffer.allocate(1024*64);
+    }
+}
@@ -0,0 +1,149 @@
+package com.wdimiceli;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Per size metadata sections in one file with an index up front, so a runtime can map the file
+ * and decode only the sizes it needs.
+ *
+ * Big endian, like the binary metadata:
+ *   3 bytes - magic 'F' 'T' 'S'
+ *   1 byte - version
+ *   1 byte - section format, FORMAT_BINARY (.fontdata) or FORMAT_COMPACT (.fontcompact)
+ *   2 bytes - number of sections [N]
+ *   N x 12 bytes - index, ascending pixel size: pixel size, offset from the start of the file, length
+ *   the sections, each a complete metadata stream for one size that TypefaceMetricsReader reads as it is
+ *
+ * Each section describes one size's own atlas pages, see partition=size in BitmapGenerator.
+ */
+public class MetadataSections {
+    public static final int[] MAGIC = {'F', 'T', 'S'};
+    public static final int VERSION = 1;
+    public static final int FORMAT_BINARY = 0;
+    public static final int FORMAT_COMPACT = 1;
+    public static final int HEADER_BYTES = 7;
+    public static final int INDEX_ENTRY_BYTES = 12;
+
+    /*
+    one entry of the index
+     */
+    public static class Section {
+        public final int pixelSize;
+        public final int offset;
+        public final int length;
+
+        public Section(int in_pixelSize, int in_offset, int in_length) {
+            pixelSize = in_pixelSize;
+            offset = in_offset;
+            length = in_length;
+        }
+    }
+
+    /*
+    streams[i] is the encoded metadata for pixelSizes[i], sizes ascending
+     */
+    public static byte[] encode(List<Integer> pixelSizes, List<byte[]> streams, int format) {
+        int length = HEADER_BYTES + INDEX_ENTRY_BYTES * streams.size();
+        for (byte[] stream : streams) {
+            length += stream.length;
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        for (int b : MAGIC) {
+            out.put((byte) b);
+        }
+        out.put((byte) VERSION);
+        out.put((byte) format);
+        out.putShort((short) streams.size());
+        int offset = HEADER_BYTES + INDEX_ENTRY_BYTES * streams.size();
+        for (int i = 0; i < streams.size(); i++) {
+            out.putInt(pixelSizes.get(i));
+            out.putInt(offset);
+            out.putInt(streams.get(i).length);
+            offset += streams.get(i).length;
+        }
+        for (byte[] stream : streams) {
+            out.put(stream);
+        }
+        return out.array();
+    }
+
+    public static void save(File file, List<Integer> pixelSizes, List<byte[]> streams, int format) throws IOException {
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        byte[] bytes = encode(pixelSizes, streams, format);
+        System.out.println(String.format("Writing font data sections: %d sizes, %d bytes", streams.size(), bytes.length));
+        GeneratorEvents.FileWrite event = new GeneratorEvents.FileWrite();
+        event.begin();
+        AtomicFile.write(file, bytes);
+        GeneratorEvents.fileWritten(event, file, 0, 0);
+    }
+
+    /*
+    maps the file read only, nothing past the index is touched until a section is read
+     */
+    public static ByteBuffer map(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            channel.close();
+        }
+    }
+
+    public static List<Section> readIndex(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_BYTES) {
+            throw new IOException("Not a font data section file");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if ((buffer.get(i) & 0xFF) != MAGIC[i]) {
+                throw new IOException("Not a font data section file");
+            }
+        }
+        int version = buffer.get(3) & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported font data section version: " + String.valueOf(version));
+        }
+        int count = buffer.getShort(5) & 0xFFFF;
+        if (buffer.limit() < HEADER_BYTES + count * INDEX_ENTRY_BYTES) {
+            throw new IOException("Font data section index is truncated");
+        }
+        ArrayList<Section> sections = new ArrayList<Section>(count);
+        for (int i = 0; i < count; i++) {
+            int entry = HEADER_BYTES + i * INDEX_ENTRY_BYTES;
+            Section section = new Section(buffer.getInt(entry), buffer.getInt(entry + 4), buffer.getInt(entry + 8));
+            if (section.offset < 0 || section.length < 0 || (long) section.offset + section.length > buffer.limit()) {
+                throw new IOException("Font data section is out of bounds");
+            }
+            sections.add(section);
+        }
+        return sections;
+    }
+
+    public static int readFormat(ByteBuffer buffer) {
+        return buffer.get(4) & 0xFF;
+    }
+
+    /*
+    decodes the section for one pixel size, a table for each font in it
+    returns an empty list if the file doesn't have the size
+     */
+    public static List<GlyphTable> readSize(ByteBuffer buffer, int pixelSize) throws IOException {
+        for (Section section : readIndex(buffer)) {
+            if (section.pixelSize == pixelSize) {
+                byte[] bytes = new byte[section.length];
+                ByteBuffer slice = buffer.duplicate();
+                slice.position(section.offset);
+                slice.get(bytes);
+                return TypefaceMetricsReader.read(bytes);
+            }
+        }
+        return new ArrayList<GlyphTable>();
+    }
+}
@@ -0,0 +1,81 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MetadataSectionsTest {
+
+    private static TypefaceMetrics buildSize(int size) {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        int x = 0;
+        for (char c = 'a'; c <= 'k'; c++) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+            info.x = x;
+            info.width = size / 2 + c % 3;
+            info.height = size - c % 5;
+            info.horiBearingY = size - 2;
+            info.horiAdvance = size / 2 + 1;
+            x += info.width;
+            metrics.recordGlyph(size, info);
+        }
+        metrics.recordKerning(size, 'a', 'k', 128);
+        return metrics;
+    }
+
+    private static byte[] buildSections(boolean compact) throws IOException {
+        List<Integer> sizes = Arrays.asList(12, 24, 48);
+        List<byte[]> streams = new ArrayList<byte[]>();
+        for (int size : sizes) {
+            TypefaceMetrics metrics = buildSize(size);
+            streams.add(compact ? metrics.getCompactBinary() : metrics.getBinary());
+        }
+        return MetadataSections.encode(sizes, streams, compact ? MetadataSections.FORMAT_COMPACT : MetadataSections.FORMAT_BINARY);
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(buildSections(false));
+        List<MetadataSections.Section> index = MetadataSections.readIndex(buffer);
+        assertEquals(3, index.size());
+        assertEquals(MetadataSections.FORMAT_BINARY, MetadataSections.readFormat(buffer));
+        int offset = MetadataSections.HEADER_BYTES + 3 * MetadataSections.INDEX_ENTRY_BYTES;
+        for (int i = 0; i < index.size(); i++) {
+            MetadataSections.Section section = index.get(i);
+            assertEquals(new int[] {12, 24, 48}[i], section.pixelSize);
+            //the sections follow the index back to back
+            assertEquals(offset, section.offset);
+            offset += section.length;
+        }
+        assertEquals(buffer.limit(), offset);
+    }
+
+    @Test
+    public void testReadSize() throws Exception {
+        for (boolean compact : new boolean[] {false, true}) {
+            File file = File.createTempFile("sections", ".fontsections");
+            java.nio.file.Files.write(file.toPath(), buildSections(compact));
+            ByteBuffer buffer = MetadataSections.map(file);
+            GlyphTable table = MetadataSections.readSize(buffer, 24).get(0);
+            assertEquals(24, table.pixelSize);
+            assertEquals(11, table.size());
+            int a = table.indexOf('a');
+            assertEquals(24 / 2 + 'a' % 3, table.width[a]);
+            assertEquals(128, table.kerning(a, 'k'));
+            assertTrue(MetadataSections.readSize(buffer, 16).isEmpty());
+            file.delete();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        MetadataSections.readIndex(ByteBuffer.wrap(buildSize(12).getBinary()));
+    }
+}
@@ -0,0 +1,154 @@
+package com.wdimiceli;
+
+import org.json.simple.JSONValue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Counters for one generator run, written out as a small JSON document for dashboards.
+ *
+ * Phases are timed by the caller and accumulate under their name, in the order first seen:
+ *   {"wallMillis":412.5,"glyphs":980,"glyphsPerSecond":2375.8,"phases":{"fontLoad":3.1,"rasterize":250.2,...},
+ *    "freeTypeCalls":52310,"glyphsRendered":980,"kerning":{"pairsProbed":48020,"pairsStored":1204},
+ *    "packer":{"expandCalls":6,"bytesCopied":917504,"atlasArea":262144,"filledArea":231000,"glyphArea":214500,
+ *              "occupancy":0.881,"wastedArea":16500},
+ *    "metadataBytes":{"binary":9120,"compact":3410,"json":40211},
+ *    "memory":{"peakHeapBytes":73400320,"peakDirectBytes":65536}}
+ */
+public class RunStats {
+    private final long startNanos;
+    private final LinkedHashMap<String, Long> phaseNanos;
+    private final LinkedHashMap<String, Integer> metadataBytes;
+    private long peakDirectBytes;
+
+    public int glyphs;
+    //FreeType calls that do real work across JNI (loading, rendering, lookups), the cheap field accessors on
+    //  slots and bitmaps aren't counted
+    public long freeTypeCalls;
+    //glyphs rasterized this run, in watch mode the rest come from the session's cache
+    public long glyphsRendered;
+    public long kerningPairsProbed;
+    public long kerningPairsStored;
+    public long expandCalls;
+    public long bytesCopied;
+    //summed over every page and channel
+    public long atlasArea;
+    //the area under the packers' skylines, glyphs plus the gaps they left below it
+    public long filledArea;
+    public long glyphArea;
+
+    /*
+    adds the time since phaseStart (from System.nanoTime()) to the named phase
+     */
+    public void endPhase(String name, long phaseStart) {
+        phaseNanos.merge(name, System.nanoTime() - phaseStart, Long::sum);
+        sampleDirectMemory();
+    }
+
+    public void setMetadataBytes(String format, int bytes) {
+        metadataBytes.put(format, bytes);
+    }
+
+    /*
+    direct buffers have no peak counter of their own, so they're sampled as each phase ends
+     */
+    private void sampleDirectMemory() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                peakDirectBytes = Math.max(peakDirectBytes, pool.getMemoryUsed());
+            }
+        }
+    }
+
+    /*
+    the heap pools keep their own peaks, summed this overstates a little since they peak at different times
+     */
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    public Map<String, Object> toMap() {
+        long wallNanos = System.nanoTime() - startNanos;
+        LinkedHashMap<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("wallMillis", millis(wallNanos));
+        stats.put("glyphs", glyphs);
+        stats.put("glyphsPerSecond", wallNanos > 0 ? Math.round(glyphs * 1e10 / wallNanos) / 10.0 : 0.0);
+        LinkedHashMap<String, Object> phases = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+            phases.put(phase.getKey(), millis(phase.getValue()));
+        }
+        stats.put("phases", phases);
+        stats.put("freeTypeCalls", freeTypeCalls);
+        stats.put("glyphsRendered", glyphsRendered);
+
+        LinkedHashMap<String, Object> kerning = new LinkedHashMap<String, Object>();
+        kerning.put("pairsProbed", kerningPairsProbed);
+        kerning.put("pairsStored", kerningPairsStored);
+        stats.put("kerning", kerning);
+
+        LinkedHashMap<String, Object> packer = new LinkedHashMap<String, Object>();
+        packer.put("expandCalls", expandCalls);
+        packer.put("bytesCopied", bytesCopied);
+        packer.put("atlasArea", atlasArea);
+        packer.put("filledArea", filledArea);
+        packer.put("glyphArea", glyphArea);
+        packer.put("occupancy", atlasArea > 0 ? Math.round(filledArea * 1000.0 / atlasArea) / 1000.0 : 0.0);
+        packer.put("wastedArea", filledArea - glyphArea);
+        stats.put("packer", packer);
+
+        stats.put("metadataBytes", metadataBytes);
+
+        sampleDirectMemory();
+        LinkedHashMap<String, Object> memory = new LinkedHashMap<String, Object>();
+        memory.put("peakHeapBytes", peakHeapBytes());
+        memory.put("peakDirectBytes", peakDirectBytes);
+        stats.put("memory", memory);
+        return stats;
+    }
+
+    public void save(File file) throws IOException {
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
+        File temporary = AtomicFile.temporary(file);
+        Writer out = new OutputStreamWriter(new FileOutputStream(temporary), StandardCharsets.UTF_8);
+        try {
+            JSONValue.writeJSONString(toMap(), out);
+            out.write('\n');
+        } finally {
+            out.close();
+        }
+        AtomicFile.commit(temporary, file);
+    }
+
+    /*
+    the wall clock starts here
+     */
+    public RunStats() {
+        startNanos = System.nanoTime();
+        phaseNanos = new LinkedHashMap<String, Long>();
+        metadataBytes = new LinkedHashMap<String, Integer>();
+        peakDirectBytes = 0;
+    }
+}
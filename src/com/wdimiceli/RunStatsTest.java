@@ -0,0 +1,62 @@
+package com.wdimiceli;
+
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RunStatsTest {
+
+    @Test
+    public void testPackerCounters() {
+        BitmapRenderer renderer = new BitmapRenderer(16, 16);
+        renderer.reserve(10, 10);
+        renderer.expand(32, 16);
+        renderer.shrink(16, 16);
+        assertEquals(1, renderer.getExpandCount());
+        //16x16 copied up, then 16x16 copied back down
+        assertEquals(16 * 16 * 2, renderer.getBytesCopied());
+        assertEquals(100, renderer.filledArea());
+
+        BitmapRenderer planned = new BitmapRenderer(16, 16, false);
+        planned.expand(32, 32);
+        assertEquals(1, planned.getExpandCount());
+        assertEquals(0, planned.getBytesCopied());
+    }
+
+    @Test
+    public void testReport() throws Exception {
+        RunStats stats = new RunStats();
+        stats.endPhase("rasterize", System.nanoTime());
+        stats.endPhase("pack", System.nanoTime());
+        stats.endPhase("rasterize", System.nanoTime());
+        stats.glyphs = 50;
+        stats.atlasArea = 1000;
+        stats.filledArea = 800;
+        stats.glyphArea = 700;
+        stats.setMetadataBytes("binary", 123);
+
+        Map<String, Object> map = stats.toMap();
+        Map<?, ?> phases = (Map<?, ?>) map.get("phases");
+        assertArrayEquals(new Object[] {"rasterize", "pack"}, phases.keySet().toArray());
+        Map<?, ?> packer = (Map<?, ?>) map.get("packer");
+        assertEquals(0.8, (Double) packer.get("occupancy"), 1e-9);
+        assertEquals(100L, packer.get("wastedArea"));
+        Map<?, ?> memory = (Map<?, ?>) map.get("memory");
+        assertTrue((Long) memory.get("peakHeapBytes") > 0);
+
+        File file = File.createTempFile("stats", ".json");
+        stats.save(file);
+        FileReader reader = new FileReader(file);
+        JSONObject saved = (JSONObject) new JSONParser().parse(reader);
+        reader.close();
+        file.delete();
+        assertEquals(50L, saved.get("glyphs"));
+        assertEquals(123L, ((JSONObject) saved.get("metadataBytes")).get("binary"));
+    }
+}
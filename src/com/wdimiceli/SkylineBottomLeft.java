@@ -23,11 +23,27 @@ public class SkylineBottomLeft {
     //width and height of the "canvas"
     private int skylineWidth;
     private int skylineHeight;
+    //rectangles are rounded up to and placed on multiples of this
+    private int alignment;
     public SkylineBottomLeft(int in_skylineWidth, int in_skylineHeight) {
         nodes = new ArrayList<Node>();
         nodes.add(new Node(in_skylineWidth, 0));
         skylineWidth = in_skylineWidth;
         skylineHeight = in_skylineHeight;
+        alignment = 1;
+    }
+
+    /*
+    snaps every rectangle placed from now on to a grid, eg. 4 for BC block compression
+    should be set before anything is placed
+     */
+    public void setAlignment(int in_alignment) {
+        assert in_alignment > 0;
+        alignment = in_alignment;
+    }
+
+    private int align(int value) {
+        return (value + alignment - 1) / alignment * alignment;
     }
     /*
     Returns the highest Y coordinate of all nodes beginning at index that fall within "width" distance.
@@ -92,16 +108,11 @@ public class SkylineBottomLeft {
         }
     }
     /*
-    Call this consecutively to have the algorithm find the optimal location for
-    each rectangle and return the coordinates
+    Finds where an already aligned rectangle would go without placing it.
 
-     The method returns negative coordinates when it cannot place the requested rectangle
-     Usually this means that the skyline is filled up or otherwise that the rectangle is too big
+    Returns {node index, x, y}, or null if the rectangle is too tall to fit anywhere
      */
-    public Point place(int width, int height) {
-        assert width > 0 && height > 0;
-        assert width < skylineWidth && height < skylineHeight;
-        Point retval = null;
+    private int[] findPosition(int width, int height) {
         int minY = skylineHeight;
         int minX = 0;
         int minNodeIndex = -1;
@@ -111,7 +122,8 @@ public class SkylineBottomLeft {
         for (int i = 0; i < nodeCount; i++) {
             //this is the minimum Y that we can use if we place the new node here
             int placedY = this.maxYForNodeIndex(i, width);
-            if (placedY < minY) {
+            //nodes only start off the grid after expanding by an odd amount, skip those
+            if (placedY < minY && xAccum % alignment == 0) {
                 minY = placedY;
                 minX = xAccum;
                 //remember this index so we can put a new node here later
@@ -120,13 +132,89 @@ public class SkylineBottomLeft {
             //accumulate the width so we can return the X coordinate for our users
             xAccum += nodes.get(i).width;
         }
-        int nodeHeight = minY + height;
         //make sure the lowest Y is low enough to place, otherwise this rectangle is too tall
-        if (nodeHeight < skylineHeight) {
-            retval = new Point(minX, minY);
-            this.insertNodeAtIndex(minNodeIndex, width, nodeHeight);
+        if (minY + height < skylineHeight) {
+            return new int[]{minNodeIndex, minX, minY};
         }
-        return retval;
+        return null;
+    }
+
+    private boolean fitsCanvas(int width, int height) {
+        return width < skylineWidth && height < skylineHeight;
+    }
+
+    /*
+    Call this consecutively to have the algorithm find the optimal location for
+    each rectangle and return the coordinates
+
+     The method returns null when it cannot place the requested rectangle
+     Usually this means that the skyline is filled up or otherwise that the rectangle is too big
+     */
+    public Point place(int width, int height) {
+        assert width > 0 && height > 0;
+        //too big for the canvas, the caller has to expand first
+        if (!fitsCanvas(width, height)) {
+            return null;
+        }
+        //the reserved area covers whole grid cells, so every node edge stays on the grid
+        width = align(width);
+        height = align(height);
+        int[] position = findPosition(width, height);
+        if (position == null) {
+            return null;
+        }
+        this.insertNodeAtIndex(position[0], width, position[2] + height);
+        return new Point(position[1], position[2]);
+    }
+
+    /*
+    area left empty below a rectangle of this width at the position, it can never be filled later
+     */
+    private int wastedArea(int[] position, int width) {
+        int waste = 0;
+        int remaining = width;
+        for (int i = position[0]; i < nodes.size() && remaining > 0; i++) {
+            Node node = nodes.get(i);
+            int covered = Math.min(node.width, remaining);
+            waste += covered * (position[2] - node.height);
+            remaining -= covered;
+        }
+        return waste;
+    }
+
+    /*
+    true if position a is a better fit than b, by the space wasted under each and then by the lower top edge
+     */
+    private boolean betterFit(int[] a, int widthA, int heightA, int[] b, int widthB, int heightB) {
+        int wasteA = wastedArea(a, widthA);
+        int wasteB = wastedArea(b, widthB);
+        if (wasteA != wasteB) {
+            return wasteA < wasteB;
+        }
+        return a[2] + heightA < b[2] + heightB;
+    }
+
+    /*
+    Like place(), but the rectangle may also be turned on its side.
+    Each way round is placed bottom-left, then the one that leaves less dead space under it wins,
+    then the one with the lower top edge, and upright when they still tie.
+
+    Returns the area taken - width and height are swapped if the rectangle was turned - or null
+     */
+    public Rectangle placeRotatable(int width, int height) {
+        assert width > 0 && height > 0;
+        int[] upright = fitsCanvas(width, height) ? findPosition(align(width), align(height)) : null;
+        //a square looks the same either way
+        int[] turned = width != height && fitsCanvas(height, width) ? findPosition(align(height), align(width)) : null;
+        boolean rotate = turned != null && (upright == null || betterFit(turned, align(height), align(width), upright, align(width), align(height)));
+        int[] position = rotate ? turned : upright;
+        if (position == null) {
+            return null;
+        }
+        int placedWidth = rotate ? height : width;
+        int placedHeight = rotate ? width : height;
+        this.insertNodeAtIndex(position[0], align(placedWidth), position[2] + align(placedHeight));
+        return new Rectangle(position[1], position[2], placedWidth, placedHeight);
     }
 
     /*
@@ -179,11 +267,19 @@ public class SkylineBottomLeft {
         return retval;
     }
 
+    public int getWidth() {
+        return skylineWidth;
+    }
+
+    public int getHeight() {
+        return skylineHeight;
+    }
+
     /*
-    Expands the canvas to a new size.  Must be larger then the current size.
+    Expands the canvas to a new size.  Must be at least the current size.
      */
     public void expand(int newWidth, int newHeight) {
-        assert newWidth > skylineWidth && newHeight > skylineHeight;
+        assert newWidth >= skylineWidth && newHeight >= skylineHeight;
         nodes.add(new Node(newWidth - skylineWidth, 0));
         skylineWidth = newWidth;
         skylineHeight = newHeight;
@@ -191,8 +287,12 @@ public class SkylineBottomLeft {
 
     public void shrink(int newWidth, int newHeight) {
         assert newWidth > 0 && newHeight > 0;
+        //growing just adds an empty node on the end
+        if (newWidth > skylineWidth) {
+            nodes.add(new Node(newWidth - skylineWidth, 0));
+        }
         //shrink by this much
-        int diffWidth = newWidth - skylineWidth;
+        int diffWidth = skylineWidth - newWidth;
         //remove nodes until we have no more, or until we've removed exactly the right amount
         while (nodes.size() > 0 && diffWidth > 0) {
             int index = nodes.size()-1;
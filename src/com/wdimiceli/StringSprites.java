@@ -0,0 +1,202 @@
+package com.wdimiceli;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Static strings that are rendered into the atlas whole, so a label that never changes is a single quad.
+ *
+ * The strings file has one sprite per line: a name, the pixel size and the text, separated by whitespace:
+ *   play_button 24 Play again?
+ *   title 32 Shadow Run
+ * The text runs to the end of the line with its inner spaces kept. Names are letters, digits, '_', '-' and '.'
+ * and must be unique. Blank lines and lines starting with # are skipped.
+ */
+public class StringSprites {
+
+    /*
+    one line of the strings file
+     */
+    public static class Sprite {
+        public final String name;
+        public final int size;
+        public final String text;
+
+        public Sprite(String in_name, int in_size, String in_text) {
+            name = in_name;
+            size = in_size;
+            text = in_text;
+        }
+    }
+
+    /*
+    where each character of a string goes, in pixels from the sprite's top left corner
+     */
+    public static class Layout {
+        //left edge and top row of each character's bitmap
+        public final int[] left;
+        public final int[] top;
+        public final int width;
+        public final int height;
+        //rows from the top of the sprite down to the baseline
+        public final int baseline;
+        //pen movement over the whole string
+        public final int advance;
+
+        public Layout(int[] in_left, int[] in_top, int in_width, int in_height, int in_baseline, int in_advance) {
+            left = in_left;
+            top = in_top;
+            width = in_width;
+            height = in_height;
+            baseline = in_baseline;
+            advance = in_advance;
+        }
+    }
+
+    private static boolean validName(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!(c < 0x80 && (Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.'))) {
+                return false;
+            }
+        }
+        return name.length() > 0 && name.length() <= 255;
+    }
+
+    public static ArrayList<Sprite> read(File file) throws IOException {
+        ArrayList<Sprite> sprites = new ArrayList<Sprite>();
+        HashSet<String> names = new HashSet<String>();
+        BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8);
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                String trimmed = line.trim();
+                if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = trimmed.split("\\s+", 3);
+                try {
+                    if (parts.length != 3) {
+                        throw new NumberFormatException("expected a name, a size and the text");
+                    }
+                    if (!validName(parts[0])) {
+                        throw new NumberFormatException("bad sprite name " + parts[0]);
+                    }
+                    if (!names.add(parts[0])) {
+                        throw new NumberFormatException("sprite " + parts[0] + " is defined twice");
+                    }
+                    for (int i = 0; i < parts[2].length(); i++) {
+                        if (Character.isSurrogate(parts[2].charAt(i))) {
+                            throw new NumberFormatException("text outside the Basic Multilingual Plane can't be rendered");
+                        }
+                    }
+                    sprites.add(new Sprite(parts[0], Integer.parseInt(parts[1]), parts[2]));
+                } catch (NumberFormatException e) {
+                    throw new IOException(String.format("Bad sprite on line %d of %s: %s", lineNumber, file, e.getMessage()));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return sprites;
+    }
+
+    /*
+    returns the charset with every character the sprites draw added to the end
+    whitespace is left out, it has no bitmap and only moves the pen
+     */
+    public static String addCharacters(String charSet, List<Sprite> sprites) {
+        BitSet present = new BitSet(Character.MAX_VALUE + 1);
+        for (int i = 0; i < charSet.length(); i++) {
+            present.set(charSet.charAt(i));
+        }
+        StringBuilder result = new StringBuilder(charSet);
+        for (Sprite sprite : sprites) {
+            for (int i = 0; i < sprite.text.length(); i++) {
+                char character = sprite.text.charAt(i);
+                if (!Character.isWhitespace(character) && !present.get(character)) {
+                    present.set(character);
+                    result.append(character);
+                }
+            }
+        }
+        return result.toString();
+    }
+
+    /*
+    places the characters of a string the way a renderer drawing glyph by glyph would
+    widths are zero for characters with no bitmap (spaces), they only move the pen
+    kerning[i] is the pixel kerning between character i-1 and i, kerning[0] is unused
+     */
+    public static Layout layout(int[] widths, int[] heights, int[] advances, int[] bearingsY, int[] kerning) {
+        int count = widths.length;
+        int[] left = new int[count];
+        int pen = 0;
+        int minLeft = 0;
+        int right = 0;
+        int ascent = 0;
+        int descent = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                pen += kerning[i];
+            }
+            left[i] = pen;
+            if (widths[i] > 0) {
+                minLeft = Math.min(minLeft, pen);
+                right = Math.max(right, pen + widths[i]);
+                ascent = Math.max(ascent, bearingsY[i]);
+                descent = Math.max(descent, heights[i] - bearingsY[i]);
+            }
+            pen += advances[i];
+        }
+        //kerning can pull a character left of the origin, so everything shifts over to keep it in the sprite
+        int[] top = new int[count];
+        for (int i = 0; i < count; i++) {
+            left[i] -= minLeft;
+            top[i] = ascent - bearingsY[i];
+        }
+        return new Layout(left, top, right - minLeft, ascent + descent, ascent, pen);
+    }
+
+    /*
+    draws the character rasters at their layout positions, overlapping pixels keep the larger value
+    rasters[i] is null for characters with no bitmap
+     */
+    public static Raster compose(Layout layout, Raster[] rasters) {
+        WritableRaster sprite = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, layout.width, layout.height, 1, null);
+        int[] row = new int[0];
+        int[] line = new int[0];
+        for (int i = 0; i < rasters.length; i++) {
+            Raster raster = rasters[i];
+            if (raster == null) {
+                continue;
+            }
+            int width = raster.getWidth();
+            if (row.length < width) {
+                row = new int[width];
+                line = new int[width];
+            }
+            for (int y = 0; y < raster.getHeight(); y++) {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+                sprite.getSamples(layout.left[i], layout.top[i] + y, width, 1, 0, line);
+                for (int x = 0; x < width; x++) {
+                    line[x] = Math.max(line[x], row[x]);
+                }
+                sprite.setSamples(layout.left[i], layout.top[i] + y, width, 1, 0, line);
+            }
+        }
+        return sprite;
+    }
+}
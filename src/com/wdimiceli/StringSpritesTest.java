@@ -0,0 +1,84 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class StringSpritesTest {
+
+    private static File write(String text) throws Exception {
+        File file = File.createTempFile("strings", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Raster filled(int width, int height, int value) {
+        WritableRaster raster = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 1, null);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                raster.setSample(x, y, 0, value);
+            }
+        }
+        return raster;
+    }
+
+    @Test
+    public void testRead() throws Exception {
+        ArrayList<StringSprites.Sprite> sprites = StringSprites.read(write("# menu labels\n"
+                + "play_button 24 Play  again?\n"
+                + "\n"
+                + "title\t32\t\u00DCber\n"));
+        assertEquals(2, sprites.size());
+        assertEquals("play_button", sprites.get(0).name);
+        assertEquals(24, sprites.get(0).size);
+        //inner spaces are kept
+        assertEquals("Play  again?", sprites.get(0).text);
+        assertEquals("\u00DCber", sprites.get(1).text);
+        //whitespace and characters already in the charset aren't added again
+        assertEquals("abcPlygin?\u00DCer", StringSprites.addCharacters("abc", sprites));
+    }
+
+    @Test (expected=IOException.class)
+    public void testDuplicateName() throws Exception {
+        StringSprites.read(write("title 24 One\ntitle 32 Two\n"));
+    }
+
+    @Test (expected=IOException.class)
+    public void testBadName() throws Exception {
+        StringSprites.read(write("two words 24 Text\n"));
+    }
+
+    @Test
+    public void testLayout() throws Exception {
+        //'A' 4x6 on the baseline, a blank that only advances, then 'g' 3x5 hanging 2 below, kerned in by 1
+        int[] widths = {4, 0, 3};
+        int[] heights = {6, 0, 5};
+        int[] advances = {5, 2, 4};
+        int[] bearings = {6, 0, 3};
+        int[] kerning = {0, 0, -1};
+        StringSprites.Layout layout = StringSprites.layout(widths, heights, advances, bearings, kerning);
+        assertArrayEquals(new int[] {0, 5, 6}, layout.left);
+        assertEquals(6, layout.baseline);
+        assertEquals(8, layout.height);
+        assertEquals(9, layout.width);
+        assertEquals(10, layout.advance);
+        assertEquals(3, layout.top[2]);
+
+        Raster sprite = StringSprites.compose(layout, new Raster[] {filled(4, 6, 100), null, filled(3, 5, 200)});
+        assertEquals(9, sprite.getWidth());
+        assertEquals(100, sprite.getSample(0, 0, 0));
+        assertEquals(0, sprite.getSample(0, 7, 0));
+        assertEquals(200, sprite.getSample(8, 7, 0));
+        assertEquals(0, sprite.getSample(5, 2, 0));
+    }
+}
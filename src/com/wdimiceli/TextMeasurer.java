@@ -0,0 +1,323 @@
+package com.wdimiceli;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures and line breaks text with the generated metrics, for servers that truncate or wrap labels
+ * without drawing them.
+ *
+ * Each size is flattened into primitive lookups once: a dense array for ASCII advances, an open addressing
+ * table for the other characters and another for kern pairs, keyed by both code points. Measuring and
+ * line breaking allocate nothing.
+ *
+ * Widths are in output pixels. Kerning is applied as the sprites and the metadata record it, each pair's
+ * 26.6 value rounded to whole pixels. Characters the metadata doesn't have (spaces among them, since they
+ * have no bitmap) advance by the size's default advance, see setDefaultAdvance().
+ *
+ * That default is only a guess, so the metadata must have every other character that gets measured.
+ * The named charsets (charset=US_ASCII and the like) keep letters only: digits and punctuation are left
+ * out, and "Score: 100" would measure wrong. Generate the metadata with corpus= or strings= over the
+ * text instead, and check with covers() when the text isn't known in advance.
+ */
+public class TextMeasurer {
+    //open addressing tables stay at most half full
+    private static final int LOAD_FACTOR = 2;
+
+    /*
+    the lookups for one pixel size
+     */
+    private static class SizeMetrics {
+        private final int[] asciiAdvance;
+        //one bit per ASCII character the metadata has, the rest hold the default advance
+        private final long[] asciiDefined;
+        //other characters by code point, 0 marks an empty slot (code point 0 never has a glyph)
+        private final int[] otherKeys;
+        private final int[] otherAdvances;
+        //left code point << 16 | right code point, 0 marks an empty slot
+        private final int[] kernKeys;
+        private final int[] kernValues;
+        //one bit per code point that starts a kern pair, so most characters skip the kerning probe
+        private final long[] kernedLeft;
+        private int defaultAdvance;
+
+        private static int capacity(int count) {
+            return Integer.highestOneBit(Math.max(count * LOAD_FACTOR, 2) - 1) << 1;
+        }
+
+        private static int slot(int key, int mask) {
+            int hash = key * 0x9E3779B9;
+            return (hash ^ (hash >>> 16)) & mask;
+        }
+
+        private static void put(int[] keys, int[] values, int key, int value) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private static int get(int[] keys, int[] values, int key, int missing) {
+            int mask = keys.length - 1;
+            int slot = slot(key, mask);
+            int found;
+            while ((found = keys[slot]) != 0) {
+                if (found == key) {
+                    return values[slot];
+                }
+                slot = (slot + 1) & mask;
+            }
+            return missing;
+        }
+
+        private int advance(char character) {
+            if (character < 128) {
+                return asciiAdvance[character];
+            }
+            return get(otherKeys, otherAdvances, character, defaultAdvance);
+        }
+
+        private void setDefaultAdvance(int advance) {
+            for (int c = 0; c < 128; c++) {
+                if ((asciiDefined[c >>> 6] & (1L << c)) == 0) {
+                    asciiAdvance[c] = advance;
+                }
+            }
+            defaultAdvance = advance;
+        }
+
+        private boolean defines(char character) {
+            if (character < 128) {
+                return (asciiDefined[character >>> 6] & (1L << character)) != 0;
+            }
+            return get(otherKeys, otherAdvances, character, Integer.MIN_VALUE) != Integer.MIN_VALUE;
+        }
+
+        private int kerning(char left, char right) {
+            if ((kernedLeft[left >>> 6] & (1L << left)) == 0) {
+                return 0;
+            }
+            return get(kernKeys, kernValues, (left << 16) | right, 0);
+        }
+
+        private SizeMetrics(GlyphTable table) {
+            asciiAdvance = new int[128];
+            asciiDefined = new long[2];
+            int others = 0;
+            for (int i = 0; i < table.size(); i++) {
+                if (table.codePoints[i] >= 128) {
+                    others++;
+                }
+            }
+            otherKeys = new int[capacity(others)];
+            otherAdvances = new int[otherKeys.length];
+            int pairs = table.kerningStart[table.size()];
+            kernKeys = new int[capacity(pairs)];
+            kernValues = new int[kernKeys.length];
+            kernedLeft = new long[(Character.MAX_VALUE + 1) / 64];
+            for (int i = 0; i < table.size(); i++) {
+                int codePoint = table.codePoints[i];
+                if (codePoint < 128) {
+                    asciiAdvance[codePoint] = table.horiAdvance[i];
+                    asciiDefined[codePoint >>> 6] |= 1L << codePoint;
+                } else {
+                    put(otherKeys, otherAdvances, codePoint, table.horiAdvance[i]);
+                }
+                for (int pair = table.kerningStart[i]; pair < table.kerningStart[i + 1]; pair++) {
+                    int kerning = toPixels(table.kerningValues[pair]);
+                    if (kerning != 0) {
+                        put(kernKeys, kernValues, (codePoint << 16) | table.kerningCodePoints[pair], kerning);
+                        kernedLeft[codePoint >>> 6] |= 1L << codePoint;
+                    }
+                }
+            }
+            setDefaultAdvance(Math.max(1, Math.round(table.pixelSize / 4.0f)));
+        }
+    }
+
+    //indexed by pixel size, null for the sizes the metadata doesn't have
+    private final SizeMetrics[] sizes;
+
+    /*
+    reads any of the metadata files and measures with font 0
+     */
+    public static TextMeasurer load(File file) throws IOException {
+        return new TextMeasurer(TypefaceMetricsReader.read(file), 0);
+    }
+
+    /*
+    rounds a 26.6 kerning value to whole pixels, the same way FreeType.toInt() does
+     */
+    private static int toPixels(int value) {
+        return value < 0 ? (value - 32) >> 6 : (value + 32) >> 6;
+    }
+
+    private SizeMetrics metrics(int size) {
+        if (size < 0 || size >= sizes.length || sizes[size] == null) {
+            throw new IllegalArgumentException("No metrics for size " + String.valueOf(size));
+        }
+        return sizes[size];
+    }
+
+    public boolean hasSize(int size) {
+        return size >= 0 && size < sizes.length && sizes[size] != null;
+    }
+
+    /*
+    the advance of characters the metadata doesn't have, a quarter of the pixel size unless set
+     */
+    public void setDefaultAdvance(int size, int advance) {
+        metrics(size).setDefaultAdvance(advance);
+    }
+
+    /*
+    true when the metadata has every character of the text except blanks and line breaks,
+        so nothing is measured with the default advance's guess
+     */
+    public boolean covers(CharSequence text, int size) {
+        SizeMetrics metrics = metrics(size);
+        for (int i = 0; i < text.length(); i++) {
+            char character = text.charAt(i);
+            if (!Character.isWhitespace(character) && !metrics.defines(character)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int measure(CharSequence text, int size) {
+        return measure(text, 0, text.length(), size);
+    }
+
+    /*
+    the pen advance over text[start, end) drawn on one line
+     */
+    public int measure(CharSequence text, int start, int end, int size) {
+        SizeMetrics metrics = metrics(size);
+        int width = 0;
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            char character = text.charAt(i);
+            if (i > start) {
+                width += metrics.kerning(previous, character);
+            }
+            width += metrics.advance(character);
+            previous = character;
+        }
+        return width;
+    }
+
+    /*
+    returns the end of the longest prefix of text[start, end) no wider than maxWidth, for truncating
+     */
+    public int fit(CharSequence text, int start, int end, int size, int maxWidth) {
+        SizeMetrics metrics = metrics(size);
+        int width = 0;
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            char character = text.charAt(i);
+            if (i > start) {
+                width += metrics.kerning(previous, character);
+            }
+            width += metrics.advance(character);
+            if (width > maxWidth) {
+                return i;
+            }
+            previous = character;
+        }
+        return end;
+    }
+
+    private static boolean isBlank(char character) {
+        return character != '\n' && Character.isWhitespace(character);
+    }
+
+    /*
+    greedy line breaking: returns the end of the line that starts at start
+    the line breaks before the last blank that keeps it within maxWidth, inside a word only when the word
+        is wider than a line on its own (and then after at least one character)
+    a '\n' always ends the line, blanks at the end of a line don't count towards its width
+     */
+    public int lineEnd(CharSequence text, int start, int end, int size, int maxWidth) {
+        SizeMetrics metrics = metrics(size);
+        int width = 0;
+        int lastBreak = -1;
+        char previous = 0;
+        for (int i = start; i < end; i++) {
+            char character = text.charAt(i);
+            if (character == '\n') {
+                return i;
+            }
+            int next = width + metrics.advance(character);
+            if (i > start) {
+                next += metrics.kerning(previous, character);
+            }
+            if (isBlank(character)) {
+                if (!isBlank(previous)) {
+                    lastBreak = i;
+                }
+            } else if (next > maxWidth) {
+                if (lastBreak > start) {
+                    return lastBreak;
+                }
+                return Math.max(i, start + 1);
+            }
+            width = next;
+            previous = character;
+        }
+        return end;
+    }
+
+    /*
+    where the line after one that ended at lineEnd starts, past the blanks and the '\n' it broke on
+     */
+    public static int nextLineStart(CharSequence text, int lineEnd, int end) {
+        int i = lineEnd;
+        while (i < end && isBlank(text.charAt(i))) {
+            i++;
+        }
+        if (i < end && text.charAt(i) == '\n') {
+            i++;
+        }
+        return i;
+    }
+
+    /*
+    breaks the whole text into lines no wider than maxWidth and returns how many there are
+    the end of each line goes into lineEnds while it has room, so a short array (or an empty one) still counts them
+    line k runs from nextLineStart(text, lineEnds[k - 1], length) - 0 for the first - to lineEnds[k]
+     */
+    public int breakLines(CharSequence text, int size, int maxWidth, int[] lineEnds) {
+        int end = text.length();
+        int lines = 0;
+        int start = 0;
+        while (start < end) {
+            int lineEnd = lineEnd(text, start, end, size, maxWidth);
+            if (lines < lineEnds.length) {
+                lineEnds[lines] = lineEnd;
+            }
+            lines++;
+            start = nextLineStart(text, lineEnd, end);
+        }
+        return lines;
+    }
+
+    public TextMeasurer(List<GlyphTable> tables, int fontId) {
+        int largest = 0;
+        for (GlyphTable table : tables) {
+            if (table.fontId == fontId) {
+                largest = Math.max(largest, table.pixelSize);
+            }
+        }
+        sizes = new SizeMetrics[largest + 1];
+        for (GlyphTable table : tables) {
+            if (table.fontId == fontId) {
+                sizes[table.pixelSize] = new SizeMetrics(table);
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.wdimiceli;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class TextMeasurerTest {
+
+    //every letter is 10 pixels wide at 20 and 5 at 10, 'A' 'V' kerns by 2 pixels at 20
+    private static TextMeasurer buildMeasurer() throws Exception {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        for (int size : new int[] {10, 20}) {
+            for (char c = 'A'; c <= 'z'; c++) {
+                TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+                info.width = size / 2 - 1;
+                info.height = size;
+                info.horiAdvance = size / 2;
+                metrics.recordGlyph(size, info);
+            }
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo('\u00E9');
+            info.horiAdvance = size;
+            metrics.recordGlyph(size, info);
+        }
+        metrics.recordKerning(20, 'A', 'V', 128);
+        metrics.recordKerning(20, '\u00E9', 'A', 64);
+        File file = File.createTempFile("measure", ".fontdata");
+        file.deleteOnExit();
+        Files.write(file.toPath(), metrics.getBinary());
+        return TextMeasurer.load(file);
+    }
+
+    @Test
+    public void testMeasure() throws Exception {
+        TextMeasurer measurer = buildMeasurer();
+        assertTrue(measurer.hasSize(20));
+        assertFalse(measurer.hasSize(16));
+        assertEquals(30, measurer.measure("abc", 20));
+        assertEquals(15, measurer.measure("abc", 10));
+        assertEquals(22, measurer.measure("AV", 20));
+        //kerning only applies to adjacent characters in that order
+        assertEquals(20, measurer.measure("VA", 20));
+        assertEquals(31, measurer.measure("\u00E9A", 20));
+        //spaces aren't in the metadata, they advance by a quarter of the size until told otherwise
+        assertEquals(25, measurer.measure("a a", 20));
+        measurer.setDefaultAdvance(20, 7);
+        assertEquals(27, measurer.measure("a a", 20));
+        assertEquals(20, measurer.measure("xabcx", 1, 3, 20));
+        assertEquals(0, measurer.measure("", 20));
+    }
+
+    @Test
+    public void testNonLetters() throws Exception {
+        //letters only, as the named charsets produce
+        TextMeasurer letters = buildMeasurer();
+        assertFalse(letters.covers("Score: 100", 20));
+        assertTrue(letters.covers("Score again\n", 20));
+
+        //a corpus that has the digits and the colon measures them for real
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        for (char c : "Score:0123456789".toCharArray()) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+            info.horiAdvance = Character.isDigit(c) ? 11 : c == ':' ? 4 : 9;
+            metrics.recordGlyph(20, info);
+        }
+        TextMeasurer measurer = new TextMeasurer(TypefaceMetricsReader.read(metrics.getBinary()), 0);
+        assertTrue(measurer.covers("Score: 100", 20));
+        //five letters, the colon, the space's default advance and three digits
+        assertEquals(5 * 9 + 4 + 5 + 3 * 11, measurer.measure("Score: 100", 20));
+        assertEquals(7, measurer.fit("Score: 100", 0, 10, 20, 60));
+    }
+
+    @Test
+    public void testFit() throws Exception {
+        TextMeasurer measurer = buildMeasurer();
+        assertEquals(3, measurer.fit("abcdef", 0, 6, 20, 35));
+        assertEquals(6, measurer.fit("abcdef", 0, 6, 20, 60));
+        assertEquals(0, measurer.fit("abcdef", 0, 6, 20, 5));
+    }
+
+    @Test
+    public void testBreakLines() throws Exception {
+        TextMeasurer measurer = buildMeasurer();
+        measurer.setDefaultAdvance(10, 5);
+        String text = "one two three\nfour  fiveandsix";
+        int[] ends = new int[8];
+        //five characters to a line at 25 pixels
+        int lines = measurer.breakLines(text, 10, 25, ends);
+        assertEquals(6, lines);
+        String[] expected = {"one", "two", "three", "four", "fivea", "ndsix"};
+        int start = 0;
+        for (int i = 0; i < lines; i++) {
+            assertEquals(expected[i], text.substring(start, ends[i]));
+            start = TextMeasurer.nextLineStart(text, ends[i], text.length());
+        }
+        //wide enough for the first paragraph, the newline still breaks
+        assertEquals(2, measurer.breakLines(text, 10, 1000, ends));
+        assertEquals(13, ends[0]);
+        //a short array still counts every line
+        assertEquals(6, measurer.breakLines(text, 10, 25, new int[0]));
+        assertEquals(0, measurer.breakLines("", 10, 25, ends));
+    }
+
+    @Test (expected=IllegalArgumentException.class)
+    public void testUnknownSize() throws Exception {
+        buildMeasurer().measure("abc", 16);
+    }
+}
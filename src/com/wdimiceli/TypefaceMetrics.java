@@ -1,53 +1,305 @@
 package com.wdimiceli;
 
-import org.json.simple.JSONAware;
-import org.json.simple.JSONObject;
-import org.json.simple.JSONValue;
-
 import java.io.*;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.zip.DeflaterOutputStream;
+import java.util.TreeMap;
 
 /**
  * Created by Wes on 7/21/2014.
  */
 public class TypefaceMetrics {
-    private HashMap<Integer, HashMap<Character, GlyphInfo> > glyphSets;
+    public static final int[] COMPACT_MAGIC = {'F', 'T', 'C'};
+    public static final int COMPACT_VERSION = 2;
+    //binary streams that use any of the flags below start with a zero where the size count would be
+    public static final int BINARY_EXTENDED_VERSION = 2;
+    //glyphs are distance fields rather than coverage bitmaps
+    public static final int FLAG_DISTANCE_FIELD = 1;
+    //the atlas stores fewer than 8 bits per pixel
+    public static final int FLAG_BIT_DEPTH = 2;
+    //the atlas has several color channels, each glyph records the one it was packed into
+    public static final int FLAG_CHANNELS = 4;
+    //the atlas is split over several pages, each glyph records its page
+    public static final int FLAG_PAGES = 8;
+    //glyphs may be stored on their side, each glyph records whether it was turned
+    public static final int FLAG_ROTATION = 16;
+    //glyphs carry a usage frequency rank, the atlas is laid out most frequent first
+    public static final int FLAG_RANK = 32;
+    //the atlas holds several fonts, each size table records the font it belongs to
+    public static final int FLAG_FONTS = 64;
+    //some sizes carry pre-rendered strings, see StringSprites
+    public static final int FLAG_SPRITES = 128;
+
+    //one set of columns per font and pixel size, ascending by font then size - see tableKey()
+    private TreeMap<Integer, SizeColumns> glyphSets;
+    //zero for plain coverage bitmaps
+    private int distanceFieldSpread;
+    //bits per pixel of the atlas
+    private int bitDepth;
+    //color channels in the atlas
+    private int channelCount;
+    //atlas pages, see AtlasPages
+    private int pageCount;
+    //glyphs may be rotated in the atlas
+    private boolean rotation;
+    //glyphs have frequency ranks
+    private boolean ranked;
+    //fonts in the atlas, tables are keyed by font id and pixel size
+    private int fontCount;
 
-    public static class GlyphInfo implements JSONAware{
+    /*
+    the values for a single glyph, copied into the columns by recordGlyph()
+     */
+    public static class GlyphInfo {
         public final char character;
-        public HashMap<Character, Integer> kerningTable;
         public int horiBearingY;
         public int horiAdvance;
         public int x;
         public int y;
         public int width;
         public int height;
+        //0-3 for red, green, blue and alpha
+        public int channel;
+        //atlas page the glyph is on
+        public int page;
+        //stored transposed - the atlas holds a height x width rectangle at x, y
+        //  width and height stay those of the upright glyph
+        public boolean rotated;
+        //1 for the most used glyph, 0 if unranked
+        public int rank;
+
+        public GlyphInfo(char in_character) {
+            character = in_character;
+        }
+    }
+
+    /*
+    a whole string rendered into the atlas as one rectangle, copied into the columns by recordSprite()
+     */
+    public static class SpriteInfo {
+        public final String name;
+        public int x;
+        public int y;
+        public int width;
+        public int height;
+        //rows from the top of the sprite down to the baseline
+        public int baseline;
+        //pen movement over the whole string
+        public int advance;
+        public int channel;
+        public int page;
+        public boolean rotated;
 
-        public String toJSONString() {
-            JSONObject obj = new JSONObject();
-            obj.put("horiBearingY", new Integer(horiBearingY));
-            obj.put("horiAdvance", new Integer(horiAdvance));
-            obj.put("x", new Integer(x));
-            obj.put("y", new Integer(y));
-            obj.put("width", new Integer(width));
-            obj.put("height", new Integer(height));
-            obj.put("kerningTable", new JSONObject(kerningTable));
-            return obj.toJSONString();
+        public SpriteInfo(String in_name) {
+            name = in_name;
         }
+    }
+
+    /*
+    glyphs and kern pairs for one font at one pixel size in the order they were recorded
+    frozen into a GlyphTable (sorted, CSR kerning) when the metadata is written
+     */
+    private static class SizeColumns {
+        private final int fontId;
+        private final int pixelSize;
+        private int glyphCount;
+        private int[] codePoints;
+        private int[] horiBearingY;
+        private int[] horiAdvance;
+        private int[] x;
+        private int[] y;
+        private int[] width;
+        private int[] height;
+        private int[] channel;
+        private int[] page;
+        private boolean[] rotated;
+        private int[] rank;
+        private int kernCount;
+        private int[] kernLeft;
+        private int[] kernRight;
+        private int[] kernValue;
+        //few per size, so kept as they are until frozen
+        private ArrayList<SpriteInfo> sprites;
+        //dropped whenever something new is recorded
+        private GlyphTable table;
 
-        public void recordKerning(char rhchar, int distance) {
-            kerningTable.put(rhchar, distance);
+        private void addGlyph(GlyphInfo info) {
+            if (glyphCount == codePoints.length) {
+                int capacity = glyphCount * 2;
+                codePoints = Arrays.copyOf(codePoints, capacity);
+                horiBearingY = Arrays.copyOf(horiBearingY, capacity);
+                horiAdvance = Arrays.copyOf(horiAdvance, capacity);
+                x = Arrays.copyOf(x, capacity);
+                y = Arrays.copyOf(y, capacity);
+                width = Arrays.copyOf(width, capacity);
+                height = Arrays.copyOf(height, capacity);
+                channel = Arrays.copyOf(channel, capacity);
+                page = Arrays.copyOf(page, capacity);
+                rotated = Arrays.copyOf(rotated, capacity);
+                rank = Arrays.copyOf(rank, capacity);
+            }
+            codePoints[glyphCount] = info.character;
+            horiBearingY[glyphCount] = info.horiBearingY;
+            horiAdvance[glyphCount] = info.horiAdvance;
+            x[glyphCount] = info.x;
+            y[glyphCount] = info.y;
+            width[glyphCount] = info.width;
+            height[glyphCount] = info.height;
+            channel[glyphCount] = info.channel;
+            page[glyphCount] = info.page;
+            rotated[glyphCount] = info.rotated;
+            rank[glyphCount] = info.rank;
+            glyphCount++;
+            table = null;
         }
 
-        public GlyphInfo(char in_character) {
-            character = in_character;
-            kerningTable = new HashMap<Character, Integer>();
+        private void addKerning(char left, char right, int distance) {
+            if (kernCount == kernLeft.length) {
+                int capacity = kernCount * 2;
+                kernLeft = Arrays.copyOf(kernLeft, capacity);
+                kernRight = Arrays.copyOf(kernRight, capacity);
+                kernValue = Arrays.copyOf(kernValue, capacity);
+            }
+            kernLeft[kernCount] = left;
+            kernRight[kernCount] = right;
+            kernValue[kernCount] = distance;
+            kernCount++;
+            table = null;
+        }
+
+        private void addSprite(SpriteInfo info) {
+            sprites.add(info);
+            table = null;
+        }
+
+        /*
+        sorts by code point and groups the kern pairs under their left glyph
+        a glyph or pair recorded twice keeps the last value, like the maps this replaced
+         */
+        private GlyphTable freeze() {
+            if (table != null) {
+                return table;
+            }
+            //code points are 16 bit, so pack them over the record index and sort once
+            long[] order = new long[glyphCount];
+            for (int i = 0; i < glyphCount; i++) {
+                order[i] = ((long) codePoints[i] << 32) | i;
+            }
+            Arrays.sort(order);
+            int unique = 0;
+            for (int i = 0; i < glyphCount; i++) {
+                if (i + 1 == glyphCount || (order[i] >>> 32) != (order[i + 1] >>> 32)) {
+                    order[unique++] = order[i];
+                }
+            }
+
+            //left and right code point over the record index, sign flipped so the sort is unsigned
+            long[] pairs = new long[kernCount];
+            for (int i = 0; i < kernCount; i++) {
+                pairs[i] = (((long) kernLeft[i] << 48) | ((long) kernRight[i] << 32) | i) ^ Long.MIN_VALUE;
+            }
+            Arrays.sort(pairs);
+            int uniquePairs = 0;
+            for (int i = 0; i < kernCount; i++) {
+                if (i + 1 == kernCount || ((pairs[i] ^ pairs[i + 1]) >>> 32) != 0) {
+                    pairs[uniquePairs++] = pairs[i] ^ Long.MIN_VALUE;
+                }
+            }
+
+            //walk both sorted lists together - pairs whose left glyph was never recorded are dropped
+            int pairCount = 0;
+            for (int row = 0, pair = 0; row < unique; row++) {
+                long codePoint = order[row] >>> 32;
+                while (pair < uniquePairs && (pairs[pair] >>> 48) < codePoint) {
+                    pair++;
+                }
+                while (pair < uniquePairs && (pairs[pair] >>> 48) == codePoint) {
+                    pair++;
+                    pairCount++;
+                }
+            }
+
+            //a sprite recorded twice keeps the last one, the stable sort leaves it after the earlier ones
+            ArrayList<SpriteInfo> sortedSprites = new ArrayList<SpriteInfo>(sprites);
+            Collections.sort(sortedSprites, new Comparator<SpriteInfo>() {
+                public int compare(SpriteInfo a, SpriteInfo b) {
+                    return a.name.compareTo(b.name);
+                }
+            });
+            for (int i = sortedSprites.size() - 2; i >= 0; i--) {
+                if (sortedSprites.get(i).name.equals(sortedSprites.get(i + 1).name)) {
+                    sortedSprites.remove(i);
+                }
+            }
+
+            GlyphTable frozen = new GlyphTable(pixelSize, unique, pairCount, sortedSprites.size());
+            frozen.fontId = fontId;
+            for (int i = 0; i < sortedSprites.size(); i++) {
+                SpriteInfo sprite = sortedSprites.get(i);
+                frozen.spriteNames[i] = sprite.name;
+                frozen.spriteX[i] = sprite.x;
+                frozen.spriteY[i] = sprite.y;
+                frozen.spriteWidth[i] = sprite.width;
+                frozen.spriteHeight[i] = sprite.height;
+                frozen.spriteBaseline[i] = sprite.baseline;
+                frozen.spriteAdvance[i] = sprite.advance;
+                frozen.spriteChannel[i] = sprite.channel;
+                frozen.spritePage[i] = sprite.page;
+                frozen.spriteRotated[i] = sprite.rotated;
+            }
+            int out = 0;
+            for (int row = 0, pair = 0; row < unique; row++) {
+                int source = (int) order[row];
+                frozen.codePoints[row] = codePoints[source];
+                frozen.horiBearingY[row] = horiBearingY[source];
+                frozen.horiAdvance[row] = horiAdvance[source];
+                frozen.x[row] = x[source];
+                frozen.y[row] = y[source];
+                frozen.width[row] = width[source];
+                frozen.height[row] = height[source];
+                frozen.channel[row] = channel[source];
+                frozen.page[row] = page[source];
+                frozen.rotated[row] = rotated[source];
+                frozen.rank[row] = rank[source];
+                frozen.kerningStart[row] = out;
+                long codePoint = order[row] >>> 32;
+                while (pair < uniquePairs && (pairs[pair] >>> 48) < codePoint) {
+                    pair++;
+                }
+                for (; pair < uniquePairs && (pairs[pair] >>> 48) == codePoint; pair++, out++) {
+                    int kernSource = (int) pairs[pair];
+                    frozen.kerningCodePoints[out] = kernRight[kernSource];
+                    frozen.kerningValues[out] = kernValue[kernSource];
+                }
+            }
+            frozen.kerningStart[unique] = out;
+            table = frozen;
+            return table;
+        }
+
+        private SizeColumns(int in_fontId, int in_pixelSize) {
+            fontId = in_fontId;
+            pixelSize = in_pixelSize;
+            codePoints = new int[64];
+            horiBearingY = new int[64];
+            horiAdvance = new int[64];
+            x = new int[64];
+            y = new int[64];
+            width = new int[64];
+            height = new int[64];
+            channel = new int[64];
+            page = new int[64];
+            rotated = new boolean[64];
+            rank = new int[64];
+            kernLeft = new int[64];
+            kernRight = new int[64];
+            kernValue = new int[64];
+            sprites = new ArrayList<SpriteInfo>();
         }
     }
 
@@ -66,10 +318,98 @@ public class TypefaceMetrics {
         return (int) Math.ceil(calculatePrecision(value)/8.0);
     }
 
+    /*
+    the feature flags that describe this metadata, zero for plain bitmap glyphs
+     */
+    public int getFlags() {
+        int flags = 0;
+        if (distanceFieldSpread > 0) {
+            flags |= FLAG_DISTANCE_FIELD;
+        }
+        if (bitDepth != 8) {
+            flags |= FLAG_BIT_DEPTH;
+        }
+        if (channelCount > 1) {
+            flags |= FLAG_CHANNELS;
+        }
+        if (pageCount > 1) {
+            flags |= FLAG_PAGES;
+        }
+        if (rotation) {
+            flags |= FLAG_ROTATION;
+        }
+        if (ranked) {
+            flags |= FLAG_RANK;
+        }
+        if (fontCount > 1) {
+            flags |= FLAG_FONTS;
+        }
+        for (SizeColumns columns : glyphSets.values()) {
+            if (!columns.sprites.isEmpty()) {
+                flags |= FLAG_SPRITES;
+                break;
+            }
+        }
+        return flags;
+    }
+
+    /*
+    the length of getBinary()'s stream before it is deflated, worked out from the table sizes without encoding anything
+    the saved file is normally well under it, so a plan reports it as the ceiling
+     */
+    public long getBinaryLengthBound() {
+        List<GlyphTable> tables = getGlyphTables();
+        int flags = getFlags();
+        //zero, version, flags and one byte per optional header value
+        long length = flags == 0 ? 0 : 4 + Integer.bitCount(flags & (FLAG_DISTANCE_FIELD | FLAG_BIT_DEPTH | FLAG_CHANNELS | FLAG_PAGES | FLAG_FONTS));
+        int sizingPrecision = 0;
+        for (GlyphTable table : tables) {
+            sizingPrecision = Math.max(sizingPrecision, table.pixelSize);
+        }
+        sizingPrecision = calculatePrecisionBytes(sizingPrecision);
+        length += 2 + tables.size() * (sizingPrecision + ((flags & FLAG_FONTS) != 0 ? 1 : 0));
+        //the per glyph and per sprite bytes that don't depend on the location precision
+        int glyphExtra = ((flags & FLAG_CHANNELS) != 0 ? 1 : 0) + ((flags & FLAG_PAGES) != 0 ? 1 : 0)
+                + ((flags & FLAG_ROTATION) != 0 ? 1 : 0);
+        int rankBytes = (flags & FLAG_RANK) != 0 ? 2 : 0;
+        for (GlyphTable table : tables) {
+            int locationPrecision = 0;
+            for (int i = 0; i < table.size(); i++) {
+                locationPrecision = Math.max(locationPrecision, Math.max(Math.max(table.x[i], table.y[i]), Math.max(table.width[i], table.height[i])));
+            }
+            for (int i = 0; i < table.spriteCount(); i++) {
+                locationPrecision = Math.max(locationPrecision, Math.max(Math.max(table.spriteX[i], table.spriteY[i]),
+                        Math.max(Math.max(table.spriteWidth[i], table.spriteHeight[i]), table.spriteAdvance[i])));
+            }
+            locationPrecision = calculatePrecisionBytes(locationPrecision);
+            length += 3;
+            length += (long) table.size() * (2 + 2 * sizingPrecision + 4 * locationPrecision + glyphExtra + rankBytes + 2);
+            length += (long) table.kerningStart[table.size()] * (2 + sizingPrecision);
+            if ((flags & FLAG_SPRITES) != 0) {
+                length += 2;
+                for (int i = 0; i < table.spriteCount(); i++) {
+                    length += 1 + table.spriteNames[i].length() + 6 * locationPrecision + glyphExtra;
+                }
+            }
+        }
+        return length;
+    }
+
     public byte[] getBinary() throws IOException {
-        //1 byte - number of sizes
+        //* extended header, only written when getFlags() is non-zero ---
+        //1 byte - zero
+        //1 byte - extended format version
+        //2 bytes - feature flags [F]
+        //1 byte - distance field spread in pixels, if F has FLAG_DISTANCE_FIELD
+        //1 byte - atlas bits per pixel, if F has FLAG_BIT_DEPTH (otherwise 8)
+        //1 byte - atlas color channels, if F has FLAG_CHANNELS (otherwise 1)
+        //1 byte - atlas pages, if F has FLAG_PAGES (otherwise 1)
+        //1 byte - fonts, if F has FLAG_FONTS (otherwise 1)
+        //* extended header ---
+        //1 byte - number of sizes, counting each font's sizes separately
         //1 byte - sizing precision in bytes [SP]
         //* size list ---
+        //1 byte - font id, if F has FLAG_FONTS
         //SP bytes - pixel size
         //* size list ---
         //2 bytes - number of glyphs
@@ -82,118 +422,566 @@ public class TypefaceMetrics {
         //LP bytes - Y
         //LP bytes - width
         //LP bytes - height
+        //1 byte - color channel, if F has FLAG_CHANNELS
+        //1 byte - atlas page, if F has FLAG_PAGES
+        //1 byte - 1 if the glyph is stored rotated, if F has FLAG_ROTATION
+        //2 bytes - usage frequency rank, 0 if unranked, if F has FLAG_RANK
         //2 bytes - kern table size
         //* kern list ---
         //2 bytes - char code UTF-16
         //SP bytes - kerning
         //* kern list ---
         //* glyph list ---
+        //2 bytes - number of sprites, if F has FLAG_SPRITES
+        //* sprite list, ascending name ---
+        //1 byte - name length [NL]
+        //NL bytes - name, ASCII
+        //LP bytes - x
+        //LP bytes - y
+        //LP bytes - width
+        //LP bytes - height
+        //LP bytes - baseline, rows down from the top
+        //LP bytes - advance
+        //1 byte - color channel, if F has FLAG_CHANNELS
+        //1 byte - atlas page, if F has FLAG_PAGES
+        //1 byte - 1 if the sprite is stored rotated, if F has FLAG_ROTATION
+        //* sprite list ---
 
+        GeneratorEvents.MetadataEncode event = new GeneratorEvents.MetadataEncode();
+        event.begin();
         //start with 32k
         ByteStream bs = new ByteStream(1024*32);
+        List<GlyphTable> tables = getGlyphTables();
 
-        //number of pixel sizes
+        int flags = getFlags();
         try {
-            bs.write(glyphSets.size(), 1);
+            if (flags != 0) {
+                bs.write(0, 1);
+                bs.write(BINARY_EXTENDED_VERSION, 1);
+                bs.write(flags, 2);
+                if ((flags & FLAG_DISTANCE_FIELD) != 0) {
+                    bs.write(distanceFieldSpread, 1);
+                }
+                if ((flags & FLAG_BIT_DEPTH) != 0) {
+                    bs.write(bitDepth, 1);
+                }
+                if ((flags & FLAG_CHANNELS) != 0) {
+                    bs.write(channelCount, 1);
+                }
+                if ((flags & FLAG_PAGES) != 0) {
+                    bs.write(pageCount, 1);
+                }
+                if ((flags & FLAG_FONTS) != 0) {
+                    bs.write(fontCount, 1);
+                }
+            }
+
+            //number of pixel sizes
+            if (tables.size() > 255) {
+                throw new IOException("Binary font data holds at most 255 sizes over all fonts, use metadata=compact instead.");
+            }
+            bs.write(tables.size(), 1);
 
             //number of bits we need to contain the font metric data
             //assume this won't exceed an order of magnitude beyond the largest pixel size
             int sizingPrecision = 0;
-            for (int size : glyphSets.keySet()) {
-                sizingPrecision = Math.max(sizingPrecision, size);
+            for (GlyphTable table : tables) {
+                sizingPrecision = Math.max(sizingPrecision, table.pixelSize);
             }
             sizingPrecision = calculatePrecisionBytes(sizingPrecision);
             bs.write(sizingPrecision, 1);
 
             //output each pixel size
-            for (int size : glyphSets.keySet()) {
-                bs.write(size, sizingPrecision);
+            for (GlyphTable table : tables) {
+                if ((flags & FLAG_FONTS) != 0) {
+                    bs.write(table.fontId, 1);
+                }
+                bs.write(table.pixelSize, sizingPrecision);
             }
 
-            for (int size : glyphSets.keySet()) {
-                HashMap<Character, GlyphInfo> glyphs = glyphSets.get(size);
+            for (GlyphTable table : tables) {
+                int glyphCount = table.size();
                 //number of glyphs in this set - write the last two bytes
-                bs.write(glyphs.size(), 2);
+                bs.write(glyphCount, 2);
                 int locationPrecision = 0;
                 //grab the largest coordinate or rectangle size to estimate the
                 //precision we need to store bitmap coordinate info
-                for (GlyphInfo info : glyphs.values()) {
-                    locationPrecision = Math.max(info.x, locationPrecision);
-                    locationPrecision = Math.max(info.y, locationPrecision);
-                    locationPrecision = Math.max(info.width, locationPrecision);
-                    locationPrecision = Math.max(info.height, locationPrecision);
+                for (int i = 0; i < glyphCount; i++) {
+                    locationPrecision = Math.max(table.x[i], locationPrecision);
+                    locationPrecision = Math.max(table.y[i], locationPrecision);
+                    locationPrecision = Math.max(table.width[i], locationPrecision);
+                    locationPrecision = Math.max(table.height[i], locationPrecision);
+                }
+                for (int i = 0; i < table.spriteCount(); i++) {
+                    locationPrecision = Math.max(table.spriteX[i], locationPrecision);
+                    locationPrecision = Math.max(table.spriteY[i], locationPrecision);
+                    locationPrecision = Math.max(table.spriteWidth[i], locationPrecision);
+                    locationPrecision = Math.max(table.spriteHeight[i], locationPrecision);
+                    locationPrecision = Math.max(table.spriteAdvance[i], locationPrecision);
                 }
                 locationPrecision = calculatePrecisionBytes(locationPrecision);
                 bs.write(locationPrecision, 1);
 
-                for (Character glyphChar : glyphs.keySet()) {
-                    GlyphInfo info = glyphs.get(glyphChar);
-
+                for (int i = 0; i < glyphCount; i++) {
                     //char code
-                    bs.write(glyphChar, 2);
+                    bs.write((char) table.codePoints[i], 2);
                     //glyph informations
-                    bs.write(info.horiBearingY, sizingPrecision);
-                    bs.write(info.horiAdvance, sizingPrecision);
-                    bs.write(info.x, locationPrecision);
-                    bs.write(info.y, locationPrecision);
-                    bs.write(info.width, locationPrecision);
-                    bs.write(info.height, locationPrecision);
+                    bs.write(table.horiBearingY[i], sizingPrecision);
+                    bs.write(table.horiAdvance[i], sizingPrecision);
+                    bs.write(table.x[i], locationPrecision);
+                    bs.write(table.y[i], locationPrecision);
+                    bs.write(table.width[i], locationPrecision);
+                    bs.write(table.height[i], locationPrecision);
+                    if ((flags & FLAG_CHANNELS) != 0) {
+                        bs.write(table.channel[i], 1);
+                    }
+                    if ((flags & FLAG_PAGES) != 0) {
+                        bs.write(table.page[i], 1);
+                    }
+                    if ((flags & FLAG_ROTATION) != 0) {
+                        bs.write(table.rotated[i] ? 1 : 0, 1);
+                    }
+                    if ((flags & FLAG_RANK) != 0) {
+                        bs.write(table.rank[i], 2);
+                    }
 
                     //now we count up each entry in the kerning table, not counting ones that are zero
+                    int from = table.kerningStart[i];
+                    int to = table.kerningStart[i + 1];
                     int kerntablesize = 0;
-                    for (int kerning : info.kerningTable.values()) {
-                        if (kerning > 0) {
+                    for (int pair = from; pair < to; pair++) {
+                        if (table.kerningValues[pair] > 0) {
                             kerntablesize++;
                         }
                     }
                     bs.write(kerntablesize, 2);
 
                     //output each of the values in the kerning table, again skipping blank entries
-                    for (char kernChar : info.kerningTable.keySet()) {
-                        bs.write(kernChar, 2);
-                        int kerningValue = info.kerningTable.get(kernChar);
+                    for (int pair = from; pair < to; pair++) {
+                        bs.write((char) table.kerningCodePoints[pair], 2);
+                        int kerningValue = table.kerningValues[pair];
                         if (kerningValue > 0) {
                             bs.write(kerningValue, sizingPrecision);
                         }
                     }
                 }
+
+                if ((flags & FLAG_SPRITES) != 0) {
+                    bs.write(table.spriteCount(), 2);
+                    for (int i = 0; i < table.spriteCount(); i++) {
+                        String name = table.spriteNames[i];
+                        if (name.length() > 255) {
+                            throw new IOException("Binary font data holds sprite names of at most 255 characters: " + name);
+                        }
+                        bs.write(name.length(), 1);
+                        for (int c = 0; c < name.length(); c++) {
+                            bs.write(name.charAt(c), 1);
+                        }
+                        bs.write(table.spriteX[i], locationPrecision);
+                        bs.write(table.spriteY[i], locationPrecision);
+                        bs.write(table.spriteWidth[i], locationPrecision);
+                        bs.write(table.spriteHeight[i], locationPrecision);
+                        bs.write(table.spriteBaseline[i], locationPrecision);
+                        bs.write(table.spriteAdvance[i], locationPrecision);
+                        if ((flags & FLAG_CHANNELS) != 0) {
+                            bs.write(table.spriteChannel[i], 1);
+                        }
+                        if ((flags & FLAG_PAGES) != 0) {
+                            bs.write(table.spritePage[i], 1);
+                        }
+                        if ((flags & FLAG_ROTATION) != 0) {
+                            bs.write(table.spriteRotated[i] ? 1 : 0, 1);
+                        }
+                    }
+                }
             }
-            return bs.close();
+            return encoded(event, "binary", bs.close());
         } catch (IOException e) {
             throw e;
         }
     }
 
-    public void saveBinary(String filename) throws Exception {
+    /*
+    returns the primitive tables for every font and size, ascending by font then size, glyphs sorted by code point
+     */
+    public List<GlyphTable> getGlyphTables() {
+        ArrayList<GlyphTable> tables = new ArrayList<GlyphTable>(glyphSets.size());
+        for (SizeColumns columns : glyphSets.values()) {
+            GlyphTable table = columns.freeze();
+            table.distanceFieldSpread = distanceFieldSpread;
+            table.bitDepth = bitDepth;
+            table.channelCount = channelCount;
+            table.pageCount = pageCount;
+            table.rotation = rotation;
+            table.ranked = ranked;
+            table.fontCount = fontCount;
+            tables.add(table);
+        }
+        return tables;
+    }
+
+    /*
+    returns the largest shift (up to 6, ie. whole 26.6 pixels) that every kerning value in the table is divisible by
+     */
+    private static int kerningShift(GlyphTable table) {
+        int bits = 0;
+        for (int pair = 0, count = table.kerningStart[table.size()]; pair < count; pair++) {
+            bits |= table.kerningValues[pair];
+        }
+        return bits == 0 ? 0 : Math.min(Integer.numberOfTrailingZeros(bits), 6);
+    }
+
+    public byte[] getCompactBinary() {
+        //V(n) - unsigned varint in n-bit groups, each followed by a continuation bit
+        //Z(n) - zig-zag signed varint in n-bit groups
+        //3 bytes - magic 'F' 'T' 'C'
+        //1 byte - format version
+        //V(4) - feature flags [F], see getFlags()
+        //V(3) - distance field spread in pixels, if F has FLAG_DISTANCE_FIELD
+        //V(3) - atlas bits per pixel, if F has FLAG_BIT_DEPTH (otherwise 8)
+        //V(2) - atlas color channels, if F has FLAG_CHANNELS (otherwise 1)
+        //V(4) - atlas pages, if F has FLAG_PAGES (otherwise 1)
+        //V(2) - fonts, if F has FLAG_FONTS (otherwise 1)
+        //V(4) - number of sizes, counting each font's sizes separately
+        //* size list, ascending by font then size ---
+        //V(2) - font id, if F has FLAG_FONTS
+        //V(4) - pixel size
+        //V(4) - number of glyphs
+        //V(4) - number of kern pairs in this size
+        //V(2) - kerning shift, kerning values are stored divided by 2^shift (FreeType kerning is usually grid-fitted)
+        //V(2) - number of sprites, if F has FLAG_SPRITES
+        //* glyph list, ascending code point ---
+        //each field is predicted from its neighbours, only the residual is stored
+        //V(3) - code point, delta from the previous glyph
+        //Z(3) - x, delta from the right edge of the previous glyph
+        //Z(4) - y, delta from the previous glyph
+        //Z(3) - width, delta from the previous glyph
+        //Z(3) - height, delta from the previous glyph
+        //Z(3) - horizontal bearing Y, delta from this glyph's height
+        //Z(3) - horizontal advance, delta from this glyph's width
+        //2 bits - color channel, if F has FLAG_CHANNELS
+        //V(2) - atlas page, if F has FLAG_PAGES
+        //1 bit - stored rotated, if F has FLAG_ROTATION
+        //V(4) - usage frequency rank, 0 if unranked, if F has FLAG_RANK
+        //V(2) - kern pair count
+        //* kern list, ascending code point ---
+        //V(3) - right hand code point, delta from the previous pair
+        //Z(3) - kerning >> shift
+        //* kern list ---
+        //* glyph list ---
+        //* sprite list, ascending name ---
+        //V(3) - name length, then 8 bits per ASCII character
+        //V(4) - x
+        //V(4) - y
+        //V(4) - width
+        //V(4) - height
+        //V(3) - baseline, rows down from the top
+        //Z(3) - advance, delta from the width
+        //2 bits - color channel, if F has FLAG_CHANNELS
+        //V(2) - atlas page, if F has FLAG_PAGES
+        //1 bit - stored rotated, if F has FLAG_ROTATION
+        //* sprite list ---
+        //* size list ---
+        //the stream is zero padded to a whole byte
+        GeneratorEvents.MetadataEncode event = new GeneratorEvents.MetadataEncode();
+        event.begin();
+        List<GlyphTable> tables = getGlyphTables();
+        BitStream bs = new BitStream(1024*8);
+        for (int i = 0; i < COMPACT_MAGIC.length; i++) {
+            bs.out(COMPACT_MAGIC[i], 8);
+        }
+        bs.out(COMPACT_VERSION, 8);
+        int flags = getFlags();
+        bs.outVarint(flags, 4);
+        if ((flags & FLAG_DISTANCE_FIELD) != 0) {
+            bs.outVarint(distanceFieldSpread, 3);
+        }
+        if ((flags & FLAG_BIT_DEPTH) != 0) {
+            bs.outVarint(bitDepth, 3);
+        }
+        if ((flags & FLAG_CHANNELS) != 0) {
+            bs.outVarint(channelCount, 2);
+        }
+        if ((flags & FLAG_PAGES) != 0) {
+            bs.outVarint(pageCount, 4);
+        }
+        if ((flags & FLAG_FONTS) != 0) {
+            bs.outVarint(fontCount, 2);
+        }
+        bs.outVarint(tables.size(), 4);
+        for (GlyphTable table : tables) {
+            int glyphCount = table.size();
+            if ((flags & FLAG_FONTS) != 0) {
+                bs.outVarint(table.fontId, 2);
+            }
+            bs.outVarint(table.pixelSize, 4);
+            bs.outVarint(glyphCount, 4);
+            bs.outVarint(table.kerningStart[glyphCount], 4);
+            int kerningShift = kerningShift(table);
+            bs.outVarint(kerningShift, 2);
+            if ((flags & FLAG_SPRITES) != 0) {
+                bs.outVarint(table.spriteCount(), 2);
+            }
+            int lastCodePoint = 0;
+            int lastX = 0;
+            int lastY = 0;
+            int lastWidth = 0;
+            int lastHeight = 0;
+            for (int i = 0; i < glyphCount; i++) {
+                bs.outVarint(table.codePoints[i] - lastCodePoint, 3);
+                bs.outSignedVarint(table.x[i] - (lastX + lastWidth), 3);
+                bs.outSignedVarint(table.y[i] - lastY, 4);
+                bs.outSignedVarint(table.width[i] - lastWidth, 3);
+                bs.outSignedVarint(table.height[i] - lastHeight, 3);
+                bs.outSignedVarint(table.horiBearingY[i] - table.height[i], 3);
+                bs.outSignedVarint(table.horiAdvance[i] - table.width[i], 3);
+                if ((flags & FLAG_CHANNELS) != 0) {
+                    bs.out(table.channel[i], 2);
+                }
+                if ((flags & FLAG_PAGES) != 0) {
+                    bs.outVarint(table.page[i], 2);
+                }
+                if ((flags & FLAG_ROTATION) != 0) {
+                    bs.out(table.rotated[i] ? 1 : 0, 1);
+                }
+                if ((flags & FLAG_RANK) != 0) {
+                    bs.outVarint(table.rank[i], 4);
+                }
+                lastCodePoint = table.codePoints[i];
+                lastX = table.x[i];
+                lastY = table.y[i];
+                lastWidth = table.width[i];
+                lastHeight = table.height[i];
+
+                int from = table.kerningStart[i];
+                int to = table.kerningStart[i + 1];
+                bs.outVarint(to - from, 2);
+                int lastKernCodePoint = 0;
+                for (int pair = from; pair < to; pair++) {
+                    bs.outVarint(table.kerningCodePoints[pair] - lastKernCodePoint, 3);
+                    bs.outSignedVarint(table.kerningValues[pair] >> kerningShift, 3);
+                    lastKernCodePoint = table.kerningCodePoints[pair];
+                }
+            }
+            for (int i = 0; i < table.spriteCount(); i++) {
+                String name = table.spriteNames[i];
+                bs.outVarint(name.length(), 3);
+                for (int c = 0; c < name.length(); c++) {
+                    bs.out(name.charAt(c), 8);
+                }
+                bs.outVarint(table.spriteX[i], 4);
+                bs.outVarint(table.spriteY[i], 4);
+                bs.outVarint(table.spriteWidth[i], 4);
+                bs.outVarint(table.spriteHeight[i], 4);
+                bs.outVarint(table.spriteBaseline[i], 3);
+                bs.outSignedVarint(table.spriteAdvance[i] - table.spriteWidth[i], 3);
+                if ((flags & FLAG_CHANNELS) != 0) {
+                    bs.out(table.spriteChannel[i], 2);
+                }
+                if ((flags & FLAG_PAGES) != 0) {
+                    bs.outVarint(table.spritePage[i], 2);
+                }
+                if ((flags & FLAG_ROTATION) != 0) {
+                    bs.out(table.spriteRotated[i] ? 1 : 0, 1);
+                }
+            }
+        }
+        ByteBuffer buffer = bs.close();
+        return encoded(event, "compact", Arrays.copyOf(buffer.array(), buffer.limit()));
+    }
+
+    /*
+    commits the MetadataEncode event begun before encoding, passing the bytes through
+     */
+    private byte[] encoded(GeneratorEvents.MetadataEncode event, String format, byte[] bytes) {
+        if (event.shouldCommit()) {
+            event.format = format;
+            event.glyphs = glyphCount();
+            event.bytes = bytes.length;
+            event.commit();
+        }
+        return bytes;
+    }
+
+    private int glyphCount() {
+        int count = 0;
+        for (SizeColumns columns : glyphSets.values()) {
+            count += columns.glyphCount;
+        }
+        return count;
+    }
+
+    public void saveCompactBinary(String filename) throws Exception {
         File file = new File(filename);
-        if (!file.getParentFile().exists()) {
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
             file.getParentFile().mkdirs();
         }
 
-        FileOutputStream out = new FileOutputStream(file);
+        byte[] bytes = getCompactBinary();
+        System.out.println(String.format("Writing compact font data: %d bytes", bytes.length));
+        GeneratorEvents.FileWrite event = new GeneratorEvents.FileWrite();
+        event.begin();
+        AtomicFile.write(file, bytes);
+        GeneratorEvents.fileWritten(event, file, 0, 0);
+    }
+
+    public void saveBinary(String filename) throws Exception {
+        File file = new File(filename);
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
+        }
 
         byte[] bytes = getBinary();
         System.out.println(String.format("Writing font data: %d bytes", bytes.length));
-        out.write(bytes);
-        out.flush();
-        out.close();
+        GeneratorEvents.FileWrite event = new GeneratorEvents.FileWrite();
+        event.begin();
+        AtomicFile.write(file, bytes);
+        GeneratorEvents.fileWritten(event, file, 0, 0);
     }
 
     public void saveJson(String filename) throws Exception {
-        String jsonText = JSONValue.toJSONString(glyphSets);
-        PrintWriter writer = new PrintWriter(filename, "UTF-8");
-        writer.println(jsonText);
-        writer.close();
+        saveJson(filename, false);
     }
 
-    public void recordGlyph(int pixelSize, GlyphInfo glyph) {
-        if (!glyphSets.containsKey(pixelSize)) {
-            glyphSets.put(pixelSize, new HashMap<Character, GlyphInfo>());
+    /*
+    returns the JSON document saveJson() would write
+     */
+    public byte[] getJson(boolean arrayLayout) throws IOException {
+        GeneratorEvents.MetadataEncode event = new GeneratorEvents.MetadataEncode();
+        event.begin();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new JsonMetricsWriter(Channels.newChannel(out)).write(getGlyphTables(), arrayLayout);
+        return encoded(event, arrayLayout ? "json-array" : "json", out.toByteArray());
+    }
+
+    /*
+    the size of the JSON document without building it, for the run statistics
+     */
+    public int getJsonLength(boolean arrayLayout) throws IOException {
+        return JsonMetricsWriter.length(getGlyphTables(), arrayLayout);
+    }
+
+    /*
+    streams the metadata straight to the file - see JsonMetricsWriter for the two layouts
+    encoding and writing happen together, so this reports a single FileWrite event
+     */
+    public void saveJson(String filename, boolean arrayLayout) throws Exception {
+        File file = new File(filename);
+        if (file.getParentFile() != null && !file.getParentFile().exists()) {
+            file.getParentFile().mkdirs();
         }
-        glyphSets.get(pixelSize).put(glyph.character, glyph);
+        GeneratorEvents.FileWrite event = new GeneratorEvents.FileWrite();
+        event.begin();
+        File temporary = AtomicFile.temporary(file);
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            new JsonMetricsWriter(out.getChannel()).write(getGlyphTables(), arrayLayout);
+        } finally {
+            out.close();
+        }
+        AtomicFile.commit(temporary, file);
+        GeneratorEvents.fileWritten(event, file, 0, 0);
+    }
+
+    /*
+    marks the glyphs as signed distance fields that reach this many pixels either side of the outline
+     */
+    public void setDistanceFieldSpread(int spread) {
+        distanceFieldSpread = spread;
+    }
+
+    /*
+    bits per pixel the atlas is saved with, 8 unless BitmapRenderer.setBitDepth() was used
+     */
+    public void setBitDepth(int depth) {
+        bitDepth = depth;
+    }
+
+    /*
+    number of color channels in the atlas, glyphs record which one they are in with GlyphInfo.channel
+     */
+    public void setChannelCount(int count) {
+        channelCount = count;
+    }
+
+    /*
+    number of atlas pages, glyphs record which one they are on with GlyphInfo.page
+     */
+    public void setPageCount(int count) {
+        pageCount = count;
+    }
+
+    /*
+    glyphs may be stored rotated, each records whether it is with GlyphInfo.rotated
+     */
+    public void setRotation(boolean in_rotation) {
+        rotation = in_rotation;
+    }
+
+    /*
+    glyphs carry a usage frequency rank in GlyphInfo.rank
+     */
+    public void setRanked(boolean in_ranked) {
+        ranked = in_ranked;
+    }
+
+    /*
+    number of fonts in the atlas, glyphs are recorded under their font id with recordGlyph(fontId, ...)
+     */
+    public void setFontCount(int count) {
+        fontCount = count;
+    }
+
+    /*
+    font ids go above the 16 bit pixel size, so the tables sort by font and then size
+     */
+    private static int tableKey(int fontId, int pixelSize) {
+        return (fontId << 16) | pixelSize;
+    }
+
+    private SizeColumns columns(int fontId, int pixelSize) {
+        int key = tableKey(fontId, pixelSize);
+        SizeColumns columns = glyphSets.get(key);
+        if (columns == null) {
+            columns = new SizeColumns(fontId, pixelSize);
+            glyphSets.put(key, columns);
+        }
+        return columns;
+    }
+
+    public void recordGlyph(int pixelSize, GlyphInfo glyph) {
+        recordGlyph(0, pixelSize, glyph);
+    }
+
+    public void recordGlyph(int fontId, int pixelSize, GlyphInfo glyph) {
+        columns(fontId, pixelSize).addGlyph(glyph);
+    }
+
+    public void recordKerning(int pixelSize, char leftChar, char rightChar, int distance) {
+        recordKerning(0, pixelSize, leftChar, rightChar, distance);
+    }
+
+    /*
+    records the kerning between two glyphs of this font and size, the left glyph is expected to be recorded as well
+     */
+    public void recordKerning(int fontId, int pixelSize, char leftChar, char rightChar, int distance) {
+        columns(fontId, pixelSize).addKerning(leftChar, rightChar, distance);
+    }
+
+    /*
+    records a pre-rendered string that sits among this font and size's glyphs, see StringSprites
+     */
+    public void recordSprite(int fontId, int pixelSize, SpriteInfo sprite) {
+        columns(fontId, pixelSize).addSprite(sprite);
     }
 
     public TypefaceMetrics() {
-        glyphSets = new HashMap<Integer, HashMap<Character, GlyphInfo> >();
+        glyphSets = new TreeMap<Integer, SizeColumns>();
+        bitDepth = 8;
+        channelCount = 1;
+        pageCount = 1;
+        rotation = false;
+        ranked = false;
+        fontCount = 1;
     }
 }
@@ -0,0 +1,622 @@
+package com.wdimiceli;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the metadata written by TypefaceMetrics into primitive glyph tables.
+ *
+ * Handles the deflated .fontdata stream (binary), the same stream embedded in the atlas pixels (embedded)
+ * or in a PNG chunk (chunk), and the bit packed stream (compact).
+ */
+public class TypefaceMetricsReader {
+    //values kept per glyph while reading the binary stream: code point, bearing, advance, x, y, width, height, channel, page, rotated, rank
+    private static final int BINARY_COLUMNS = 11;
+    //values kept per sprite: x, y, width, height, baseline, advance, channel, page, rotated
+    private static final int SPRITE_COLUMNS = 9;
+
+    /*
+    reads any of the metadata files, telling compact and binary apart by the magic number
+     */
+    public static List<GlyphTable> read(File file) throws IOException {
+        return read(Files.readAllBytes(file.toPath()));
+    }
+
+    public static List<GlyphTable> read(byte[] bytes) throws IOException {
+        int[] magic = TypefaceMetrics.COMPACT_MAGIC;
+        boolean compact = bytes.length > magic.length;
+        for (int i = 0; compact && i < magic.length; i++) {
+            compact = (bytes[i] & 0xFF) == magic[i];
+        }
+        return compact ? readCompact(bytes) : readBinary(bytes);
+    }
+
+    private static byte[] inflate(byte[] bytes) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes);
+        //metadata compresses well, so guess generously to avoid regrowing
+        byte[] out = new byte[Math.max(bytes.length * 4, 1024)];
+        int length = 0;
+        try {
+            while (!inflater.finished()) {
+                if (length == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                int inflated = inflater.inflate(out, length, out.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Font data stream is truncated");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Font data stream is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    /*
+    cursor over the inflated binary stream, mirrors ByteStream.write()
+     */
+    private static class ByteCursor {
+        private final byte[] bytes;
+        private int position;
+
+        private int unsigned(int count) throws IOException {
+            if (position + count > bytes.length) {
+                throw new IOException("Font data stream is truncated");
+            }
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 8) | (bytes[position++] & 0xFF);
+            }
+            return value;
+        }
+
+        private int signed(int count) throws IOException {
+            int shift = 32 - count * 8;
+            return (unsigned(count) << shift) >> shift;
+        }
+
+        private ByteCursor(byte[] in_bytes) {
+            bytes = in_bytes;
+            position = 0;
+        }
+    }
+
+    /*
+    decodes the output of TypefaceMetrics.getBinary(), see the format description there
+
+    glyphs come out of the stream in hash order, so each table is sorted by code point on the way in
+    and the tables are sorted by pixel size
+     */
+    public static List<GlyphTable> readBinary(byte[] bytes) throws IOException {
+        byte[] inflated = inflate(bytes);
+        ByteCursor in = new ByteCursor(inflated);
+        int sizeCount = in.unsigned(1);
+        int distanceFieldSpread = 0;
+        int bitDepth = 8;
+        int channelCount = 1;
+        int pageCount = 1;
+        int fontCount = 1;
+        int flags = 0;
+        //a zero size count followed by more than the precision byte is the extended header
+        if (sizeCount == 0 && inflated.length > 2) {
+            int version = in.unsigned(1);
+            if (version != TypefaceMetrics.BINARY_EXTENDED_VERSION) {
+                throw new IOException("Unsupported font data version: " + String.valueOf(version));
+            }
+            flags = in.unsigned(2);
+            if ((flags & TypefaceMetrics.FLAG_DISTANCE_FIELD) != 0) {
+                distanceFieldSpread = in.unsigned(1);
+            }
+            if ((flags & TypefaceMetrics.FLAG_BIT_DEPTH) != 0) {
+                bitDepth = in.unsigned(1);
+            }
+            if ((flags & TypefaceMetrics.FLAG_CHANNELS) != 0) {
+                channelCount = in.unsigned(1);
+            }
+            if ((flags & TypefaceMetrics.FLAG_PAGES) != 0) {
+                pageCount = in.unsigned(1);
+            }
+            if ((flags & TypefaceMetrics.FLAG_FONTS) != 0) {
+                fontCount = in.unsigned(1);
+            }
+            sizeCount = in.unsigned(1);
+        }
+        int sizingPrecision = in.unsigned(1);
+        int[] fontIds = new int[sizeCount];
+        int[] sizes = new int[sizeCount];
+        for (int s = 0; s < sizeCount; s++) {
+            if ((flags & TypefaceMetrics.FLAG_FONTS) != 0) {
+                fontIds[s] = in.unsigned(1);
+            }
+            sizes[s] = in.unsigned(sizingPrecision);
+        }
+
+        ArrayList<GlyphTable> tables = new ArrayList<GlyphTable>(sizeCount);
+        for (int s = 0; s < sizeCount; s++) {
+            int glyphCount = in.unsigned(2);
+            int locationPrecision = in.unsigned(1);
+            //first pass straight into stream order columns
+            int[] columns = new int[glyphCount * BINARY_COLUMNS];
+            int[] kernOffsets = new int[glyphCount + 1];
+            int kernStreamStart = 0;
+            int[] kernPairs = new int[64];
+            for (int i = 0; i < glyphCount; i++) {
+                int column = i * BINARY_COLUMNS;
+                columns[column] = in.unsigned(2);
+                columns[column + 1] = in.signed(sizingPrecision);
+                columns[column + 2] = in.unsigned(sizingPrecision);
+                columns[column + 3] = in.unsigned(locationPrecision);
+                columns[column + 4] = in.unsigned(locationPrecision);
+                columns[column + 5] = in.unsigned(locationPrecision);
+                columns[column + 6] = in.unsigned(locationPrecision);
+                if ((flags & TypefaceMetrics.FLAG_CHANNELS) != 0) {
+                    columns[column + 7] = in.unsigned(1);
+                }
+                if ((flags & TypefaceMetrics.FLAG_PAGES) != 0) {
+                    columns[column + 8] = in.unsigned(1);
+                }
+                if ((flags & TypefaceMetrics.FLAG_ROTATION) != 0) {
+                    columns[column + 9] = in.unsigned(1);
+                }
+                if ((flags & TypefaceMetrics.FLAG_RANK) != 0) {
+                    columns[column + 10] = in.unsigned(2);
+                }
+                int pairCount = in.unsigned(2);
+                kernOffsets[i] = kernStreamStart;
+                if ((kernStreamStart + pairCount) * 2 > kernPairs.length) {
+                    kernPairs = Arrays.copyOf(kernPairs, Math.max(kernPairs.length * 2, (kernStreamStart + pairCount) * 2));
+                }
+                for (int pair = 0; pair < pairCount; pair++) {
+                    kernPairs[(kernStreamStart + pair) * 2] = in.unsigned(2);
+                    kernPairs[(kernStreamStart + pair) * 2 + 1] = in.unsigned(sizingPrecision);
+                }
+                kernStreamStart += pairCount;
+            }
+            kernOffsets[glyphCount] = kernStreamStart;
+
+            //sprites follow the glyphs and are already sorted by name
+            int spriteCount = (flags & TypefaceMetrics.FLAG_SPRITES) != 0 ? in.unsigned(2) : 0;
+            String[] spriteNames = new String[spriteCount];
+            int[] spriteColumns = new int[spriteCount * SPRITE_COLUMNS];
+            for (int i = 0; i < spriteCount; i++) {
+                char[] name = new char[in.unsigned(1)];
+                for (int c = 0; c < name.length; c++) {
+                    name[c] = (char) in.unsigned(1);
+                }
+                spriteNames[i] = new String(name);
+                int column = i * SPRITE_COLUMNS;
+                for (int field = 0; field < 6; field++) {
+                    spriteColumns[column + field] = in.unsigned(locationPrecision);
+                }
+                if ((flags & TypefaceMetrics.FLAG_CHANNELS) != 0) {
+                    spriteColumns[column + 6] = in.unsigned(1);
+                }
+                if ((flags & TypefaceMetrics.FLAG_PAGES) != 0) {
+                    spriteColumns[column + 7] = in.unsigned(1);
+                }
+                if ((flags & TypefaceMetrics.FLAG_ROTATION) != 0) {
+                    spriteColumns[column + 8] = in.unsigned(1);
+                }
+            }
+
+            //code points are 16 bit, so pack them over the stream index and sort once
+            long[] order = new long[glyphCount];
+            for (int i = 0; i < glyphCount; i++) {
+                order[i] = ((long) columns[i * BINARY_COLUMNS] << 32) | i;
+            }
+            Arrays.sort(order);
+
+            GlyphTable table = new GlyphTable(sizes[s], glyphCount, kernStreamStart, spriteCount);
+            table.fontId = fontIds[s];
+            table.fontCount = fontCount;
+            table.distanceFieldSpread = distanceFieldSpread;
+            table.bitDepth = bitDepth;
+            table.channelCount = channelCount;
+            table.pageCount = pageCount;
+            table.rotation = (flags & TypefaceMetrics.FLAG_ROTATION) != 0;
+            table.ranked = (flags & TypefaceMetrics.FLAG_RANK) != 0;
+            int pair = 0;
+            long[] kernOrder = new long[16];
+            for (int i = 0; i < glyphCount; i++) {
+                int source = (int) order[i];
+                int column = source * BINARY_COLUMNS;
+                table.codePoints[i] = columns[column];
+                table.horiBearingY[i] = columns[column + 1];
+                table.horiAdvance[i] = columns[column + 2];
+                table.x[i] = columns[column + 3];
+                table.y[i] = columns[column + 4];
+                table.width[i] = columns[column + 5];
+                table.height[i] = columns[column + 6];
+                table.channel[i] = columns[column + 7];
+                table.page[i] = columns[column + 8];
+                table.rotated[i] = columns[column + 9] != 0;
+                table.rank[i] = columns[column + 10];
+
+                table.kerningStart[i] = pair;
+                int from = kernOffsets[source];
+                int count = kernOffsets[source + 1] - from;
+                if (count > kernOrder.length) {
+                    kernOrder = new long[count];
+                }
+                for (int k = 0; k < count; k++) {
+                    kernOrder[k] = ((long) kernPairs[(from + k) * 2] << 32) | (from + k);
+                }
+                Arrays.sort(kernOrder, 0, count);
+                for (int k = 0; k < count; k++, pair++) {
+                    int kernSource = (int) kernOrder[k];
+                    table.kerningCodePoints[pair] = kernPairs[kernSource * 2];
+                    table.kerningValues[pair] = kernPairs[kernSource * 2 + 1];
+                }
+            }
+            table.kerningStart[glyphCount] = pair;
+            for (int i = 0; i < spriteCount; i++) {
+                int column = i * SPRITE_COLUMNS;
+                table.spriteNames[i] = spriteNames[i];
+                table.spriteX[i] = spriteColumns[column];
+                table.spriteY[i] = spriteColumns[column + 1];
+                table.spriteWidth[i] = spriteColumns[column + 2];
+                table.spriteHeight[i] = spriteColumns[column + 3];
+                table.spriteBaseline[i] = spriteColumns[column + 4];
+                table.spriteAdvance[i] = spriteColumns[column + 5];
+                table.spriteChannel[i] = spriteColumns[column + 6];
+                table.spritePage[i] = spriteColumns[column + 7];
+                table.spriteRotated[i] = spriteColumns[column + 8] != 0;
+            }
+            tables.add(table);
+        }
+        //sizes are also written in hash order
+        Collections.sort(tables, new Comparator<GlyphTable>() {
+            public int compare(GlyphTable a, GlyphTable b) {
+                return a.fontId != b.fontId ? a.fontId - b.fontId : a.pixelSize - b.pixelSize;
+            }
+        });
+        return tables;
+    }
+
+    /*
+    returns the 8-bit samples of a single band image as one array, one byte per pixel with no row padding
+     */
+    private static byte[] grayPixels(BufferedImage image) {
+        Raster raster = image.getRaster();
+        int width = raster.getWidth();
+        int height = raster.getHeight();
+        if (raster.getDataBuffer() instanceof DataBufferByte && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getNumBands() == 1 && raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+            ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+            int stride = sampleModel.getScanlineStride();
+            int offset = sampleModel.getOffset(0, 0) + raster.getDataBuffer().getOffset();
+            if (sampleModel.getPixelStride() == 1 && stride == width && offset == 0) {
+                return data;
+            }
+            if (sampleModel.getPixelStride() == 1) {
+                byte[] pixels = new byte[width * height];
+                for (int row = 0; row < height; row++) {
+                    System.arraycopy(data, offset + row * stride, pixels, row * width, width);
+                }
+                return pixels;
+            }
+        }
+        //anything else goes through one bulk sample fetch
+        int[] samples = raster.getSamples(0, 0, width, height, 0, (int[]) null);
+        byte[] pixels = new byte[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            pixels[i] = (byte) samples[i];
+        }
+        return pixels;
+    }
+
+    /*
+    gathers count bytes from the pixel LSBs of an area, eight pixels per byte, most significant bit first
+    firstPixel is the pixel index within the area (row-major) to start reading from
+    whenever the eight pixels for a byte sit on one row they are read as a single word
+     */
+    private static void decodeBits(ByteBuffer words, int imageWidth, int areaX, int areaY, int areaWidth,
+                                   int firstPixel, byte[] out, int offset, int count) {
+        int column = firstPixel % areaWidth;
+        int index = (areaY + firstPixel / areaWidth) * imageWidth + areaX + column;
+        for (int i = 0; i < count; i++) {
+            int value = 0;
+            if (column + 8 <= areaWidth) {
+                value = BitmapRenderer.gatherBits(words.getLong(index));
+                column += 8;
+                index += 8;
+                if (column == areaWidth) {
+                    column = 0;
+                    index += imageWidth - areaWidth;
+                }
+            } else {
+                for (int bit = 0; bit < 8; bit++) {
+                    value = (value << 1) | (words.get(index) & 1);
+                    if (++column == areaWidth) {
+                        column = 0;
+                        index += imageWidth - areaWidth + 1;
+                    } else {
+                        index++;
+                    }
+                }
+            }
+            out[offset + i] = (byte) value;
+        }
+    }
+
+    /*
+    pulls the payload written by BitmapRenderer.encode() back out of the atlas, see the layout description there
+     */
+    public static byte[] extractEmbedded(BufferedImage image) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] pixels = grayPixels(image);
+        ByteBuffer words = ByteBuffer.wrap(pixels);
+
+        byte[] header = new byte[BitmapRenderer.STRIPE_HEADER_BYTES];
+        //the stream is a four byte length followed by the payload
+        byte[] stream = new byte[4];
+        int streamLength = -1;
+        int written = 0;
+        int stripeStart = 0;
+        for (int column = 0; column < width && written != streamLength; column++) {
+            if ((pixels[column] & 1) == 0) {
+                continue;
+            }
+            //a one on its own marks a column that carries no data
+            int stripeX = stripeStart;
+            int stripeWidth = column + 1 - stripeStart;
+            stripeStart = column + 1;
+            if (stripeWidth < 2) {
+                continue;
+            }
+
+            decodeBits(words, width, stripeX, 1, stripeWidth, 0, header, 0, header.length);
+            int skyline = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+            if (skyline < 2 || skyline > height) {
+                throw new IOException("Embedded font data is corrupt");
+            }
+            int bytesBelowSkyline = ((skyline - 1) * stripeWidth - header.length * 8) / 8;
+            int bytesAboveSkyline = (height - skyline) * stripeWidth;
+            if (written + bytesBelowSkyline + bytesAboveSkyline > stream.length) {
+                stream = Arrays.copyOf(stream, Math.max(stream.length * 2, written + bytesBelowSkyline + bytesAboveSkyline));
+            }
+            decodeBits(words, width, stripeX, 1, stripeWidth, header.length * 8, stream, written, bytesBelowSkyline);
+            written += bytesBelowSkyline;
+            for (int row = skyline; row < height; row++) {
+                System.arraycopy(pixels, row * width + stripeX, stream, written, stripeWidth);
+                written += stripeWidth;
+            }
+
+            if (streamLength < 0 && written >= 4) {
+                int payloadLength = ((stream[0] & 0xFF) << 24) | ((stream[1] & 0xFF) << 16) | ((stream[2] & 0xFF) << 8) | (stream[3] & 0xFF);
+                if (payloadLength < 0 || payloadLength > width * height) {
+                    throw new IOException("Embedded font data is corrupt");
+                }
+                streamLength = payloadLength + 4;
+            }
+            if (streamLength >= 0 && written > streamLength) {
+                written = streamLength;
+            }
+        }
+        if (streamLength < 0 || written < streamLength) {
+            throw new IOException("Embedded font data is truncated");
+        }
+        return Arrays.copyOfRange(stream, 4, streamLength);
+    }
+
+    public static List<GlyphTable> readEmbedded(BufferedImage image) throws IOException {
+        return readBinary(extractEmbedded(image));
+    }
+
+    public static List<GlyphTable> readEmbedded(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Failed to read image: " + file.toString());
+        }
+        return readEmbedded(image);
+    }
+
+    /*
+    decodes the output of TypefaceMetrics.getCompactBinary()
+     */
+    public static List<GlyphTable> readCompact(byte[] bytes) throws IOException {
+        int[] magic = TypefaceMetrics.COMPACT_MAGIC;
+        if (bytes.length < magic.length + 1) {
+            throw new IOException("Compact font data is truncated");
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if ((bytes[i] & 0xFF) != magic[i]) {
+                throw new IOException("Not a compact font data stream");
+            }
+        }
+        int version = bytes[magic.length] & 0xFF;
+        if (version < 1 || version > TypefaceMetrics.COMPACT_VERSION) {
+            throw new IOException("Unsupported compact font data version: " + String.valueOf(version));
+        }
+
+        BitStreamReader in = new BitStreamReader(bytes, magic.length + 1, bytes.length - magic.length - 1);
+        //version 1 had no feature flags
+        int flags = version > 1 ? in.inVarint(4) : 0;
+        int distanceFieldSpread = 0;
+        if ((flags & TypefaceMetrics.FLAG_DISTANCE_FIELD) != 0) {
+            distanceFieldSpread = in.inVarint(3);
+        }
+        int bitDepth = 8;
+        if ((flags & TypefaceMetrics.FLAG_BIT_DEPTH) != 0) {
+            bitDepth = in.inVarint(3);
+        }
+        int channelCount = 1;
+        if ((flags & TypefaceMetrics.FLAG_CHANNELS) != 0) {
+            channelCount = in.inVarint(2);
+        }
+        int pageCount = 1;
+        if ((flags & TypefaceMetrics.FLAG_PAGES) != 0) {
+            pageCount = in.inVarint(4);
+        }
+        int fontCount = 1;
+        if ((flags & TypefaceMetrics.FLAG_FONTS) != 0) {
+            fontCount = in.inVarint(2);
+        }
+        int sizeCount = in.inVarint(4);
+        ArrayList<GlyphTable> tables = new ArrayList<GlyphTable>(sizeCount);
+        for (int s = 0; s < sizeCount; s++) {
+            int fontId = (flags & TypefaceMetrics.FLAG_FONTS) != 0 ? in.inVarint(2) : 0;
+            int pixelSize = in.inVarint(4);
+            int glyphCount = in.inVarint(4);
+            int kerningCount = in.inVarint(4);
+            int kerningShift = in.inVarint(2);
+            int spriteCount = (flags & TypefaceMetrics.FLAG_SPRITES) != 0 ? in.inVarint(2) : 0;
+            GlyphTable table = new GlyphTable(pixelSize, glyphCount, kerningCount, spriteCount);
+            table.fontId = fontId;
+            table.fontCount = fontCount;
+            table.distanceFieldSpread = distanceFieldSpread;
+            table.bitDepth = bitDepth;
+            table.channelCount = channelCount;
+            table.pageCount = pageCount;
+            table.rotation = (flags & TypefaceMetrics.FLAG_ROTATION) != 0;
+            table.ranked = (flags & TypefaceMetrics.FLAG_RANK) != 0;
+            int codePoint = 0;
+            int x = 0;
+            int y = 0;
+            int width = 0;
+            int height = 0;
+            int pair = 0;
+            for (int i = 0; i < glyphCount; i++) {
+                codePoint += in.inVarint(3);
+                x += width + in.inSignedVarint(3);
+                y += in.inSignedVarint(4);
+                width += in.inSignedVarint(3);
+                height += in.inSignedVarint(3);
+                table.codePoints[i] = codePoint;
+                table.x[i] = x;
+                table.y[i] = y;
+                table.width[i] = width;
+                table.height[i] = height;
+                table.horiBearingY[i] = height + in.inSignedVarint(3);
+                table.horiAdvance[i] = width + in.inSignedVarint(3);
+                if ((flags & TypefaceMetrics.FLAG_CHANNELS) != 0) {
+                    table.channel[i] = in.in(2);
+                }
+                if ((flags & TypefaceMetrics.FLAG_PAGES) != 0) {
+                    table.page[i] = in.inVarint(2);
+                }
+                if ((flags & TypefaceMetrics.FLAG_ROTATION) != 0) {
+                    table.rotated[i] = in.in(1) != 0;
+                }
+                if ((flags & TypefaceMetrics.FLAG_RANK) != 0) {
+                    table.rank[i] = in.inVarint(4);
+                }
+
+                table.kerningStart[i] = pair;
+                int pairCount = in.inVarint(2);
+                if (pair + pairCount > kerningCount) {
+                    throw new IOException("Compact font data has more kern pairs than declared");
+                }
+                int kernCodePoint = 0;
+                for (int end = pair + pairCount; pair < end; pair++) {
+                    kernCodePoint += in.inVarint(3);
+                    table.kerningCodePoints[pair] = kernCodePoint;
+                    table.kerningValues[pair] = in.inSignedVarint(3) << kerningShift;
+                }
+            }
+            table.kerningStart[glyphCount] = pair;
+            for (int i = 0; i < spriteCount; i++) {
+                char[] name = new char[in.inVarint(3)];
+                for (int c = 0; c < name.length; c++) {
+                    name[c] = (char) in.in(8);
+                }
+                table.spriteNames[i] = new String(name);
+                table.spriteX[i] = in.inVarint(4);
+                table.spriteY[i] = in.inVarint(4);
+                table.spriteWidth[i] = in.inVarint(4);
+                table.spriteHeight[i] = in.inVarint(4);
+                table.spriteBaseline[i] = in.inVarint(3);
+                table.spriteAdvance[i] = table.spriteWidth[i] + in.inSignedVarint(3);
+                if ((flags & TypefaceMetrics.FLAG_CHANNELS) != 0) {
+                    table.spriteChannel[i] = in.in(2);
+                }
+                if ((flags & TypefaceMetrics.FLAG_PAGES) != 0) {
+                    table.spritePage[i] = in.inVarint(2);
+                }
+                if ((flags & TypefaceMetrics.FLAG_ROTATION) != 0) {
+                    table.spriteRotated[i] = in.in(1) != 0;
+                }
+            }
+            tables.add(table);
+        }
+        return tables;
+    }
+
+    /*
+    pulls the metadata chunk written by BitmapRenderer.saveToFile(file, metadata) out of a PNG
+        walks the chunk headers only, the image data is skipped without being inflated
+     */
+    public static byte[] extractChunk(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        byte[] signature = new byte[BitmapRenderer.PNG_SIGNATURE.length];
+        in.readFully(signature);
+        if (!Arrays.equals(signature, BitmapRenderer.PNG_SIGNATURE)) {
+            throw new IOException("Not a PNG file");
+        }
+        byte[] chunkType = BitmapRenderer.METADATA_CHUNK_TYPE.getBytes(StandardCharsets.US_ASCII);
+        byte[] type = new byte[4];
+        while (true) {
+            int length = in.readInt();
+            in.readFully(type);
+            if (Arrays.equals(type, chunkType)) {
+                byte[] data = new byte[length];
+                in.readFully(data);
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(data);
+                if (in.readInt() != (int) crc.getValue()) {
+                    throw new IOException("Font data chunk is corrupt");
+                }
+                return data;
+            }
+            if (type[0] == 'I' && type[1] == 'E' && type[2] == 'N' && type[3] == 'D') {
+                throw new IOException("PNG has no font data chunk");
+            }
+            //skip the data and the CRC
+            long remaining = (length & 0xFFFFFFFFL) + 4;
+            while (remaining > 0) {
+                int skipped = in.skipBytes((int) Math.min(remaining, Integer.MAX_VALUE));
+                if (skipped <= 0) {
+                    throw new EOFException("PNG is truncated");
+                }
+                remaining -= skipped;
+            }
+        }
+    }
+
+    public static List<GlyphTable> readChunk(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return readBinary(extractChunk(in));
+        } finally {
+            in.close();
+        }
+    }
+}
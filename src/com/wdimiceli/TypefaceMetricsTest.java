@@ -0,0 +1,440 @@
+package com.wdimiceli;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TypefaceMetricsTest {
+
+    private static TypefaceMetrics buildMetrics() {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        int[] sizes = {12, 32};
+        for (int size : sizes) {
+            int x = 0;
+            for (char c = 'A'; c <= 'z'; c++) {
+                TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo(c);
+                info.x = x;
+                info.y = (c % 3) * size;
+                info.width = size / 2 + c % 5;
+                info.height = size - c % 7;
+                info.horiBearingY = size - 2 - c % 11;
+                info.horiAdvance = size / 2 + 1;
+                x += info.width;
+                metrics.recordGlyph(size, info);
+                if (c % 4 == 0) {
+                    metrics.recordKerning(size, c, 'V', 64 * (c % 3 + 1));
+                    metrics.recordKerning(size, c, 'A', 64);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static void assertTablesEqual(List<GlyphTable> expected, List<GlyphTable> decoded) {
+        assertEquals(expected.size(), decoded.size());
+        for (int s = 0; s < expected.size(); s++) {
+            GlyphTable a = expected.get(s);
+            GlyphTable b = decoded.get(s);
+            assertEquals(a.fontId, b.fontId);
+            assertEquals(a.pixelSize, b.pixelSize);
+            assertArrayEquals(a.codePoints, b.codePoints);
+            assertArrayEquals(a.x, b.x);
+            assertArrayEquals(a.y, b.y);
+            assertArrayEquals(a.width, b.width);
+            assertArrayEquals(a.channel, b.channel);
+            assertArrayEquals(a.page, b.page);
+            assertArrayEquals(a.rotated, b.rotated);
+            assertArrayEquals(a.rank, b.rank);
+            assertArrayEquals(a.height, b.height);
+            assertArrayEquals(a.horiBearingY, b.horiBearingY);
+            assertArrayEquals(a.horiAdvance, b.horiAdvance);
+            assertArrayEquals(a.kerningStart, b.kerningStart);
+            assertArrayEquals(a.kerningCodePoints, b.kerningCodePoints);
+            assertArrayEquals(a.kerningValues, b.kerningValues);
+            assertArrayEquals(a.spriteNames, b.spriteNames);
+            assertArrayEquals(a.spriteX, b.spriteX);
+            assertArrayEquals(a.spriteY, b.spriteY);
+            assertArrayEquals(a.spriteWidth, b.spriteWidth);
+            assertArrayEquals(a.spriteHeight, b.spriteHeight);
+            assertArrayEquals(a.spriteBaseline, b.spriteBaseline);
+            assertArrayEquals(a.spriteAdvance, b.spriteAdvance);
+            assertArrayEquals(a.spritePage, b.spritePage);
+            assertArrayEquals(a.spriteRotated, b.spriteRotated);
+        }
+    }
+
+    @Test
+    public void testCompactRoundTrip() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        List<GlyphTable> decoded = TypefaceMetricsReader.readCompact(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), decoded);
+        GlyphTable table = decoded.get(1);
+        assertEquals(128, table.kerning(table.indexOf('X'), 'V'));
+        assertEquals(0, table.kerning(table.indexOf('B'), 'V'));
+    }
+
+    @Test (expected=java.io.IOException.class)
+    public void testCompactRejectsBinary() throws Exception {
+        TypefaceMetricsReader.readCompact(buildMetrics().getBinary());
+    }
+
+    @Test
+    public void testBinaryRoundTrip() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        assertTablesEqual(metrics.getGlyphTables(), TypefaceMetricsReader.readBinary(metrics.getBinary()));
+        assertTablesEqual(metrics.getGlyphTables(), TypefaceMetricsReader.read(metrics.getCompactBinary()));
+    }
+
+    @Test
+    public void testDistanceFieldSpreadRoundTrip() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        assertEquals(0, TypefaceMetricsReader.read(metrics.getBinary()).get(0).distanceFieldSpread);
+        metrics.setDistanceFieldSpread(6);
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), binary);
+        assertTablesEqual(metrics.getGlyphTables(), compact);
+        assertEquals(6, binary.get(1).distanceFieldSpread);
+        assertEquals(6, compact.get(1).distanceFieldSpread);
+    }
+
+    @Test
+    public void testBitDepthRoundTrip() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        assertEquals(8, TypefaceMetricsReader.read(metrics.getCompactBinary()).get(0).bitDepth);
+        metrics.setBitDepth(4);
+        metrics.setDistanceFieldSpread(3);
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), binary);
+        assertEquals(4, binary.get(0).bitDepth);
+        assertEquals(3, binary.get(0).distanceFieldSpread);
+        assertEquals(4, compact.get(0).bitDepth);
+        assertEquals(3, compact.get(0).distanceFieldSpread);
+    }
+
+    @Test
+    public void testChannelRoundTrip() throws Exception {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        metrics.setChannelCount(4);
+        for (int c = 0; c < 4; c++) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo((char) ('a' + c));
+            info.width = 5;
+            info.height = 7;
+            info.channel = c;
+            metrics.recordGlyph(16, info);
+        }
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), binary);
+        assertTablesEqual(metrics.getGlyphTables(), compact);
+        assertEquals(4, binary.get(0).channelCount);
+        assertEquals(4, compact.get(0).channelCount);
+        assertEquals(3, compact.get(0).channel[compact.get(0).indexOf('d')]);
+
+        File file = File.createTempFile("metrics", ".json");
+        try {
+            metrics.saveJson(file.getPath(), true);
+            JSONObject document = (JSONObject) JSONValue.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            assertEquals(4, ((Number) ((JSONObject) document.get("info")).get("channelCount")).intValue());
+            JSONArray glyphs = (JSONArray) ((JSONObject) ((JSONObject) document.get("sizes")).get("16")).get("glyphs");
+            assertEquals(2, ((Number) ((JSONArray) glyphs.get(2)).get(7)).intValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRotationRoundTrip() throws Exception {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        metrics.setRotation(true);
+        for (int c = 0; c < 20; c++) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo((char) ('a' + c));
+            info.x = c * 9;
+            info.width = 3 + c;
+            info.height = 9;
+            info.rotated = c % 3 == 0;
+            metrics.recordGlyph(16, info);
+        }
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), binary);
+        assertTablesEqual(metrics.getGlyphTables(), compact);
+        assertTrue(binary.get(0).rotation);
+        assertTrue(compact.get(0).rotated[3]);
+        assertFalse(compact.get(0).rotated[4]);
+
+        File file = File.createTempFile("metrics", ".json");
+        try {
+            metrics.saveJson(file.getPath());
+            JSONObject document = (JSONObject) JSONValue.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            assertEquals(1, ((Number) ((JSONObject) document.get("info")).get("rotation")).intValue());
+            assertEquals(1, ((Number) ((JSONObject) ((JSONObject) document.get("16")).get("a")).get("rotated")).intValue());
+            assertEquals(0, ((Number) ((JSONObject) ((JSONObject) document.get("16")).get("b")).get("rotated")).intValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testRankRoundTrip() throws Exception {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        metrics.setRanked(true);
+        for (int size : new int[] {12, 16}) {
+            for (int c = 0; c < 30; c++) {
+                TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo((char) ('A' + c));
+                info.x = c * 7;
+                info.width = 6;
+                info.height = 8;
+                //a third of the glyphs unranked, one past a byte
+                info.rank = c % 3 == 0 ? 0 : c * 20;
+                metrics.recordGlyph(size, info);
+            }
+        }
+        assertEquals(TypefaceMetrics.FLAG_RANK, metrics.getFlags());
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), binary);
+        assertTablesEqual(metrics.getGlyphTables(), compact);
+        assertTrue(compact.get(1).ranked);
+        assertEquals(580, binary.get(0).rank[29]);
+        assertEquals(0, compact.get(0).rank[3]);
+
+        JSONObject document = (JSONObject) JSONValue.parse(new String(metrics.getJson(false), StandardCharsets.UTF_8));
+        assertEquals(1, ((Number) ((JSONObject) document.get("info")).get("ranked")).intValue());
+        assertEquals(20, ((Number) ((JSONObject) ((JSONObject) document.get("16")).get("B")).get("rank")).intValue());
+        JSONObject arrays = (JSONObject) JSONValue.parse(new String(metrics.getJson(true), StandardCharsets.UTF_8));
+        assertEquals("rank", ((List<?>) arrays.get("glyphFields")).get(7));
+    }
+
+    @Test
+    public void testFontRoundTrip() throws Exception {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        metrics.setFontCount(3);
+        //recorded out of order, the tables come back by font and then size
+        for (int font : new int[] {2, 0, 1}) {
+            for (int size : new int[] {24, 12}) {
+                for (int c = 0; c < 10; c++) {
+                    TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo((char) ('a' + c));
+                    info.x = c * size + font;
+                    info.width = size / 2;
+                    info.height = size;
+                    metrics.recordGlyph(font, size, info);
+                }
+                metrics.recordKerning(font, size, 'a', 'b', 64 * (font + 1));
+            }
+        }
+        assertEquals(TypefaceMetrics.FLAG_FONTS, metrics.getFlags());
+        List<GlyphTable> tables = metrics.getGlyphTables();
+        assertEquals(6, tables.size());
+        assertEquals(1, tables.get(3).fontId);
+        assertEquals(24, tables.get(3).pixelSize);
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(tables, binary);
+        assertTablesEqual(tables, compact);
+        assertEquals(3, binary.get(0).fontCount);
+        assertEquals(3, compact.get(5).fontCount);
+        assertEquals(192, compact.get(5).kerning(0, 'b'));
+
+        JSONObject document = (JSONObject) JSONValue.parse(new String(metrics.getJson(false), StandardCharsets.UTF_8));
+        assertEquals(3, ((Number) ((JSONObject) document.get("info")).get("fontCount")).intValue());
+        //only the sizes besides the info
+        assertEquals(7, document.size());
+        assertEquals(2 * 12 + 2, ((Number) ((JSONObject) ((JSONObject) document.get("2:12")).get("c")).get("x")).intValue());
+        JSONObject arrays = (JSONObject) JSONValue.parse(new String(metrics.getJson(true), StandardCharsets.UTF_8));
+        assertTrue(((JSONObject) arrays.get("sizes")).containsKey("1:24"));
+    }
+
+    @Test
+    public void testSpriteRoundTrip() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        metrics.setPageCount(2);
+        metrics.setRotation(true);
+        String[] names = {"title", "play_button", "quit"};
+        for (int i = 0; i < names.length; i++) {
+            TypefaceMetrics.SpriteInfo sprite = new TypefaceMetrics.SpriteInfo(names[i]);
+            sprite.x = 300 + i * 90;
+            sprite.y = 20;
+            sprite.width = 80 + i;
+            sprite.height = 30;
+            sprite.baseline = 24;
+            //trailing blanks move the pen past the drawn pixels
+            sprite.advance = 84 + i;
+            sprite.page = i % 2;
+            sprite.rotated = i == 1;
+            metrics.recordSprite(0, 32, sprite);
+        }
+        assertTrue((metrics.getFlags() & TypefaceMetrics.FLAG_SPRITES) != 0);
+        List<GlyphTable> tables = metrics.getGlyphTables();
+        assertEquals(0, tables.get(0).spriteCount());
+        GlyphTable table = tables.get(1);
+        //sorted by name
+        assertArrayEquals(new String[] {"play_button", "quit", "title"}, table.spriteNames);
+        int quit = table.indexOfSprite("quit");
+        assertEquals(480, table.spriteX[quit]);
+        assertEquals(86, table.spriteAdvance[quit]);
+        assertTrue(table.indexOfSprite("missing") < 0);
+        assertTablesEqual(tables, TypefaceMetricsReader.read(metrics.getBinary()));
+        assertTablesEqual(tables, TypefaceMetricsReader.read(metrics.getCompactBinary()));
+
+        JSONObject document = (JSONObject) JSONValue.parse(new String(metrics.getJson(false), StandardCharsets.UTF_8));
+        JSONObject title = (JSONObject) ((JSONObject) ((JSONObject) document.get("sprites")).get("32")).get("title");
+        assertEquals(24, ((Number) title.get("baseline")).intValue());
+        assertFalse(((JSONObject) document.get("sprites")).containsKey("12"));
+        JSONObject arrays = (JSONObject) JSONValue.parse(new String(metrics.getJson(true), StandardCharsets.UTF_8));
+        assertEquals("advance", ((List<?>) arrays.get("spriteFields")).get(6));
+        List<?> first = (List<?>) ((List<?>) ((JSONObject) ((JSONObject) arrays.get("sizes")).get("32")).get("sprites")).get(0);
+        assertEquals("play_button", first.get(0));
+        assertEquals(390, ((Number) first.get(1)).intValue());
+    }
+
+    @Test
+    public void testPageRoundTrip() throws Exception {
+        TypefaceMetrics metrics = new TypefaceMetrics();
+        metrics.setPageCount(40);
+        for (int c = 0; c < 40; c++) {
+            TypefaceMetrics.GlyphInfo info = new TypefaceMetrics.GlyphInfo((char) ('0' + c));
+            info.width = 5;
+            info.height = 7;
+            info.page = 39 - c;
+            metrics.recordGlyph(16, info);
+        }
+        List<GlyphTable> binary = TypefaceMetricsReader.read(metrics.getBinary());
+        List<GlyphTable> compact = TypefaceMetricsReader.read(metrics.getCompactBinary());
+        assertTablesEqual(metrics.getGlyphTables(), binary);
+        assertTablesEqual(metrics.getGlyphTables(), compact);
+        assertEquals(40, binary.get(0).pageCount);
+        assertEquals(40, compact.get(0).pageCount);
+
+        File file = File.createTempFile("metrics", ".json");
+        try {
+            metrics.saveJson(file.getPath(), true);
+            JSONObject document = (JSONObject) JSONValue.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            assertEquals(40, ((Number) ((JSONObject) document.get("info")).get("pageCount")).intValue());
+            assertEquals("page", ((JSONArray) document.get("glyphFields")).get(7));
+            metrics.saveJson(file.getPath());
+            document = (JSONObject) JSONValue.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            assertEquals(39, ((Number) ((JSONObject) ((JSONObject) document.get("16")).get("0")).get("page")).intValue());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testEmbeddedRoundTrip() throws Exception {
+        BitmapRenderer renderer = new BitmapRenderer(256, 256);
+        for (int i = 0; i < 40; i++) {
+            WritableRaster glyph = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 9 + i % 7, 12 + i % 13, 1, new Point(0, 0));
+            for (int y = 0; y < glyph.getHeight(); y++) {
+                for (int x = 0; x < glyph.getWidth(); x++) {
+                    glyph.setSample(x, y, 0, (x * 31 + y * 17) & 0xFF);
+                }
+            }
+            assertNotNull(renderer.putRaster(glyph));
+        }
+        Point trimmed = renderer.trimmedSize();
+        renderer.shrink(trimmed.x, trimmed.y + 16);
+
+        TypefaceMetrics metrics = buildMetrics();
+        byte[] bytes = metrics.getBinary();
+        assertTrue(renderer.bytesAvailbleForEncoding() >= bytes.length);
+        assertEquals(bytes.length, renderer.encode(bytes));
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(renderer.getImage(), "png", png);
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+        assertArrayEquals(bytes, TypefaceMetricsReader.extractEmbedded(image));
+        assertTablesEqual(metrics.getGlyphTables(), TypefaceMetricsReader.readEmbedded(image));
+    }
+
+    @Test
+    public void testChunkRoundTrip() throws Exception {
+        BitmapRenderer renderer = new BitmapRenderer(64, 64);
+        TypefaceMetrics metrics = buildMetrics();
+        File file = File.createTempFile("chunk", ".png");
+        try {
+            renderer.saveToFile(file, metrics.getBinary());
+            assertTablesEqual(metrics.getGlyphTables(), TypefaceMetricsReader.readChunk(file));
+            //other decoders should still see a plain image
+            BufferedImage image = ImageIO.read(file);
+            assertEquals(64, image.getWidth());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testJsonLayouts() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        File file = File.createTempFile("metrics", ".json");
+        try {
+            metrics.saveJson(file.getPath());
+            JSONObject sizes = (JSONObject) JSONValue.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            JSONObject glyph = (JSONObject) ((JSONObject) sizes.get("32")).get("X");
+            assertEquals(88 % 3 * 32, ((Number) glyph.get("y")).intValue());
+            assertEquals(128, ((Number) ((JSONObject) glyph.get("kerningTable")).get("V")).intValue());
+            assertEquals(2, sizes.size());
+
+            metrics.saveJson(file.getPath(), true);
+            JSONObject document = (JSONObject) JSONValue.parse(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            JSONObject size = (JSONObject) ((JSONObject) document.get("sizes")).get("12");
+            JSONArray glyphs = (JSONArray) size.get("glyphs");
+            assertEquals(metrics.getGlyphTables().get(0).size(), glyphs.size());
+            assertEquals('A', ((Number) ((JSONArray) glyphs.get(0)).get(0)).intValue());
+            assertEquals(7, ((JSONArray) glyphs.get(0)).size());
+            //the in-memory document is byte for byte what was saved
+            assertArrayEquals(Files.readAllBytes(file.toPath()), metrics.getJson(true));
+            //and the counted length matches it without building it
+            assertEquals(metrics.getJson(true).length, metrics.getJsonLength(true));
+            assertEquals(metrics.getJson(false).length, metrics.getJsonLength(false));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static int inflatedLength(byte[] bytes) throws Exception {
+        java.util.zip.InflaterInputStream in = new java.util.zip.InflaterInputStream(new ByteArrayInputStream(bytes));
+        int length = 0;
+        byte[] buffer = new byte[4096];
+        for (int read; (read = in.read(buffer)) > 0; ) {
+            length += read;
+        }
+        in.close();
+        return length;
+    }
+
+    @Test
+    public void testBinaryLengthBound() throws Exception {
+        TypefaceMetrics metrics = buildMetrics();
+        assertEquals(inflatedLength(metrics.getBinary()), metrics.getBinaryLengthBound());
+
+        //every optional field and the sprites
+        metrics.setPageCount(2);
+        metrics.setRotation(true);
+        metrics.setFontCount(2);
+        TypefaceMetrics.SpriteInfo sprite = new TypefaceMetrics.SpriteInfo("title");
+        sprite.x = 70000;
+        sprite.width = 80;
+        sprite.height = 30;
+        metrics.recordSprite(1, 32, sprite);
+        assertEquals(inflatedLength(metrics.getBinary()), metrics.getBinaryLengthBound());
+        assertTrue(metrics.getBinaryLengthBound() > metrics.getBinary().length);
+    }
+}